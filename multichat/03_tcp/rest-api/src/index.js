@@ -16,7 +16,8 @@ import {
   clearChatHistory,
   deleteUser,
   cleanupInvalidUsers,
-  endCall
+  endCall,
+  fetchMedia
 } from './services/delegateService.js';
 
 const app = express();
@@ -186,6 +187,34 @@ app.post('/api/call/end', async (req, res) => {
   }
 });
 
+// Stored voice note (id = file name from the history), with Range support for seeking
+app.get('/api/media/:id', async (req, res) => {
+  try {
+    const range = /^bytes=(\d+)-(\d*)$/.exec(req.headers.range || '');
+    const offset = range ? parseInt(range[1]) : 0;
+    const length = range && range[2] ? parseInt(range[2]) - offset + 1 : -1;
+    const { header, stream } = await fetchMedia(req.params.id, offset, length, req.query.format);
+    if (header.status !== 'OK') {
+      stream.destroy();
+      res.status(404).json(header);
+      return;
+    }
+    res.status(range ? 206 : 200);
+    res.set({
+      'Content-Type': 'application/octet-stream',
+      'Content-Length': header.length,
+      'Accept-Ranges': 'bytes',
+      'X-Media-Codec': header.codec,
+    });
+    if (range) {
+      res.set('Content-Range', `bytes ${header.offset}-${header.offset + header.length - 1}/${header.total}`);
+    }
+    stream.pipe(res);
+  } catch (error) {
+    res.status(500).json({ status: 'ERROR', message: error.message });
+  }
+});
+
 const PORT = process.env.PORT || 5001;
 app.listen(PORT, '0.0.0.0', () => {
   console.log(`[REST-API] Server listening on port ${PORT}`);
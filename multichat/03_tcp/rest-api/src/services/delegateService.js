@@ -143,3 +143,54 @@ export const cleanupInvalidUsers = () => {
 export const endCall = (from, to) => {
   return sendRequest('END_CALL', { from, to });
 };
+
+/**
+ * Fetch a stored voice note. The server answers with one JSON line followed by
+ * the raw bytes; the socket is handed back as a stream so they can be piped
+ * to the HTTP response without buffering the note.
+ * Notes are stored as IMA-ADPCM; pass format 'pcm' to get them decoded.
+ */
+export const fetchMedia = (id, offset, length, format) => {
+  return new Promise((resolve, reject) => {
+    const socket = new net.Socket();
+    let head = Buffer.alloc(0);
+
+    const onData = (chunk) => {
+      head = Buffer.concat([head, chunk]);
+      const newlineIndex = head.indexOf(0x0a);
+      if (newlineIndex === -1) {
+        return;
+      }
+      socket.removeListener('data', onData);
+      socket.pause();
+      let header;
+      try {
+        header = JSON.parse(head.subarray(0, newlineIndex).toString());
+      } catch (e) {
+        socket.destroy();
+        reject(e);
+        return;
+      }
+      const rest = head.subarray(newlineIndex + 1);
+      if (rest.length > 0) {
+        socket.unshift(rest);
+      }
+      socket.setTimeout(0);
+      resolve({ header, stream: socket });
+    };
+
+    socket.setTimeout(5000);
+    socket.on('data', onData);
+    socket.on('timeout', () => {
+      socket.destroy();
+      reject(new Error('TCP request timeout'));
+    });
+    socket.on('error', (err) => {
+      reject(err);
+    });
+    socket.connect(PORT, HOST, () => {
+      socket.write(JSON.stringify({ action: 'GET_MEDIA', data: { id, offset, length, format } }));
+      socket.write('\n');
+    });
+  });
+};
@@ -11,21 +11,33 @@ import org.java_websocket.WebSocket;
 import org.java_websocket.handshake.ClientHandshake;
 import org.java_websocket.server.WebSocketServer;
 
+import services.CallRegistry;
+import util.TimingWheel;
+
 public class AudioServer extends WebSocketServer {
     public static AudioServer INSTANCE = null;
 
     private final Map<String, WebSocket> userConnections = new ConcurrentHashMap<>();
     private final Map<WebSocket, String> connectionUsers = new ConcurrentHashMap<>();
 
-    // Simple structure to keep the target and the format of the stream
-    private static class CallTarget {
-        public String target;
-        public String format;
-        public CallTarget(String t, String f) { this.target = t; this.format = f; }
-    }
+    // Llamadas y streams en curso, compartidos con Ice y TCP-JSON
+    private final CallRegistry calls;
 
     public AudioServer(int port) {
+        this(port, new CallRegistry(new TimingWheel("audio-calls", 1000, 64)));
+    }
+
+    public AudioServer(int port, CallRegistry calls) {
         super(new InetSocketAddress(port));
+        this.calls = calls;
+    }
+
+    // Una llamada que nadie contestó se corta también en los dos navegadores
+    private void callEnded(CallRegistry.ActiveCall call, String reason) {
+        if (CallRegistry.TIMEOUT.equals(reason)) {
+            sendSignalTo(call.caller(), "SIGNAL|" + call.callee() + "|CALL_END|" + reason);
+            sendSignalTo(call.callee(), "SIGNAL|" + call.caller() + "|CALL_END|" + reason);
+        }
     }
 
     @Override
@@ -63,9 +75,9 @@ public class AudioServer extends WebSocketServer {
     @Override
     public void onClose(WebSocket conn, int code, String reason, boolean remote) {
         String username = connectionUsers.remove(conn);
-        if (username != null) {
-            userConnections.remove(username);
-            activeCallTargets.remove(username);
+        // Solo si es su conexión actual: el cierre de una anterior no corta la llamada
+        if (username != null && userConnections.remove(username, conn)) {
+            calls.endCallOf(username, CallRegistry.DISCONNECTED);
             System.out.println("[AUDIO] User disconnected: " + username);
         }
     }
@@ -96,6 +108,10 @@ public class AudioServer extends WebSocketServer {
                 WebSocket targetConn = userConnections.get(targetUser);
                 if (targetConn != null && targetConn.isOpen()) {
                     String sender = connectionUsers.get(conn);
+                    if (!trackCall(sender, targetUser, type)) {
+                        conn.send("ERROR|Target busy");
+                        return;
+                    }
                     targetConn.send("SIGNAL|" + sender + "|" + type + "|" + payload);
                 } else {
                     // Target not found or offline
@@ -114,14 +130,15 @@ public class AudioServer extends WebSocketServer {
                     conn.send("ERROR|No sender associated with connection");
                 } else if (targetUser == null || targetUser.isEmpty()) {
                     conn.send("ERROR|Invalid target user");
+                } else if (calls.startStream(sender, targetUser, format) == null) {
+                    conn.send("ERROR|Target busy");
                 } else {
-                    activeCallTargets.put(sender, new CallTarget(targetUser, format));
                     System.out.println("[AUDIO] Stream started from " + sender + " to " + targetUser + " (format=" + format + ")");
                 }
             } else if (parts.length >= 1 && "STOP_STREAM".equals(parts[0])) {
                 String sender = connectionUsers.get(conn);
                 if (sender != null) {
-                    activeCallTargets.remove(sender);
+                    calls.stopStream(sender);
                     System.out.println("[AUDIO] Stream stopped from " + sender);
                 }
             }
@@ -154,27 +171,23 @@ public class AudioServer extends WebSocketServer {
         // Then all subsequent binary messages are forwarded to that target.
 
         String sender = connectionUsers.get(conn);
-        CallTarget ct = activeCallTargets.get(sender);
-        String target = ct != null ? ct.target : null;
+        CallRegistry.ActiveCall call = sender != null ? calls.callOf(sender) : null;
+        String format = call != null ? call.streamFormat(sender) : null;
+        String target = format != null ? call.peerOf(sender) : null;
 
-        if (target != null && ct != null) {
+        if (target != null) {
             WebSocket targetConn = userConnections.get(target);
-            if (sender != null && sender.equals(target)) {
+            if (sender.equals(target)) {
                 System.out.println("[AUDIO] Warning: sender and target are the same (" + sender + "). Skipping forward to avoid echo.");
                 return;
             }
             if (targetConn != null && targetConn.isOpen()) {
-                // Optionally, we can log the stream format for debugging
-                String format = ct.format != null ? ct.format : "unknown";
                 System.out.println("[AUDIO] Forwarding audio from " + sender + " to " + target + " (format=" + format + ", size=" + message.remaining() + ")");
                 targetConn.send(message);
             }
         }
     }
 
-    // Map to store who is streaming to whom: Sender -> CallTarget
-    private final Map<String, CallTarget> activeCallTargets = new ConcurrentHashMap<>();
-
     @Override
     public void onError(WebSocket conn, Exception ex) {
         System.err.println("[AUDIO] Error: " + ex.getMessage());
@@ -182,15 +195,37 @@ public class AudioServer extends WebSocketServer {
 
     @Override
     public void onStart() {
+        // Aquí y no en el constructor: el registro no debe ver un servidor a medio construir
+        calls.addListener(this::callEnded);
         System.out.println("[AUDIO] Audio Server started on port " + getPort());
     }
 
     // Helper to set call target from the text handler
     public void setCallTarget(String sender, String target) {
-        activeCallTargets.put(sender, new CallTarget(target, "unknown"));
+        calls.startStream(sender, target, "unknown");
     }
 
     public void removeCallTarget(String sender) {
-        activeCallTargets.remove(sender);
+        calls.stopStream(sender);
+    }
+
+    // La señalización también abre, contesta y cierra llamadas en el registro.
+    // false si quien llama pide una llamada con alguien que ya está en otra.
+    private boolean trackCall(String sender, String target, String type) {
+        if (sender == null) {
+            return true;
+        }
+        switch (type) {
+            case "CALL_REQUEST":
+                return calls.start(sender, target) != null;
+            case "CALL_ACCEPT":
+                calls.answer(sender, target);
+                return true;
+            case "CALL_END":
+                calls.endBetween(sender, target, CallRegistry.ENDED);
+                return true;
+            default:
+                return true;
+        }
     }
 }
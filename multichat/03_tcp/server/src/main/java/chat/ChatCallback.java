@@ -19,6 +19,8 @@ public interface ChatCallback extends com.zeroc.Ice.Object
 {
     void onNewMessage(Message msg, com.zeroc.Ice.Current current);
 
+    void onNewMessages(Message[] msgs, com.zeroc.Ice.Current current);
+
     void onCallStarted(Call call, com.zeroc.Ice.Current current);
 
     void onCallEnded(String callId, com.zeroc.Ice.Current current);
@@ -65,6 +67,24 @@ public interface ChatCallback extends com.zeroc.Ice.Object
         return inS.setResult(inS.writeEmptyParams());
     }
 
+    /**
+     * @hidden
+     * @param obj -
+     * @param inS -
+     * @param current -
+     * @return -
+    **/
+    static java.util.concurrent.CompletionStage<com.zeroc.Ice.OutputStream> _iceD_onNewMessages(ChatCallback obj, final com.zeroc.IceInternal.Incoming inS, com.zeroc.Ice.Current current)
+    {
+        com.zeroc.Ice.Object._iceCheckMode(null, current.mode);
+        com.zeroc.Ice.InputStream istr = inS.startReadParams();
+        Message[] iceP_msgs;
+        iceP_msgs = MessageSeqHelper.read(istr);
+        inS.endReadParams();
+        obj.onNewMessages(iceP_msgs, current);
+        return inS.setResult(inS.writeEmptyParams());
+    }
+
     /**
      * @hidden
      * @param obj -
@@ -110,7 +130,8 @@ public interface ChatCallback extends com.zeroc.Ice.Object
         "ice_ping",
         "onCallEnded",
         "onCallStarted",
-        "onNewMessage"
+        "onNewMessage",
+        "onNewMessages"
     };
 
     /** @hidden */
@@ -154,6 +175,10 @@ public interface ChatCallback extends com.zeroc.Ice.Object
             {
                 return _iceD_onNewMessage(this, in, current);
             }
+            case 7:
+            {
+                return _iceD_onNewMessages(this, in, current);
+            }
         }
 
         assert(false);
@@ -53,6 +53,42 @@ public interface ChatCallbackPrx extends com.zeroc.Ice.ObjectPrx
         return f;
     }
 
+    default void onNewMessages(Message[] msgs)
+    {
+        onNewMessages(msgs, com.zeroc.Ice.ObjectPrx.noExplicitContext);
+    }
+
+    default void onNewMessages(Message[] msgs, java.util.Map<String, String> context)
+    {
+        _iceI_onNewMessagesAsync(msgs, context, true).waitForResponse();
+    }
+
+    default java.util.concurrent.CompletableFuture<Void> onNewMessagesAsync(Message[] msgs)
+    {
+        return _iceI_onNewMessagesAsync(msgs, com.zeroc.Ice.ObjectPrx.noExplicitContext, false);
+    }
+
+    default java.util.concurrent.CompletableFuture<Void> onNewMessagesAsync(Message[] msgs, java.util.Map<String, String> context)
+    {
+        return _iceI_onNewMessagesAsync(msgs, context, false);
+    }
+
+    /**
+     * @hidden
+     * @param iceP_msgs -
+     * @param context -
+     * @param sync -
+     * @return -
+     **/
+    default com.zeroc.IceInternal.OutgoingAsync<Void> _iceI_onNewMessagesAsync(Message[] iceP_msgs, java.util.Map<String, String> context, boolean sync)
+    {
+        com.zeroc.IceInternal.OutgoingAsync<Void> f = new com.zeroc.IceInternal.OutgoingAsync<>(this, "onNewMessages", null, sync, null);
+        f.invoke(false, context, null, ostr -> {
+                     MessageSeqHelper.write(ostr, iceP_msgs);
+                 }, null);
+        return f;
+    }
+
     default void onCallStarted(Call call)
     {
         onCallStarted(call, com.zeroc.Ice.ObjectPrx.noExplicitContext);
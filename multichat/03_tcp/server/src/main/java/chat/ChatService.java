@@ -17,13 +17,25 @@ package chat;
 
 public interface ChatService extends com.zeroc.Ice.Object
 {
-    Message[] getHistory(String userOrGroupId, com.zeroc.Ice.Current current);
+    java.util.concurrent.CompletionStage<Message[]> getHistoryAsync(String userOrGroupId, com.zeroc.Ice.Current current);
 
-    void sendMessage(String receiver, String content, com.zeroc.Ice.Current current);
+    java.util.concurrent.CompletionStage<Void> sendMessageAsync(String receiver, String content, com.zeroc.Ice.Current current)
+        throws NotAuthenticatedException;
 
-    void sendAudio(String receiver, String audioBase64, com.zeroc.Ice.Current current);
+    java.util.concurrent.CompletionStage<Void> sendAudioAsync(String receiver, String audioBase64, com.zeroc.Ice.Current current)
+        throws NotAuthenticatedException;
 
-    Call startCall(String caller, String callee, com.zeroc.Ice.Current current);
+    java.util.concurrent.CompletionStage<byte[]> fetchMediaAsync(String mediaId, long offset, int length, com.zeroc.Ice.Current current);
+
+    java.util.concurrent.CompletionStage<String> beginAudioUploadAsync(String receiver, int size, com.zeroc.Ice.Current current)
+        throws NotAuthenticatedException;
+
+    java.util.concurrent.CompletionStage<Void> uploadAudioChunkAsync(String uploadId, long offset, byte[] chunk, com.zeroc.Ice.Current current);
+
+    java.util.concurrent.CompletionStage<Message> finishAudioUploadAsync(String uploadId, com.zeroc.Ice.Current current);
+
+    Call startCall(String caller, String callee, com.zeroc.Ice.Current current)
+        throws NotAuthenticatedException;
 
     void endCall(String callId, com.zeroc.Ice.Current current);
 
@@ -69,11 +81,10 @@ public interface ChatService extends com.zeroc.Ice.Object
         String iceP_userOrGroupId;
         iceP_userOrGroupId = istr.readString();
         inS.endReadParams();
-        Message[] ret = obj.getHistory(iceP_userOrGroupId, current);
-        com.zeroc.Ice.OutputStream ostr = inS.startWriteParams();
-        MessageSeqHelper.write(ostr, ret);
-        inS.endWriteParams(ostr);
-        return inS.setResult(ostr);
+        return inS.setResultFuture(obj.getHistoryAsync(iceP_userOrGroupId, current), (ostr, ret) ->
+            {
+                MessageSeqHelper.write(ostr, ret);
+            });
     }
 
     /**
@@ -82,8 +93,10 @@ public interface ChatService extends com.zeroc.Ice.Object
      * @param inS -
      * @param current -
      * @return -
+     * @throws com.zeroc.Ice.UserException -
     **/
     static java.util.concurrent.CompletionStage<com.zeroc.Ice.OutputStream> _iceD_sendMessage(ChatService obj, final com.zeroc.IceInternal.Incoming inS, com.zeroc.Ice.Current current)
+        throws com.zeroc.Ice.UserException
     {
         com.zeroc.Ice.Object._iceCheckMode(null, current.mode);
         com.zeroc.Ice.InputStream istr = inS.startReadParams();
@@ -92,8 +105,7 @@ public interface ChatService extends com.zeroc.Ice.Object
         iceP_receiver = istr.readString();
         iceP_content = istr.readString();
         inS.endReadParams();
-        obj.sendMessage(iceP_receiver, iceP_content, current);
-        return inS.setResult(inS.writeEmptyParams());
+        return inS.setResultFuture(obj.sendMessageAsync(iceP_receiver, iceP_content, current));
     }
 
     /**
@@ -102,8 +114,10 @@ public interface ChatService extends com.zeroc.Ice.Object
      * @param inS -
      * @param current -
      * @return -
+     * @throws com.zeroc.Ice.UserException -
     **/
     static java.util.concurrent.CompletionStage<com.zeroc.Ice.OutputStream> _iceD_sendAudio(ChatService obj, final com.zeroc.IceInternal.Incoming inS, com.zeroc.Ice.Current current)
+        throws com.zeroc.Ice.UserException
     {
         com.zeroc.Ice.Object._iceCheckMode(null, current.mode);
         com.zeroc.Ice.InputStream istr = inS.startReadParams();
@@ -112,8 +126,31 @@ public interface ChatService extends com.zeroc.Ice.Object
         iceP_receiver = istr.readString();
         iceP_audioBase64 = istr.readString();
         inS.endReadParams();
-        obj.sendAudio(iceP_receiver, iceP_audioBase64, current);
-        return inS.setResult(inS.writeEmptyParams());
+        return inS.setResultFuture(obj.sendAudioAsync(iceP_receiver, iceP_audioBase64, current));
+    }
+
+    /**
+     * @hidden
+     * @param obj -
+     * @param inS -
+     * @param current -
+     * @return -
+    **/
+    static java.util.concurrent.CompletionStage<com.zeroc.Ice.OutputStream> _iceD_fetchMedia(ChatService obj, final com.zeroc.IceInternal.Incoming inS, com.zeroc.Ice.Current current)
+    {
+        com.zeroc.Ice.Object._iceCheckMode(null, current.mode);
+        com.zeroc.Ice.InputStream istr = inS.startReadParams();
+        String iceP_mediaId;
+        long iceP_offset;
+        int iceP_length;
+        iceP_mediaId = istr.readString();
+        iceP_offset = istr.readLong();
+        iceP_length = istr.readInt();
+        inS.endReadParams();
+        return inS.setResultFuture(obj.fetchMediaAsync(iceP_mediaId, iceP_offset, iceP_length, current), (ostr, ret) ->
+            {
+                ostr.writeByteSeq(ret);
+            });
     }
 
     /**
@@ -122,8 +159,75 @@ public interface ChatService extends com.zeroc.Ice.Object
      * @param inS -
      * @param current -
      * @return -
+     * @throws com.zeroc.Ice.UserException -
+    **/
+    static java.util.concurrent.CompletionStage<com.zeroc.Ice.OutputStream> _iceD_beginAudioUpload(ChatService obj, final com.zeroc.IceInternal.Incoming inS, com.zeroc.Ice.Current current)
+        throws com.zeroc.Ice.UserException
+    {
+        com.zeroc.Ice.Object._iceCheckMode(null, current.mode);
+        com.zeroc.Ice.InputStream istr = inS.startReadParams();
+        String iceP_receiver;
+        int iceP_size;
+        iceP_receiver = istr.readString();
+        iceP_size = istr.readInt();
+        inS.endReadParams();
+        return inS.setResultFuture(obj.beginAudioUploadAsync(iceP_receiver, iceP_size, current), (ostr, ret) ->
+            {
+                ostr.writeString(ret);
+            });
+    }
+
+    /**
+     * @hidden
+     * @param obj -
+     * @param inS -
+     * @param current -
+     * @return -
+    **/
+    static java.util.concurrent.CompletionStage<com.zeroc.Ice.OutputStream> _iceD_uploadAudioChunk(ChatService obj, final com.zeroc.IceInternal.Incoming inS, com.zeroc.Ice.Current current)
+    {
+        com.zeroc.Ice.Object._iceCheckMode(null, current.mode);
+        com.zeroc.Ice.InputStream istr = inS.startReadParams();
+        String iceP_uploadId;
+        long iceP_offset;
+        byte[] iceP_chunk;
+        iceP_uploadId = istr.readString();
+        iceP_offset = istr.readLong();
+        iceP_chunk = istr.readByteSeq();
+        inS.endReadParams();
+        return inS.setResultFuture(obj.uploadAudioChunkAsync(iceP_uploadId, iceP_offset, iceP_chunk, current));
+    }
+
+    /**
+     * @hidden
+     * @param obj -
+     * @param inS -
+     * @param current -
+     * @return -
+    **/
+    static java.util.concurrent.CompletionStage<com.zeroc.Ice.OutputStream> _iceD_finishAudioUpload(ChatService obj, final com.zeroc.IceInternal.Incoming inS, com.zeroc.Ice.Current current)
+    {
+        com.zeroc.Ice.Object._iceCheckMode(null, current.mode);
+        com.zeroc.Ice.InputStream istr = inS.startReadParams();
+        String iceP_uploadId;
+        iceP_uploadId = istr.readString();
+        inS.endReadParams();
+        return inS.setResultFuture(obj.finishAudioUploadAsync(iceP_uploadId, current), (ostr, ret) ->
+            {
+                Message.ice_write(ostr, ret);
+            });
+    }
+
+    /**
+     * @hidden
+     * @param obj -
+     * @param inS -
+     * @param current -
+     * @return -
+     * @throws com.zeroc.Ice.UserException -
     **/
     static java.util.concurrent.CompletionStage<com.zeroc.Ice.OutputStream> _iceD_startCall(ChatService obj, final com.zeroc.IceInternal.Incoming inS, com.zeroc.Ice.Current current)
+        throws com.zeroc.Ice.UserException
     {
         com.zeroc.Ice.Object._iceCheckMode(null, current.mode);
         com.zeroc.Ice.InputStream istr = inS.startReadParams();
@@ -201,7 +305,10 @@ public interface ChatService extends com.zeroc.Ice.Object
     /** @hidden */
     final static String[] _iceOps =
     {
+        "beginAudioUpload",
         "endCall",
+        "fetchMedia",
+        "finishAudioUpload",
         "getActiveCalls",
         "getHistory",
         "ice_id",
@@ -211,7 +318,8 @@ public interface ChatService extends com.zeroc.Ice.Object
         "sendAudio",
         "sendMessage",
         "startCall",
-        "subscribe"
+        "subscribe",
+        "uploadAudioChunk"
     };
 
     /** @hidden */
@@ -229,48 +337,64 @@ public interface ChatService extends com.zeroc.Ice.Object
         {
             case 0:
             {
-                return _iceD_endCall(this, in, current);
+                return _iceD_beginAudioUpload(this, in, current);
             }
             case 1:
             {
-                return _iceD_getActiveCalls(this, in, current);
+                return _iceD_endCall(this, in, current);
             }
             case 2:
             {
-                return _iceD_getHistory(this, in, current);
+                return _iceD_fetchMedia(this, in, current);
             }
             case 3:
             {
-                return com.zeroc.Ice.Object._iceD_ice_id(this, in, current);
+                return _iceD_finishAudioUpload(this, in, current);
             }
             case 4:
             {
-                return com.zeroc.Ice.Object._iceD_ice_ids(this, in, current);
+                return _iceD_getActiveCalls(this, in, current);
             }
             case 5:
             {
-                return com.zeroc.Ice.Object._iceD_ice_isA(this, in, current);
+                return _iceD_getHistory(this, in, current);
             }
             case 6:
             {
-                return com.zeroc.Ice.Object._iceD_ice_ping(this, in, current);
+                return com.zeroc.Ice.Object._iceD_ice_id(this, in, current);
             }
             case 7:
             {
-                return _iceD_sendAudio(this, in, current);
+                return com.zeroc.Ice.Object._iceD_ice_ids(this, in, current);
             }
             case 8:
             {
-                return _iceD_sendMessage(this, in, current);
+                return com.zeroc.Ice.Object._iceD_ice_isA(this, in, current);
             }
             case 9:
             {
-                return _iceD_startCall(this, in, current);
+                return com.zeroc.Ice.Object._iceD_ice_ping(this, in, current);
             }
             case 10:
+            {
+                return _iceD_sendAudio(this, in, current);
+            }
+            case 11:
+            {
+                return _iceD_sendMessage(this, in, current);
+            }
+            case 12:
+            {
+                return _iceD_startCall(this, in, current);
+            }
+            case 13:
             {
                 return _iceD_subscribe(this, in, current);
             }
+            case 14:
+            {
+                return _iceD_uploadAudioChunk(this, in, current);
+            }
         }
 
         assert(false);
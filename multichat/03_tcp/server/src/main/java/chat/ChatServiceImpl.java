@@ -5,22 +5,154 @@ import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ConcurrentHashMap;
-
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import com.google.gson.Gson;
+import com.zeroc.Ice.Communicator;
+import com.zeroc.Ice.Connection;
+import com.zeroc.Ice.ConnectionClose;
 import com.zeroc.Ice.Current;
+import com.zeroc.Ice.InvocationTimeoutException;
+import com.zeroc.Ice.OutputStream;
 
+import services.CallRegistry;
 import services.ChatServicesImpl;
+import util.MediaStore;
+import util.Metrics;
+import util.SessionWriter;
+import util.VoiceSummary;
 
 public class ChatServiceImpl implements ChatService {
     private final ChatServicesImpl chatServices;
-    private final Map<String, ChatCallbackPrx> subscribers = new ConcurrentHashMap<>();
+    private final Map<String, IceSubscriber> subscribers = new ConcurrentHashMap<>();
+    // Usuario de cada conexión, fijado al suscribirse (o en su primera petición con contexto)
+    // y quitado al cerrarse la conexión
+    private final Map<Connection, String> identities = new ConcurrentHashMap<>();
+
+    private final Metrics.Counter slowSubscribers = Metrics.counter("ice.lag.evicted");
+    private final Metrics.Counter deadSubscribers = Metrics.counter("ice.subscriber.removed");
+
+    public static final int DEFAULT_CALLBACK_MAX_IN_FLIGHT = 16;
+    private volatile int callbackMaxInFlight = DEFAULT_CALLBACK_MAX_IN_FLIGHT;
+    public static final int DEFAULT_CALLBACK_MAX_PENDING = 256;
+    private volatile int callbackMaxPending = DEFAULT_CALLBACK_MAX_PENDING;
+
+    // Por debajo de Ice.MessageSizeMax (1 MB por defecto); el cliente pide el resto por tramos
+    private static final int MAX_MEDIA_CHUNK = 512 * 1024;
+    private static final Gson GSON = new Gson();
+
+    public static final int DEFAULT_IO_THREADS = 4;
+
+    // Disco de las operaciones AMD, fuera del pool de hilos del adaptador. Cada carril es un
+    // hilo: las peticiones con la misma clave (destinatario, subida) se atienden en orden.
+    private final ExecutorService[] ioLanes;
+    private final AtomicInteger ioPending = new AtomicInteger();
 
     public ChatServiceImpl(ChatServicesImpl chatServices) {
+        this(chatServices, DEFAULT_IO_THREADS);
+    }
+
+    public ChatServiceImpl(ChatServicesImpl chatServices, int ioThreads) {
         this.chatServices = chatServices;
+        this.ioLanes = new ExecutorService[ioThreads];
+        for (int i = 0; i < ioThreads; i++) {
+            String name = "ice-io-" + i;
+            ioLanes[i] = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        Metrics.gauge("ice.subscribers", subscribers::size);
+        Metrics.gauge("ice.identities", identities::size);
+        Metrics.gauge("ice.io.pending", ioPending::get);
+        // Cualquier fin de llamada (endCall, END_CALL, CALL_END, timbre vencido) llega a los suscriptores
+        chatServices.getCallRegistry().addListener(this::callEnded);
+    }
+
+    /**
+     * Llamadas sin responder que admite cada suscriptor antes de considerarlo rezagado
+     */
+    public void setCallbackMaxInFlight(int maxInFlight) {
+        this.callbackMaxInFlight = maxInFlight;
+    }
+
+    /**
+     * Mensajes que se le pueden acumular a un suscriptor mientras no responde;
+     * al llenarse se considera rezagado
+     */
+    public void setCallbackMaxPending(int maxPending) {
+        this.callbackMaxPending = maxPending;
+    }
+
+    // ---- Despacho asíncrono (AMD): el hilo de Ice solo lee los parámetros y vuelve ----
+
+    @Override
+    public CompletionStage<Message[]> getHistoryAsync(String userOrGroupId, Current current) {
+        return io(userOrGroupId, () -> getHistory(userOrGroupId));
+    }
+
+    @Override
+    public CompletionStage<Void> sendMessageAsync(String receiver, String content, Current current)
+            throws NotAuthenticatedException {
+        String sender = getUserFromCurrent(current);
+        return io(receiver, () -> {
+            sendMessage(sender, receiver, content);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletionStage<Void> sendAudioAsync(String receiver, String audioBase64, Current current)
+            throws NotAuthenticatedException {
+        String sender = getUserFromCurrent(current);
+        return io(receiver, () -> {
+            sendAudio(sender, receiver, audioBase64);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletionStage<byte[]> fetchMediaAsync(String mediaId, long offset, int length, Current current) {
+        return io(mediaId, () -> fetchMedia(mediaId, offset, length));
+    }
+
+    @Override
+    public CompletionStage<String> beginAudioUploadAsync(String receiver, int size, Current current)
+            throws NotAuthenticatedException {
+        String sender = getUserFromCurrent(current);
+        return io(receiver, () -> beginAudioUpload(sender, receiver, size));
+    }
+
+    @Override
+    public CompletionStage<Void> uploadAudioChunkAsync(String uploadId, long offset, byte[] chunk, Current current) {
+        return io(uploadId, () -> {
+            uploadAudioChunk(uploadId, offset, chunk);
+            return null;
+        });
     }
 
     @Override
-    public Message[] getHistory(String userOrGroupId, Current current) {
+    public CompletionStage<Message> finishAudioUploadAsync(String uploadId, Current current) {
+        return io(uploadId, () -> finishAudioUpload(uploadId));
+    }
+
+    private <T> CompletableFuture<T> io(String key, Supplier<T> work) {
+        ExecutorService lane = ioLanes[Math.floorMod(key != null ? key.hashCode() : 0, ioLanes.length)];
+        ioPending.incrementAndGet();
+        return CompletableFuture.supplyAsync(() -> {
+            ioPending.decrementAndGet();
+            return work.get();
+        }, lane);
+    }
+
+    private Message[] getHistory(String userOrGroupId) {
         try {
             List<String> history = chatServices.getHistory(userOrGroupId);
             List<Message> messages = new ArrayList<>();
@@ -40,9 +172,7 @@ public class ChatServiceImpl implements ChatService {
         }
     }
 
-    @Override
-    public void sendMessage(String receiver, String content, Current current) {
-        String sender = getUserFromCurrent(current);
+    private void sendMessage(String sender, String receiver, String content) {
         System.out.println("[SERVER] sendMessage called — sender: " + sender + ", receiver: " + receiver + ", content: "
                 + content);
         try {
@@ -71,11 +201,12 @@ public class ChatServiceImpl implements ChatService {
                 if (content != null && content.trim().startsWith("{")) {
                     // Parse JSON to find 'type' and optional 'from' and 'format' fields
                     @SuppressWarnings("unchecked")
-                    java.util.Map<String, Object> parsed = new com.google.gson.Gson().fromJson(content,
+                    java.util.Map<String, Object> parsed = GSON.fromJson(content,
                             java.util.Map.class);
                     if (parsed != null && "CALL_ACCEPT".equals(parsed.get("type"))) {
                         String format = parsed.get("format") != null ? (String) parsed.get("format") : "webm";
                         String acceptFrom = parsed.get("from") != null ? (String) parsed.get("from") : msg.sender;
+                        chatServices.getCallRegistry().answer(acceptFrom, receiver);
                         if (AudioServer.INSTANCE != null) {
                             boolean sent = AudioServer.INSTANCE.sendSignalTo(receiver,
                                     "SIGNAL|" + acceptFrom + "|CALL_ACCEPT|format=" + format);
@@ -93,23 +224,22 @@ public class ChatServiceImpl implements ChatService {
         }
     }
 
-    @Override
-    public void sendAudio(String receiver, String audioBase64, Current current) {
-        String sender = getUserFromCurrent(current);
+    // bound: sender es el usuario ligado a la conexión y el del payload no lo reemplaza
+    private void sendAudio(String sender, String receiver, String audioBase64) {
         String actualAudioData = audioBase64;
+        // MediaRecorder manda WebM/MP4: solo se comprime si el cliente declara "format":"pcm"
+        boolean pcm = false;
 
-        // WORKAROUND: Check if audioBase64 is a JSON payload with sender info
-        // This is necessary because Ice context propagation is failing in some
-        // environments
+        // El cliente web puede mandar un JSON con "data" y "format". Un "sender" en el
+        // payload se ignora: el remitente siempre es el usuario ligado a la conexión
         if (audioBase64 != null && audioBase64.trim().startsWith("{")) {
             try {
                 @SuppressWarnings("unchecked")
-                java.util.Map<String, Object> payload = new com.google.gson.Gson().fromJson(audioBase64,
+                java.util.Map<String, Object> payload = GSON.fromJson(audioBase64,
                         java.util.Map.class);
-                if (payload.containsKey("sender") && payload.containsKey("data")) {
-                    sender = (String) payload.get("sender");
+                if (payload.containsKey("data")) {
                     actualAudioData = (String) payload.get("data");
-                    System.out.println("[SERVER] Extracted sender from payload: " + sender);
+                    pcm = "pcm".equals(payload.get("format"));
                 }
             } catch (Exception e) {
                 System.err.println("[SERVER] Failed to parse audio payload: " + e.getMessage());
@@ -122,75 +252,114 @@ public class ChatServiceImpl implements ChatService {
             // Decode base64 to bytes
             byte[] audioData = java.util.Base64.getDecoder().decode(actualAudioData);
 
+            ChatServicesImpl.StoredVoiceNote note;
             if (receiver.startsWith("#")) {
-                chatServices.sendVoiceNoteToGroup(sender, receiver.substring(1), audioData);
+                note = chatServices.sendVoiceNoteToGroup(sender, receiver.substring(1), audioData, pcm);
             } else {
-                chatServices.sendVoiceNoteToUser(sender, receiver, audioData);
+                note = chatServices.sendVoiceNoteToUser(sender, receiver, audioData, pcm);
             }
 
-            // Notify subscribers - use JSON content for audio so clients can parse
-            // structured audio messages.
-            Message msg = new Message();
-            msg.id = System.currentTimeMillis() + "";
-            msg.sender = sender;
-            msg.receiver = receiver;
-            // Build JSON payload so clients can parse: { type:'audio', data: '<base64>' }
-            java.util.Map<String, Object> audioObj = new java.util.HashMap<>();
-            audioObj.put("type", "audio");
-            audioObj.put("data", actualAudioData);
-            try {
-                msg.content = new com.google.gson.Gson().toJson(audioObj);
-            } catch (Exception gsonEx) {
-                // Fallback to raw base64 string if JSON serialization fails
-                msg.content = actualAudioData;
-            }
-            msg.isAudio = true;
-            msg.timestamp = System.currentTimeMillis();
+            // El historial ya tiene el registro voice_note; la cola de pendientes y los
+            // suscriptores reciben solo la referencia, nunca otra copia del base64
+            chatServices.queueVoiceNote(note);
+            notifySubscribers(audioMessage(note));
+        } catch (IOException e) {
+            throw new RuntimeException("Error sending audio", e);
+        }
+    }
 
-            notifySubscribers(msg);
+    private byte[] fetchMedia(String mediaId, long offset, int length) {
+        // Ice necesita el cuerpo en memoria: se devuelve solo el tramo pedido, nunca la nota entera.
+        // Los clientes Ice reproducen PCM: la nota se decodifica aquí, con posiciones del PCM.
+        int chunk = length <= 0 || length > MAX_MEDIA_CHUNK ? MAX_MEDIA_CHUNK : length;
+        try {
+            return chatServices.getMediaPcm(mediaId, offset, chunk).data();
+        } catch (IOException e) {
+            throw new RuntimeException("Error fetching media", e);
+        }
+    }
 
-            // Also log the audio message to history (since sendVoiceNoteToUser doesn't log
-            // the JSON)
-            try {
-                chatServices.sendMessageToUser(sender, receiver, msg.content);
-            } catch (IOException e) {
-                System.err.println("[SERVER] Failed to log audio message to history: " + e.getMessage());
-            }
+    private String beginAudioUpload(String sender, String receiver, int size) {
+        try {
+            boolean isGroup = receiver.startsWith("#");
+            // beginAudioUpload no lleva formato: lo que sube el cliente web se guarda tal cual
+            return chatServices.beginVoiceNote(sender, isGroup ? receiver.substring(1) : receiver, isGroup, size, false);
         } catch (IOException e) {
-            throw new RuntimeException("Error sending audio", e);
+            throw new RuntimeException("Error starting audio upload", e);
         }
     }
 
+    private void uploadAudioChunk(String uploadId, long offset, byte[] chunk) {
+        try {
+            chatServices.appendVoiceNote(uploadId, offset, chunk);
+        } catch (IOException e) {
+            throw new RuntimeException("Error uploading audio chunk", e);
+        }
+    }
+
+    private Message finishAudioUpload(String uploadId) {
+        ChatServicesImpl.StoredVoiceNote note;
+        try {
+            note = chatServices.finishVoiceNote(uploadId);
+        } catch (IOException e) {
+            throw new RuntimeException("Error finishing audio upload", e);
+        }
+        chatServices.queueVoiceNote(note);
+        Message msg = audioMessage(note);
+        notifySubscribers(msg);
+        return msg;
+    }
+
+    // Los suscriptores reciben una referencia al medio; el audio lo piden con fetchMedia al reproducir
+    private static Message audioMessage(ChatServicesImpl.StoredVoiceNote note) {
+        Message msg = new Message();
+        msg.id = System.currentTimeMillis() + "";
+        msg.sender = note.from();
+        msg.receiver = note.isGroup() ? "#" + note.target() : note.target();
+        msg.content = note.reference();
+        msg.isAudio = true;
+        msg.timestamp = System.currentTimeMillis();
+        if (note.summary() != null) {
+            msg.durationMs = note.summary().durationMs();
+            msg.waveform = note.summary().waveform();
+        }
+        return msg;
+    }
+
     @Override
-    public Call startCall(String caller, String callee, Current current) {
+    public Call startCall(String caller, String callee, Current current) throws NotAuthenticatedException {
         String implicitUser = getUserFromCurrent(current);
         System.out.println("[SERVER] startCall called — caller param: " + caller + ", callee: " + callee
                 + ", implicit user: " + implicitUser);
+        if (!chatServices.canCall(caller, callee)) {
+            throw new RuntimeException("Cannot start call");
+        }
+        // Se registra antes de avisar: un destinatario ocupado no recibe INCOMING_CALL
+        CallRegistry.ActiveCall active = chatServices.getCallRegistry().start(caller, callee);
+        if (active == null) {
+            throw new RuntimeException("Cannot start call: " + callee + " is busy");
+        }
         // Log whether callUser returns a valid transport/result
         String result = chatServices.callUser(caller, callee);
         System.out.println("[SERVER] callUser result: " + result);
         if (result == null) {
+            // Uno de los dos se desconectó entre la comprobación y el aviso
+            chatServices.getCallRegistry().end(active.id(), CallRegistry.DISCONNECTED);
             throw new RuntimeException("Cannot start call");
         }
-
-        Call call = new Call();
-        call.callId = caller + "_" + callee + "_" + System.currentTimeMillis();
-        call.caller = caller;
-        call.callee = callee;
-        call.active = true;
-        call.startedAt = System.currentTimeMillis();
+        Call call = toCall(active, true);
 
         // Notify callee (preferred via callback if available)
-        ChatCallbackPrx callback = subscribers.get(callee);
+        IceSubscriber callback = subscribers.get(callee);
         boolean notified = false;
         if (callback != null) {
             try {
-                callback.onCallStarted(call);
+                callback.proxy().onCallStarted(call);
                 notified = true;
             } catch (Exception e) {
                 System.err.println("[SERVER] Error delivering onCallStarted to callback: " + e.getMessage());
                 e.printStackTrace();
-                subscribers.remove(callee);
+                removeSubscriber(callback);
             }
         }
         // If not notified via ICE callback, try AudioServer websocket signaling as
@@ -222,132 +391,213 @@ public class ChatServiceImpl implements ChatService {
 
     @Override
     public void endCall(String callId, Current current) {
-        // Parse callId to get caller and callee
-        String[] parts = callId.split("_");
-        if (parts.length >= 2) {
-            String caller = parts[0];
-            String callee = parts[1];
-
-            Call call = new Call();
-            call.callId = callId;
-            call.caller = caller;
-            call.callee = callee;
-            call.active = false;
-            call.startedAt = 0; // Not relevant
-
-            // Notify both
-            notifyCallEnded(caller, call);
-            notifyCallEnded(callee, call);
+        // Los dos participantes reciben onCallEnded desde callEnded
+        if (chatServices.getCallRegistry().end(callId, CallRegistry.ENDED) == null) {
+            System.out.println("[SERVER] endCall: no active call " + callId);
         }
     }
 
     @Override
     public Call[] getActiveCalls(String userId, Current current) {
-        // For simplicity, return empty array, as active calls tracking is not
-        // implemented
-        return new Call[0];
+        CallRegistry.ActiveCall active = chatServices.getCallRegistry().callOf(userId);
+        return active != null ? new Call[] {toCall(active, true)} : new Call[0];
+    }
+
+    private void callEnded(CallRegistry.ActiveCall active, String reason) {
+        Call call = toCall(active, false);
+        notifyCallEnded(active.caller(), call);
+        notifyCallEnded(active.callee(), call);
+    }
+
+    private static Call toCall(CallRegistry.ActiveCall active, boolean isActive) {
+        Call call = new Call();
+        call.callId = active.id();
+        call.caller = active.caller();
+        call.callee = active.callee();
+        call.active = isActive;
+        call.startedAt = active.startedAt();
+        return call;
     }
 
     @Override
     public void subscribe(String userId, ChatCallbackPrx cb, Current current) {
         System.out.println(
-                "[SERVER] ICE subscribe called for user: " + userId + ", connection: " + current.con.toString());
-        subscribers.put(userId, cb);
+                "[SERVER] ICE subscribe called for user: " + userId + ", connection: " + current.con);
+        bindIdentity(current.con, userId);
+        // Una llamada sin respuesta dentro del límite de retraso vence y el suscriptor se considera rezagado
+        IceSubscriber subscriber = new IceSubscriber(userId,
+                cb.ice_invocationTimeout((int) SessionWriter.lagMaxAgeMillis()), callbackMaxInFlight,
+                callbackMaxPending, this::deliveryFailed);
+        IceSubscriber previous = subscribers.put(userId, subscriber);
+        if (previous != null) {
+            previous.unregisterMetrics();
+        }
+        subscriber.registerMetrics();
     }
 
     private void notifySubscribers(Message msg) {
-        System.out.println("[SERVER] notifySubscribers called for msg to: " + msg.receiver + ", from: " + msg.sender);
-
-        // 1. Send to receiver (if online)
-        if (subscribers.containsKey(msg.receiver)) {
-            try {
-                System.out.println("[SERVER] Sending to receiver: " + msg.receiver);
-                subscribers.get(msg.receiver).onNewMessage(msg);
-            } catch (Exception e) {
-                System.err.println("[SERVER] Error sending to receiver: "
-                        + (e.getMessage() != null ? e.getMessage() : "(no message)"));
-                e.printStackTrace();
-                subscribers.remove(msg.receiver);
-                // Fallback: send via AudioServer signaling if available
-                if (AudioServer.INSTANCE != null) {
-                    String encodedContent = msg.content;
-                    try {
-                        encodedContent = URLEncoder.encode(msg.content != null ? msg.content : "", "UTF-8");
-                    } catch (Exception encEx) {
-                        System.err.println("[SERVER] Failed to URL-encode message content for SIGNAL fallback: "
-                                + encEx.getMessage());
-                    }
-                    String signal = "MSG|" + msg.sender + "|MSG|" + encodedContent;
-                    boolean ok = AudioServer.INSTANCE.sendSignalTo(msg.receiver, signal);
-                    if (ok) {
-                        System.out.println("[SERVER] Fallback: sent message via AudioServer to " + msg.receiver);
-                    } else {
-                        System.out.println("[SERVER] Fallback: AudioServer couldn't find user " + msg.receiver);
-                    }
+        // Instantánea de destinatarios: el receptor y, si es grupo, los miembros menos el remitente
+        List<String> recipients = new ArrayList<>();
+        recipients.add(msg.receiver);
+        if (msg.receiver.startsWith("#")) {
+            for (String member : chatServices.getGroupMembers(msg.receiver.substring(1))) {
+                if (!member.equals(msg.sender)) {
+                    recipients.add(member);
                 }
             }
-        } else {
-            System.out.println("[SERVER] Receiver " + msg.receiver + " not found in subscribers. Available: "
-                    + subscribers.keySet());
         }
 
-        // 2. If it's a group message, send to all members except sender
-        if (msg.receiver.startsWith("#")) {
-            String groupName = msg.receiver.substring(1);
-            List<String> members = chatServices.getGroupMembers(groupName);
-            for (String member : members) {
-                if (!member.equals(msg.sender) && subscribers.containsKey(member)) {
-                    try {
-                        subscribers.get(member).onNewMessage(msg);
-                    } catch (Exception e) {
-                        subscribers.remove(member);
-                    }
+        // El mensaje se serializa una sola vez y todos los suscriptores reciben los mismos bytes.
+        // Cada suscriptor lo encola y lo manda de forma asíncrona (junto con otros si el cliente
+        // aún no respondió la llamada anterior): quien envía no espera a nadie, y los fallos se
+        // atienden en deliveryFailed, sin bloquear ningún hilo.
+        byte[] inParams = null;
+        for (String recipient : recipients) {
+            IceSubscriber subscriber = subscribers.get(recipient);
+            if (subscriber == null) {
+                continue;
+            }
+            if (inParams == null) {
+                inParams = encodeMessage(subscriber.proxy().ice_getCommunicator(), msg);
+            }
+            if (!subscriber.deliver(msg, inParams)) {
+                // Cola llena: no se le encola nada más
+                evictSlowSubscriber(subscriber);
+                if (recipient.equals(msg.receiver)) {
+                    signalFallback(msg);
                 }
             }
         }
+        if (inParams == null) {
+            System.out.println("[SERVER] No subscribers online for msg to: " + msg.receiver);
+        }
     }
 
-    private void notifyCallEnded(String userId, Call call) {
-        ChatCallbackPrx callback = subscribers.get(userId);
-        if (callback != null) {
-            try {
-                callback.onCallEnded(call.callId);
-            } catch (Exception e) {
-                // Ignore
+    // Una llamada vencida es un suscriptor lento; cualquier otro error, un proxy muerto.
+    // Lo que iba dirigido directamente a él se intenta por la señalización de AudioServer.
+    private void deliveryFailed(IceSubscriber subscriber, Throwable cause, List<Message> undelivered) {
+        if (cause instanceof InvocationTimeoutException) {
+            evictSlowSubscriber(subscriber);
+        } else {
+            System.err.println("[SERVER] Error sending to " + subscriber.userId() + ": "
+                    + (cause.getMessage() != null ? cause.getMessage() : cause.getClass().getSimpleName()));
+            removeSubscriber(subscriber);
+        }
+        for (Message msg : undelivered) {
+            if (subscriber.userId().equals(msg.receiver)) {
+                signalFallback(msg);
+            }
+        }
+    }
+
+    /**
+     * Saca de la difusión a un suscriptor lento. En modo PULL el cliente sigue
+     * conectado y recupera lo perdido con getHistory; en DISCONNECT se corta su conexión.
+     */
+    private void evictSlowSubscriber(IceSubscriber subscriber) {
+        if (!subscribers.remove(subscriber.userId(), subscriber)) {
+            return;
+        }
+        subscriber.unregisterMetrics();
+        slowSubscribers.increment();
+        System.err.println("[SERVER] Subscriber " + subscriber.userId() + " is lagging, removed from push delivery");
+        if (SessionWriter.lagAction() == SessionWriter.LagAction.DISCONNECT) {
+            Connection con = subscriber.proxy().ice_getCachedConnection();
+            if (con != null) {
+                con.close(ConnectionClose.Forcefully);
             }
         }
     }
 
-    private String getUserFromCurrent(Current current) {
-        // Extract user from connection context or connection info
-        // For WebSocket connections, we can try to get user from connection string
-        String connectionInfo = current.con.toString();
+    // Proxy muerto (conexión cerrada, objeto inexistente): se quita sin esperar a nada
+    private void removeSubscriber(IceSubscriber subscriber) {
+        if (subscribers.remove(subscriber.userId(), subscriber)) {
+            subscriber.unregisterMetrics();
+            deadSubscribers.increment();
+        }
+    }
 
-        // Look for user parameter in connection string
-        // (ws://host:port/ChatService?user=username)
-        if (connectionInfo.contains("user=")) {
-            String[] parts = connectionInfo.split("user=");
-            if (parts.length > 1) {
-                String userPart = parts[1].split("[&\\s]")[0]; // Extract until & or space
-                return userPart;
+    private static byte[] encodeMessage(Communicator communicator, Message msg) {
+        OutputStream out = new OutputStream(communicator);
+        out.startEncapsulation();
+        Message.ice_write(out, msg);
+        out.endEncapsulation();
+        return out.finished();
+    }
+
+    /**
+     * Fallback: enviar vía señalización de AudioServer si el callback ICE falló
+     */
+    private void signalFallback(Message msg) {
+        if (AudioServer.INSTANCE == null) {
+            return;
+        }
+        String encodedContent = msg.content;
+        try {
+            encodedContent = URLEncoder.encode(msg.content != null ? msg.content : "", "UTF-8");
+        } catch (Exception encEx) {
+            System.err.println("[SERVER] Failed to URL-encode message content for SIGNAL fallback: "
+                    + encEx.getMessage());
+        }
+        String signal = "MSG|" + msg.sender + "|MSG|" + encodedContent;
+        boolean ok = AudioServer.INSTANCE.sendSignalTo(msg.receiver, signal);
+        if (ok) {
+            System.out.println("[SERVER] Fallback: sent message via AudioServer to " + msg.receiver);
+        } else {
+            System.out.println("[SERVER] Fallback: AudioServer couldn't find user " + msg.receiver);
+        }
+    }
+
+    private void notifyCallEnded(String userId, Call call) {
+        IceSubscriber subscriber = subscribers.get(userId);
+        if (subscriber != null) {
+            CompletableFuture<Void> delivery = subscriber.call(cb -> cb.onCallEndedAsync(call.callId));
+            if (delivery != null) {
+                delivery.exceptionally(e -> null); // Ignore
             }
         }
+    }
 
-        // Fallback: try context
-        if (current.ctx != null && current.ctx.containsKey("user")) {
-            Object ctxVal = current.ctx.get("user");
-            System.out.println("[SERVER] current.ctx contains: user=" + ctxVal);
-            return (String) ctxVal;
+    /**
+     * Usuario de la petición: el que está ligado a su conexión, sin tocar cadenas.
+     * Una conexión que aún no se suscribió se liga aquí con el usuario del contexto
+     * (o el ?user= de la URL WebSocket), una sola vez.
+     * @throws NotAuthenticatedException si la conexión no tiene usuario: la petición se rechaza
+     */
+    private String getUserFromCurrent(Current current) throws NotAuthenticatedException {
+        String user = current.con != null ? identities.get(current.con) : null;
+        if (user != null) {
+            return user;
+        }
+        user = current.ctx != null ? current.ctx.get("user") : null;
+        if ((user == null || user.isEmpty()) && current.con != null) {
+            user = userFromUrl(current.con.toString());
         }
+        if (user == null || user.isEmpty()) {
+            System.out.println("[SERVER] Rejected request without user: " + current.con + ", ctx: " + current.ctx);
+            throw new NotAuthenticatedException("no user bound to this connection: subscribe or send the 'user' context");
+        }
+        bindIdentity(current.con, user);
+        return user;
+    }
 
-        // Last resort: extract from connection string pattern
-        // This is a temporary solution for demo purposes
-        if (current.ctx != null) {
-            System.out.println("[SERVER] Current.ctx entries: " + current.ctx);
+    private void bindIdentity(Connection con, String userId) {
+        if (con == null) {
+            return; // Llamada local, sin conexión
         }
-        System.out.println("[SERVER] Unable to extract user from current: " + connectionInfo + ", ctx: "
-                + (current.ctx != null ? current.ctx : "null"));
-        return "unknown_user";
+        if (identities.put(con, userId) == null) {
+            // Si la conexión ya se cerró, Ice llama al callback enseguida
+            con.setCloseCallback(identities::remove);
+        }
+    }
+
+    // ws://host:port/ChatService?user=username
+    private static String userFromUrl(String connectionInfo) {
+        int i = connectionInfo.indexOf("user=");
+        if (i < 0) {
+            return null;
+        }
+        return connectionInfo.substring(i + 5).split("[&\\s]")[0]; // Hasta & o espacio
     }
 
     private Message parseMessage(String line) {
@@ -376,12 +626,24 @@ public class ChatServiceImpl implements ChatService {
                         case "file":
                             msg.content = value;
                             break;
+                        case "dur":
+                            msg.durationMs = Integer.parseInt(value);
+                            break;
+                        case "wave":
+                            msg.waveform = value;
+                            break;
                         case "ts":
                             msg.timestamp = java.time.Instant.parse(value.replace(" ", "T")).toEpochMilli();
                             break;
                     }
                 }
             }
+            if (msg.isAudio) {
+                // Referencia al medio, como en vivo; la ruta en disco no sale del servidor
+                VoiceSummary summary = msg.waveform != null && !msg.waveform.isEmpty()
+                        ? new VoiceSummary(msg.durationMs, msg.waveform) : null;
+                msg.content = ChatServicesImpl.StoredVoiceNote.reference(MediaStore.referencedId(line), summary);
+            }
             return msg;
         } catch (Exception e) {
             return null;
@@ -58,13 +58,26 @@ public interface ChatServicePrx extends com.zeroc.Ice.ObjectPrx
     }
 
     default void sendMessage(String receiver, String content)
+        throws NotAuthenticatedException
     {
         sendMessage(receiver, content, com.zeroc.Ice.ObjectPrx.noExplicitContext);
     }
 
     default void sendMessage(String receiver, String content, java.util.Map<String, String> context)
-    {
-        _iceI_sendMessageAsync(receiver, content, context, true).waitForResponse();
+        throws NotAuthenticatedException
+    {
+        try
+        {
+            _iceI_sendMessageAsync(receiver, content, context, true).waitForResponseOrUserEx();
+        }
+        catch(NotAuthenticatedException ex)
+        {
+            throw ex;
+        }
+        catch(com.zeroc.Ice.UserException ex)
+        {
+            throw new com.zeroc.Ice.UnknownUserException(ex.ice_id(), ex);
+        }
     }
 
     default java.util.concurrent.CompletableFuture<Void> sendMessageAsync(String receiver, String content)
@@ -87,7 +100,7 @@ public interface ChatServicePrx extends com.zeroc.Ice.ObjectPrx
      **/
     default com.zeroc.IceInternal.OutgoingAsync<Void> _iceI_sendMessageAsync(String iceP_receiver, String iceP_content, java.util.Map<String, String> context, boolean sync)
     {
-        com.zeroc.IceInternal.OutgoingAsync<Void> f = new com.zeroc.IceInternal.OutgoingAsync<>(this, "sendMessage", null, sync, null);
+        com.zeroc.IceInternal.OutgoingAsync<Void> f = new com.zeroc.IceInternal.OutgoingAsync<>(this, "sendMessage", null, sync, _iceE_sendMessage);
         f.invoke(false, context, null, ostr -> {
                      ostr.writeString(iceP_receiver);
                      ostr.writeString(iceP_content);
@@ -95,14 +108,33 @@ public interface ChatServicePrx extends com.zeroc.Ice.ObjectPrx
         return f;
     }
 
+    /** @hidden */
+    static final Class<?>[] _iceE_sendMessage =
+    {
+        NotAuthenticatedException.class
+    };
+
     default void sendAudio(String receiver, String audioBase64)
+        throws NotAuthenticatedException
     {
         sendAudio(receiver, audioBase64, com.zeroc.Ice.ObjectPrx.noExplicitContext);
     }
 
     default void sendAudio(String receiver, String audioBase64, java.util.Map<String, String> context)
-    {
-        _iceI_sendAudioAsync(receiver, audioBase64, context, true).waitForResponse();
+        throws NotAuthenticatedException
+    {
+        try
+        {
+            _iceI_sendAudioAsync(receiver, audioBase64, context, true).waitForResponseOrUserEx();
+        }
+        catch(NotAuthenticatedException ex)
+        {
+            throw ex;
+        }
+        catch(com.zeroc.Ice.UserException ex)
+        {
+            throw new com.zeroc.Ice.UnknownUserException(ex.ice_id(), ex);
+        }
     }
 
     default java.util.concurrent.CompletableFuture<Void> sendAudioAsync(String receiver, String audioBase64)
@@ -125,7 +157,7 @@ public interface ChatServicePrx extends com.zeroc.Ice.ObjectPrx
      **/
     default com.zeroc.IceInternal.OutgoingAsync<Void> _iceI_sendAudioAsync(String iceP_receiver, String iceP_audioBase64, java.util.Map<String, String> context, boolean sync)
     {
-        com.zeroc.IceInternal.OutgoingAsync<Void> f = new com.zeroc.IceInternal.OutgoingAsync<>(this, "sendAudio", null, sync, null);
+        com.zeroc.IceInternal.OutgoingAsync<Void> f = new com.zeroc.IceInternal.OutgoingAsync<>(this, "sendAudio", null, sync, _iceE_sendAudio);
         f.invoke(false, context, null, ostr -> {
                      ostr.writeString(iceP_receiver);
                      ostr.writeString(iceP_audioBase64);
@@ -133,14 +165,218 @@ public interface ChatServicePrx extends com.zeroc.Ice.ObjectPrx
         return f;
     }
 
+    /** @hidden */
+    static final Class<?>[] _iceE_sendAudio =
+    {
+        NotAuthenticatedException.class
+    };
+
+    default byte[] fetchMedia(String mediaId, long offset, int length)
+    {
+        return fetchMedia(mediaId, offset, length, com.zeroc.Ice.ObjectPrx.noExplicitContext);
+    }
+
+    default byte[] fetchMedia(String mediaId, long offset, int length, java.util.Map<String, String> context)
+    {
+        return _iceI_fetchMediaAsync(mediaId, offset, length, context, true).waitForResponse();
+    }
+
+    default java.util.concurrent.CompletableFuture<byte[]> fetchMediaAsync(String mediaId, long offset, int length)
+    {
+        return _iceI_fetchMediaAsync(mediaId, offset, length, com.zeroc.Ice.ObjectPrx.noExplicitContext, false);
+    }
+
+    default java.util.concurrent.CompletableFuture<byte[]> fetchMediaAsync(String mediaId, long offset, int length, java.util.Map<String, String> context)
+    {
+        return _iceI_fetchMediaAsync(mediaId, offset, length, context, false);
+    }
+
+    /**
+     * @hidden
+     * @param iceP_mediaId -
+     * @param iceP_offset -
+     * @param iceP_length -
+     * @param context -
+     * @param sync -
+     * @return -
+     **/
+    default com.zeroc.IceInternal.OutgoingAsync<byte[]> _iceI_fetchMediaAsync(String iceP_mediaId, long iceP_offset, int iceP_length, java.util.Map<String, String> context, boolean sync)
+    {
+        com.zeroc.IceInternal.OutgoingAsync<byte[]> f = new com.zeroc.IceInternal.OutgoingAsync<>(this, "fetchMedia", null, sync, null);
+        f.invoke(true, context, null, ostr -> {
+                     ostr.writeString(iceP_mediaId);
+                     ostr.writeLong(iceP_offset);
+                     ostr.writeInt(iceP_length);
+                 }, istr -> {
+                     byte[] ret;
+                     ret = istr.readByteSeq();
+                     return ret;
+                 });
+        return f;
+    }
+
+    default String beginAudioUpload(String receiver, int size)
+        throws NotAuthenticatedException
+    {
+        return beginAudioUpload(receiver, size, com.zeroc.Ice.ObjectPrx.noExplicitContext);
+    }
+
+    default String beginAudioUpload(String receiver, int size, java.util.Map<String, String> context)
+        throws NotAuthenticatedException
+    {
+        try
+        {
+            return _iceI_beginAudioUploadAsync(receiver, size, context, true).waitForResponseOrUserEx();
+        }
+        catch(NotAuthenticatedException ex)
+        {
+            throw ex;
+        }
+        catch(com.zeroc.Ice.UserException ex)
+        {
+            throw new com.zeroc.Ice.UnknownUserException(ex.ice_id(), ex);
+        }
+    }
+
+    default java.util.concurrent.CompletableFuture<String> beginAudioUploadAsync(String receiver, int size)
+    {
+        return _iceI_beginAudioUploadAsync(receiver, size, com.zeroc.Ice.ObjectPrx.noExplicitContext, false);
+    }
+
+    default java.util.concurrent.CompletableFuture<String> beginAudioUploadAsync(String receiver, int size, java.util.Map<String, String> context)
+    {
+        return _iceI_beginAudioUploadAsync(receiver, size, context, false);
+    }
+
+    /**
+     * @hidden
+     * @param iceP_receiver -
+     * @param iceP_size -
+     * @param context -
+     * @param sync -
+     * @return -
+     **/
+    default com.zeroc.IceInternal.OutgoingAsync<String> _iceI_beginAudioUploadAsync(String iceP_receiver, int iceP_size, java.util.Map<String, String> context, boolean sync)
+    {
+        com.zeroc.IceInternal.OutgoingAsync<String> f = new com.zeroc.IceInternal.OutgoingAsync<>(this, "beginAudioUpload", null, sync, _iceE_beginAudioUpload);
+        f.invoke(true, context, null, ostr -> {
+                     ostr.writeString(iceP_receiver);
+                     ostr.writeInt(iceP_size);
+                 }, istr -> {
+                     String ret;
+                     ret = istr.readString();
+                     return ret;
+                 });
+        return f;
+    }
+
+    /** @hidden */
+    static final Class<?>[] _iceE_beginAudioUpload =
+    {
+        NotAuthenticatedException.class
+    };
+
+    default void uploadAudioChunk(String uploadId, long offset, byte[] chunk)
+    {
+        uploadAudioChunk(uploadId, offset, chunk, com.zeroc.Ice.ObjectPrx.noExplicitContext);
+    }
+
+    default void uploadAudioChunk(String uploadId, long offset, byte[] chunk, java.util.Map<String, String> context)
+    {
+        _iceI_uploadAudioChunkAsync(uploadId, offset, chunk, context, true).waitForResponse();
+    }
+
+    default java.util.concurrent.CompletableFuture<Void> uploadAudioChunkAsync(String uploadId, long offset, byte[] chunk)
+    {
+        return _iceI_uploadAudioChunkAsync(uploadId, offset, chunk, com.zeroc.Ice.ObjectPrx.noExplicitContext, false);
+    }
+
+    default java.util.concurrent.CompletableFuture<Void> uploadAudioChunkAsync(String uploadId, long offset, byte[] chunk, java.util.Map<String, String> context)
+    {
+        return _iceI_uploadAudioChunkAsync(uploadId, offset, chunk, context, false);
+    }
+
+    /**
+     * @hidden
+     * @param iceP_uploadId -
+     * @param iceP_offset -
+     * @param iceP_chunk -
+     * @param context -
+     * @param sync -
+     * @return -
+     **/
+    default com.zeroc.IceInternal.OutgoingAsync<Void> _iceI_uploadAudioChunkAsync(String iceP_uploadId, long iceP_offset, byte[] iceP_chunk, java.util.Map<String, String> context, boolean sync)
+    {
+        com.zeroc.IceInternal.OutgoingAsync<Void> f = new com.zeroc.IceInternal.OutgoingAsync<>(this, "uploadAudioChunk", null, sync, null);
+        f.invoke(false, context, null, ostr -> {
+                     ostr.writeString(iceP_uploadId);
+                     ostr.writeLong(iceP_offset);
+                     ostr.writeByteSeq(iceP_chunk);
+                 }, null);
+        return f;
+    }
+
+    default Message finishAudioUpload(String uploadId)
+    {
+        return finishAudioUpload(uploadId, com.zeroc.Ice.ObjectPrx.noExplicitContext);
+    }
+
+    default Message finishAudioUpload(String uploadId, java.util.Map<String, String> context)
+    {
+        return _iceI_finishAudioUploadAsync(uploadId, context, true).waitForResponse();
+    }
+
+    default java.util.concurrent.CompletableFuture<Message> finishAudioUploadAsync(String uploadId)
+    {
+        return _iceI_finishAudioUploadAsync(uploadId, com.zeroc.Ice.ObjectPrx.noExplicitContext, false);
+    }
+
+    default java.util.concurrent.CompletableFuture<Message> finishAudioUploadAsync(String uploadId, java.util.Map<String, String> context)
+    {
+        return _iceI_finishAudioUploadAsync(uploadId, context, false);
+    }
+
+    /**
+     * @hidden
+     * @param iceP_uploadId -
+     * @param context -
+     * @param sync -
+     * @return -
+     **/
+    default com.zeroc.IceInternal.OutgoingAsync<Message> _iceI_finishAudioUploadAsync(String iceP_uploadId, java.util.Map<String, String> context, boolean sync)
+    {
+        com.zeroc.IceInternal.OutgoingAsync<Message> f = new com.zeroc.IceInternal.OutgoingAsync<>(this, "finishAudioUpload", null, sync, null);
+        f.invoke(true, context, null, ostr -> {
+                     ostr.writeString(iceP_uploadId);
+                 }, istr -> {
+                     Message ret;
+                     ret = Message.ice_read(istr);
+                     return ret;
+                 });
+        return f;
+    }
+
     default Call startCall(String caller, String callee)
+        throws NotAuthenticatedException
     {
         return startCall(caller, callee, com.zeroc.Ice.ObjectPrx.noExplicitContext);
     }
 
     default Call startCall(String caller, String callee, java.util.Map<String, String> context)
-    {
-        return _iceI_startCallAsync(caller, callee, context, true).waitForResponse();
+        throws NotAuthenticatedException
+    {
+        try
+        {
+            return _iceI_startCallAsync(caller, callee, context, true).waitForResponseOrUserEx();
+        }
+        catch(NotAuthenticatedException ex)
+        {
+            throw ex;
+        }
+        catch(com.zeroc.Ice.UserException ex)
+        {
+            throw new com.zeroc.Ice.UnknownUserException(ex.ice_id(), ex);
+        }
     }
 
     default java.util.concurrent.CompletableFuture<Call> startCallAsync(String caller, String callee)
@@ -163,7 +399,7 @@ public interface ChatServicePrx extends com.zeroc.Ice.ObjectPrx
      **/
     default com.zeroc.IceInternal.OutgoingAsync<Call> _iceI_startCallAsync(String iceP_caller, String iceP_callee, java.util.Map<String, String> context, boolean sync)
     {
-        com.zeroc.IceInternal.OutgoingAsync<Call> f = new com.zeroc.IceInternal.OutgoingAsync<>(this, "startCall", null, sync, null);
+        com.zeroc.IceInternal.OutgoingAsync<Call> f = new com.zeroc.IceInternal.OutgoingAsync<>(this, "startCall", null, sync, _iceE_startCall);
         f.invoke(true, context, null, ostr -> {
                      ostr.writeString(iceP_caller);
                      ostr.writeString(iceP_callee);
@@ -175,6 +411,12 @@ public interface ChatServicePrx extends com.zeroc.Ice.ObjectPrx
         return f;
     }
 
+    /** @hidden */
+    static final Class<?>[] _iceE_startCall =
+    {
+        NotAuthenticatedException.class
+    };
+
     default void endCall(String callId)
     {
         endCall(callId, com.zeroc.Ice.ObjectPrx.noExplicitContext);
@@ -0,0 +1,215 @@
+package chat;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import com.zeroc.Ice.OperationMode;
+import com.zeroc.Ice.OperationNotExistException;
+
+import util.Metrics;
+
+/**
+ * Suscriptor Ice con un tope de llamadas sin responder. Las entregas son
+ * asíncronas: quien notifica no espera a ningún cliente, y un suscriptor que
+ * acumula {@code maxInFlight} llamadas pendientes se considera rezagado.
+ * Mientras está suscrito publica su latencia en "ice.subscriber.&lt;usuario&gt;.*".
+ *
+ * Los mensajes van por una cola propia con una sola llamada en curso: lo que
+ * llega mientras el cliente no responde sale junto en un onNewMessages. Con
+ * {@code maxPending} mensajes en cola el suscriptor se considera rezagado.
+ */
+final class IceSubscriber {
+
+    private static final Metrics.Timer callbackTimer = Metrics.timer("ice.callback");
+    private static final Metrics.Counter batches = Metrics.counter("ice.callback.batches");
+    private static final Metrics.Counter batched = Metrics.counter("ice.callback.batched");
+
+    // Tope de mensajes por llamada, lejos de Ice.MessageSizeMax (las notas de voz van por referencia)
+    private static final int MAX_BATCH = 64;
+
+    /**
+     * Aviso de que la entrega falló: la cola se cierra y se devuelven los mensajes sin entregar
+     */
+    interface DeliveryListener {
+        void onDeliveryFailed(IceSubscriber subscriber, Throwable cause, List<Message> undelivered);
+    }
+
+    // Mensaje en cola con su codificación compartida, para mandarlo solo con onNewMessage
+    private record Pending(Message msg, byte[] encoded) {}
+
+    private final String userId;
+    private final ChatCallbackPrx proxy;
+    private final int maxInFlight;
+    private final String metricPrefix;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    private final int maxPending;
+    private final DeliveryListener listener;
+    // Protegidos por this
+    private final ArrayDeque<Pending> queue = new ArrayDeque<>();
+    private boolean sending;
+    private boolean batching = true; // false si el cliente no tiene onNewMessages
+    private boolean closed;
+
+    IceSubscriber(String userId, ChatCallbackPrx proxy, int maxInFlight, int maxPending, DeliveryListener listener) {
+        this.userId = userId;
+        this.proxy = proxy;
+        this.maxInFlight = maxInFlight;
+        this.maxPending = maxPending;
+        this.listener = listener;
+        this.metricPrefix = "ice.subscriber." + userId + ".";
+    }
+
+    String userId() {
+        return userId;
+    }
+
+    ChatCallbackPrx proxy() {
+        return proxy;
+    }
+
+    /**
+     * Lanza una llamada asíncrona sobre el proxy y mide cuánto tarda en responder
+     * @return futuro de la llamada, o null si ya hay {@code maxInFlight} sin responder
+     */
+    <T> CompletableFuture<T> call(Function<ChatCallbackPrx, CompletableFuture<T>> invocation) {
+        if (inFlight.incrementAndGet() > maxInFlight) {
+            inFlight.decrementAndGet();
+            return null;
+        }
+        return track(invocation);
+    }
+
+    /**
+     * Encola un mensaje para el cliente; {@code encoded} son sus parámetros de onNewMessage
+     * @return false si la cola está llena o cerrada: el mensaje no se encoló
+     */
+    boolean deliver(Message msg, byte[] encoded) {
+        synchronized (this) {
+            if (closed || queue.size() >= maxPending) {
+                return false;
+            }
+            queue.add(new Pending(msg, encoded));
+        }
+        pump();
+        return true;
+    }
+
+    // Lanza la siguiente llamada si no hay otra en curso: un mensaje solo va con sus bytes
+    // ya codificados; varios, en un único onNewMessages
+    private void pump() {
+        Pending[] batch;
+        synchronized (this) {
+            if (sending || closed || queue.isEmpty()) {
+                return;
+            }
+            batch = new Pending[batching ? Math.min(queue.size(), MAX_BATCH) : 1];
+            for (int i = 0; i < batch.length; i++) {
+                batch[i] = queue.poll();
+            }
+            sending = true;
+        }
+        inFlight.incrementAndGet();
+        CompletableFuture<?> delivery;
+        if (batch.length == 1) {
+            delivery = track(cb -> cb.ice_invokeAsync("onNewMessage", OperationMode.Normal, batch[0].encoded()));
+        } else {
+            Message[] msgs = new Message[batch.length];
+            for (int i = 0; i < batch.length; i++) {
+                msgs[i] = batch[i].msg();
+            }
+            batches.increment();
+            batched.add(batch.length);
+            delivery = track(cb -> cb.onNewMessagesAsync(msgs));
+        }
+        delivery.whenComplete((result, error) -> delivered(batch, error));
+    }
+
+    private void delivered(Pending[] batch, Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        List<Message> undelivered = null;
+        synchronized (this) {
+            sending = false;
+            if (cause instanceof OperationNotExistException && batch.length > 1) {
+                // Cliente anterior a onNewMessages: se vuelve a un mensaje por llamada
+                batching = false;
+                for (int i = batch.length - 1; i >= 0; i--) {
+                    queue.addFirst(batch[i]);
+                }
+            } else if (cause != null) {
+                closed = true;
+                undelivered = new ArrayList<>(batch.length + queue.size());
+                for (Pending p : batch) {
+                    undelivered.add(p.msg());
+                }
+                for (Pending p : queue) {
+                    undelivered.add(p.msg());
+                }
+                queue.clear();
+            }
+        }
+        if (undelivered != null) {
+            listener.onDeliveryFailed(this, cause, undelivered);
+        } else {
+            pump();
+        }
+    }
+
+    // Mide la llamada, ya contada en inFlight, y la descuenta al responder
+    private <T> CompletableFuture<T> track(Function<ChatCallbackPrx, CompletableFuture<T>> invocation) {
+        long start = System.nanoTime();
+        CompletableFuture<T> future;
+        try {
+            future = invocation.apply(proxy);
+        } catch (RuntimeException e) {
+            inFlight.decrementAndGet();
+            return CompletableFuture.failedFuture(e);
+        }
+        return future.whenComplete((result, error) -> {
+            inFlight.decrementAndGet();
+            if (error == null) {
+                long nanos = System.nanoTime() - start;
+                calls.increment();
+                totalNanos.add(nanos);
+                maxNanos.accumulate(nanos);
+                callbackTimer.record(nanos);
+            }
+        });
+    }
+
+    void registerMetrics() {
+        Metrics.gauge(metricPrefix + "inFlight", inFlight::get);
+        Metrics.gauge(metricPrefix + "pending", this::pending);
+        Metrics.gauge(metricPrefix + "calls", calls::sum);
+        Metrics.gauge(metricPrefix + "avgMs", () -> {
+            long n = calls.sum();
+            return n == 0 ? 0.0 : toMillis(totalNanos.sum() / n);
+        });
+        Metrics.gauge(metricPrefix + "maxMs", () -> toMillis(maxNanos.get()));
+    }
+
+    void unregisterMetrics() {
+        for (String name : new String[] {"inFlight", "pending", "calls", "avgMs", "maxMs"}) {
+            Metrics.removeGauge(metricPrefix + name);
+        }
+    }
+
+    private synchronized int pending() {
+        return queue.size();
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
@@ -30,15 +30,20 @@ public class Message implements java.lang.Cloneable,
 
     public long timestamp;
 
+    public int durationMs;
+
+    public String waveform;
+
     public Message()
     {
         this.id = "";
         this.sender = "";
         this.receiver = "";
         this.content = "";
+        this.waveform = "";
     }
 
-    public Message(String id, String sender, String receiver, String content, boolean isAudio, long timestamp)
+    public Message(String id, String sender, String receiver, String content, boolean isAudio, long timestamp, int durationMs, String waveform)
     {
         this.id = id;
         this.sender = sender;
@@ -46,6 +51,8 @@ public class Message implements java.lang.Cloneable,
         this.content = content;
         this.isAudio = isAudio;
         this.timestamp = timestamp;
+        this.durationMs = durationMs;
+        this.waveform = waveform;
     }
 
     public boolean equals(java.lang.Object rhs)
@@ -98,6 +105,17 @@ public class Message implements java.lang.Cloneable,
             {
                 return false;
             }
+            if(this.durationMs != r.durationMs)
+            {
+                return false;
+            }
+            if(this.waveform != r.waveform)
+            {
+                if(this.waveform == null || r.waveform == null || !this.waveform.equals(r.waveform))
+                {
+                    return false;
+                }
+            }
 
             return true;
         }
@@ -115,6 +133,8 @@ public class Message implements java.lang.Cloneable,
         h_ = com.zeroc.IceInternal.HashUtil.hashAdd(h_, content);
         h_ = com.zeroc.IceInternal.HashUtil.hashAdd(h_, isAudio);
         h_ = com.zeroc.IceInternal.HashUtil.hashAdd(h_, timestamp);
+        h_ = com.zeroc.IceInternal.HashUtil.hashAdd(h_, durationMs);
+        h_ = com.zeroc.IceInternal.HashUtil.hashAdd(h_, waveform);
         return h_;
     }
 
@@ -140,6 +160,8 @@ public class Message implements java.lang.Cloneable,
         ostr.writeString(this.content);
         ostr.writeBool(this.isAudio);
         ostr.writeLong(this.timestamp);
+        ostr.writeInt(this.durationMs);
+        ostr.writeString(this.waveform);
     }
 
     public void ice_readMembers(com.zeroc.Ice.InputStream istr)
@@ -150,6 +172,8 @@ public class Message implements java.lang.Cloneable,
         this.content = istr.readString();
         this.isAudio = istr.readBool();
         this.timestamp = istr.readLong();
+        this.durationMs = istr.readInt();
+        this.waveform = istr.readString();
     }
 
     static public void ice_write(com.zeroc.Ice.OutputStream ostr, Message v)
@@ -0,0 +1,69 @@
+//
+// Copyright (c) ZeroC, Inc. All rights reserved.
+//
+//
+// Ice version 3.7.10
+//
+// <auto-generated>
+//
+// Generated from file `ChatService.ice'
+//
+// Warning: do not edit this file.
+//
+// </auto-generated>
+//
+
+package chat;
+
+public class NotAuthenticatedException extends com.zeroc.Ice.UserException
+{
+    public NotAuthenticatedException()
+    {
+        this.reason = "";
+    }
+
+    public NotAuthenticatedException(Throwable cause)
+    {
+        super(cause);
+        this.reason = "";
+    }
+
+    public NotAuthenticatedException(String reason)
+    {
+        this.reason = reason;
+    }
+
+    public NotAuthenticatedException(String reason, Throwable cause)
+    {
+        super(cause);
+        this.reason = reason;
+    }
+
+    public String ice_id()
+    {
+        return "::chat::NotAuthenticatedException";
+    }
+
+    public String reason;
+
+    /** @hidden */
+    @Override
+    protected void _writeImpl(com.zeroc.Ice.OutputStream ostr_)
+    {
+        ostr_.startSlice("::chat::NotAuthenticatedException", -1, true);
+        ostr_.writeString(reason);
+        ostr_.endSlice();
+    }
+
+    /** @hidden */
+    @Override
+    protected void _readImpl(com.zeroc.Ice.InputStream istr_)
+    {
+        istr_.startSlice();
+        reason = istr_.readString();
+        istr_.endSlice();
+    }
+
+    /** @hidden */
+    public static final long serialVersionUID = 3218659937520816514L;
+}
@@ -4,8 +4,9 @@ import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
-import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Executor;
@@ -17,13 +18,17 @@ import com.google.gson.GsonBuilder;
 import dtos.Request;
 import dtos.Response;
 import services.ChatServicesImpl;
+import services.VersionedView;
+import util.MediaFiles;
+import util.Metrics;
+import util.MultiAcceptor;
+import util.TcpOptions;
 
 
 public class TCPJSONController {
 
     private final ChatServicesImpl chatServices;
-    private ServerSocket serverSocket;
-    private boolean running;
+    private MultiAcceptor acceptor;
     private final Executor executor;
     private final Gson gson;
 
@@ -32,42 +37,48 @@ public class TCPJSONController {
     }
 
     public TCPJSONController(ChatServicesImpl chatServices, int port) {
+        this(chatServices, port, 1);
+    }
+
+    /**
+     * @param acceptors sockets de escucha con SO_REUSEPORT, cada uno con su hilo aceptador;
+     *                  el proxy REST abre una conexión por petición y un solo hilo no alcanza
+     */
+    public TCPJSONController(ChatServicesImpl chatServices, int port, int acceptors) {
         this.chatServices = chatServices;
         this.gson = new GsonBuilder().create();
         this.executor = Executors.newFixedThreadPool(10);
-        this.running = true;
         
         try {
-            serverSocket = new ServerSocket(port);
+            acceptor = new MultiAcceptor("tcp-json", port, acceptors, TcpOptions.DEFAULT);
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
     public void start() {
-        System.out.println("[TCP-JSON] Servidor TCP-JSON escuchando en puerto " + serverSocket.getLocalPort());
-        
-        new Thread(() -> {
-            while (running) {
-                try {
-                    Socket clientSocket = serverSocket.accept();
-                    executor.execute(new TCPClientHandler(clientSocket));
-                } catch (Exception e) {
-                    if (running) {
-                        e.printStackTrace();
-                    }
-                }
-            }
-        }).start();
+        System.out.println("[TCP-JSON] Servidor TCP-JSON escuchando en puerto " + acceptor.getLocalPort()
+                + " (" + acceptor.size() + " aceptadores)");
+        acceptor.start(clientSocket -> executor.execute(new TCPClientHandler(clientSocket)));
     }
 
     public void stop() {
-        running = false;
-        try {
-            serverSocket.close();
-        } catch (Exception e) {
-            e.printStackTrace();
+        acceptor.close();
+    }
+
+    /**
+     * Si el cliente envía la versión que ya tiene y sigue vigente, responde NOT_MODIFIED sin datos
+     */
+    private boolean notModified(Map<String, Object> data, VersionedView<?> view, Response response) {
+        Object known = data != null ? data.get("version") : null;
+        if (known instanceof Number && view.isCurrent(((Number) known).longValue())) {
+            Metrics.counter("directory.not_modified").increment();
+            response.setStatus("NOT_MODIFIED");
+            response.setSuccess(true);
+            response.put("version", view.version());
+            return true;
         }
+        return false;
     }
 
     class TCPClientHandler implements Runnable {
@@ -88,6 +99,16 @@ public class TCPJSONController {
                 Map<String, Object> data = request.data;
                 
                 Response response = new Response();
+                MediaFiles.Range media = null; // GET_MEDIA: bytes crudos tras la línea JSON
+                byte[] pcm = null; // GET_MEDIA con format "pcm": nota decodificada
+
+                // Cualquier petición del usuario renueva su sesión
+                if (data != null) {
+                    Object actor = data.containsKey("username") ? data.get("username") : data.get("from");
+                    if (actor instanceof String) {
+                        chatServices.touchSession((String) actor);
+                    }
+                }
 
                 try {
                     switch (request.action) {
@@ -137,10 +158,15 @@ public class TCPJSONController {
                             break;
                         
                         case "GET_ALL_USERS":
-                            Map<String, Boolean> usersStatus = chatServices.getAllUsersWithStatus();
+                            VersionedView<Map<String, Boolean>> usersView = chatServices.getAllUsersView();
+                            if (notModified(data, usersView, response)) {
+                                break;
+                            }
+                            VersionedView.Snapshot<Map<String, Boolean>> usersStatus = usersView.get();
                             response.setStatus("OK");
                             response.setSuccess(true);
-                            response.put("users", usersStatus);
+                            response.put("users", usersStatus.value());
+                            response.put("version", usersStatus.version());
                             break;
 
                         case "CREATE_GROUP":
@@ -170,18 +196,28 @@ public class TCPJSONController {
                             break;
 
                         case "GET_GROUPS":
-                            List<String> groups = chatServices.getGroups();
+                            VersionedView<List<String>> groupsView = chatServices.getGroupsView();
+                            if (notModified(data, groupsView, response)) {
+                                break;
+                            }
+                            VersionedView.Snapshot<List<String>> groups = groupsView.get();
                             response.setStatus("OK");
                             response.setSuccess(true);
-                            response.put("groups", groups);
+                            response.put("groups", groups.value());
+                            response.put("version", groups.version());
                             break;
                         
                         case "GET_USER_GROUPS":
                             username = (String) data.get("username");
-                            List<String> userGroups = chatServices.getUserGroups(username);
+                            VersionedView<List<String>> userGroupsView = chatServices.getUserGroupsView(username);
+                            if (notModified(data, userGroupsView, response)) {
+                                break;
+                            }
+                            VersionedView.Snapshot<List<String>> userGroups = userGroupsView.get();
                             response.setStatus("OK");
                             response.setSuccess(true);
-                            response.put("groups", userGroups);
+                            response.put("groups", userGroups.value());
+                            response.put("version", userGroups.version());
                             break;
 
                         case "GET_PENDING_MESSAGES":
@@ -226,12 +262,81 @@ public class TCPJSONController {
                             response.setMessage(ended ? "Call ended" : "Error ending call");
                             break;
 
+                        case "WATCH_PRESENCE":
+                            username = (String) data.get("username");
+                            @SuppressWarnings("unchecked")
+                            List<String> targets = (List<String>) data.get("users");
+                            if (targets != null) {
+                                for (String target : targets) {
+                                    chatServices.watchPresence(username, target);
+                                }
+                            }
+                            response.setStatus("OK");
+                            response.setSuccess(true);
+                            break;
+
+                        case "UNWATCH_PRESENCE":
+                            username = (String) data.get("username");
+                            @SuppressWarnings("unchecked")
+                            List<String> unwatched = (List<String>) data.get("users");
+                            if (unwatched != null) {
+                                for (String target : unwatched) {
+                                    chatServices.unwatchPresence(username, target);
+                                }
+                            }
+                            response.setStatus("OK");
+                            response.setSuccess(true);
+                            break;
+
+                        case "GET_PRESENCE":
+                            Object since = data.get("since");
+                            long sinceVersion = since instanceof Number ? ((Number) since).longValue() : 0;
+                            response.setStatus("OK");
+                            response.setSuccess(true);
+                            response.put("version", chatServices.getPresenceVersion());
+                            response.put("changes", chatServices.getPresenceChanges(sinceVersion));
+                            break;
+
+                        case "GET_MEDIA":
+                            Object offsetArg = data.get("offset");
+                            Object lengthArg = data.get("length");
+                            String mediaId = (String) data.get("id");
+                            long mediaOffset = offsetArg instanceof Number ? ((Number) offsetArg).longValue() : 0;
+                            long mediaLength = lengthArg instanceof Number ? ((Number) lengthArg).longValue() : -1;
+                            response.setStatus("OK");
+                            response.setSuccess(true);
+                            if ("pcm".equals(data.get("format"))) {
+                                MediaFiles.Pcm decoded = chatServices.getMediaPcm(mediaId, mediaOffset, mediaLength);
+                                pcm = decoded.data();
+                                response.put("id", decoded.id());
+                                response.put("offset", decoded.offset());
+                                response.put("length", pcm.length);
+                                response.put("total", decoded.total());
+                                response.put("codec", "pcm");
+                                break;
+                            }
+                            media = chatServices.getMedia(mediaId, mediaOffset, mediaLength);
+                            response.put("id", media.id());
+                            response.put("offset", media.offset());
+                            response.put("length", media.length());
+                            response.put("total", media.total());
+                            response.put("codec", MediaFiles.codec(media));
+                            break;
+
+                        case "GET_METRICS":
+                            response.setStatus("OK");
+                            response.setSuccess(true);
+                            response.put("metrics", Metrics.snapshot());
+                            break;
+
                         default:
                             response.setStatus("ERROR");
                             response.setMessage("Unknown action: " + request.action);
                             break;
                     }
                 } catch (Exception e) {
+                    media = null;
+                    pcm = null;
                     response.setStatus("ERROR");
                     response.setMessage(e.getMessage());
                     e.printStackTrace();
@@ -241,6 +346,14 @@ public class TCPJSONController {
                 writer.write(json);
                 writer.newLine();
                 writer.flush();
+                if (media != null) {
+                    // Del archivo al socket con sendfile, sin pasar por el heap
+                    WritableByteChannel target = clientSocket.getChannel() != null
+                            ? clientSocket.getChannel() : Channels.newChannel(clientSocket.getOutputStream());
+                    MediaFiles.transfer(media, target);
+                } else if (pcm != null) {
+                    clientSocket.getOutputStream().write(pcm);
+                }
                 writer.close();
                 reader.close();
                 clientSocket.close();
@@ -0,0 +1,292 @@
+package services;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import util.Metrics;
+import util.TimingWheel;
+
+/**
+ * Llamadas en curso, compartidas por Ice, TCP-JSON y AudioServer. Cada llamada
+ * está indexada por id y por participante (un usuario está en una sola llamada
+ * a la vez), así que buscarla o terminarla es O(1) y no depende de partir el id.
+ *
+ * Una llamada que nadie contesta termina sola a los {@code ringTimeoutMillis}
+ * con un plazo en la {@link TimingWheel}; las contestadas terminan con
+ * endCall / END_CALL / CALL_END o al desconectarse uno de los dos.
+ */
+public class CallRegistry {
+
+    public static final long DEFAULT_RING_TIMEOUT_MS = 45_000;
+
+    // Motivos de fin que reciben los listeners
+    public static final String ENDED = "ended";
+    public static final String TIMEOUT = "timeout";
+    public static final String DISCONNECTED = "disconnected";
+    public static final String REPLACED = "replaced";
+
+    /**
+     * Aviso de fin de llamada, sea cual sea la vía que la terminó. Los plazos
+     * vencidos se avisan desde el hilo de la rueda: no debe bloquear.
+     */
+    public interface Listener {
+        void callEnded(ActiveCall call, String reason);
+    }
+
+    public static final class ActiveCall {
+        private final String id;
+        private final String caller;
+        private final String callee;
+        private final long startedAt;
+        private volatile boolean answered;
+        // Formato del audio que cada uno manda por AudioServer; null si no manda
+        private volatile String callerStream;
+        private volatile String calleeStream;
+        private TimingWheel.Timeout ringTimeout; // protegido por el registro
+
+        private ActiveCall(String id, String caller, String callee, long startedAt) {
+            this.id = id;
+            this.caller = caller;
+            this.callee = callee;
+            this.startedAt = startedAt;
+        }
+
+        public String id() {
+            return id;
+        }
+
+        public String caller() {
+            return caller;
+        }
+
+        public String callee() {
+            return callee;
+        }
+
+        public long startedAt() {
+            return startedAt;
+        }
+
+        public boolean isAnswered() {
+            return answered;
+        }
+
+        /**
+         * @return el otro participante, o null si {@code user} no está en la llamada
+         */
+        public String peerOf(String user) {
+            if (caller.equals(user)) {
+                return callee;
+            }
+            return callee.equals(user) ? caller : null;
+        }
+
+        /**
+         * @return formato del audio que {@code user} manda por AudioServer, o null si no manda
+         */
+        public String streamFormat(String user) {
+            return caller.equals(user) ? callerStream : calleeStream;
+        }
+
+        private void setStreamFormat(String user, String format) {
+            if (caller.equals(user)) {
+                callerStream = format;
+            } else {
+                calleeStream = format;
+            }
+        }
+
+        private boolean between(String a, String b) {
+            return b != null && b.equals(peerOf(a));
+        }
+    }
+
+    private final TimingWheel wheel;
+    private final Map<String, ActiveCall> byId = new ConcurrentHashMap<>();
+    private final Map<String, ActiveCall> byUser = new ConcurrentHashMap<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private volatile long ringTimeoutMillis = DEFAULT_RING_TIMEOUT_MS;
+
+    private final Metrics.Counter started = Metrics.counter("calls.started");
+    private final Metrics.Counter unanswered = Metrics.counter("calls.timeout");
+    private final Metrics.Counter busy = Metrics.counter("calls.busy");
+
+    public CallRegistry(TimingWheel wheel) {
+        this.wheel = wheel;
+        Metrics.gauge("calls.active", byId::size);
+    }
+
+    /**
+     * Tiempo que suena una llamada antes de darla por no contestada
+     */
+    public void setRingTimeout(long ringTimeoutMillis) {
+        this.ringTimeoutMillis = ringTimeoutMillis;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Llamada entre los dos: la que ya tienen (la misma llamada puede pedirse por
+     * Ice y por señalización) o una nueva que suena hasta que la contesten. Si
+     * {@code caller} estaba en otra llamada, esa termina.
+     * @return null si {@code callee} está en otra llamada
+     */
+    public ActiveCall start(String caller, String callee) {
+        ActiveCall replaced;
+        ActiveCall call;
+        synchronized (this) {
+            replaced = byUser.get(caller);
+            if (replaced != null && replaced.between(caller, callee)) {
+                return replaced;
+            }
+            if (byUser.containsKey(callee)) {
+                busy.increment();
+                return null;
+            }
+            if (replaced != null) {
+                remove(replaced);
+            }
+            long now = System.currentTimeMillis();
+            ActiveCall created = new ActiveCall(caller + "_" + callee + "_" + now, caller, callee, now);
+            byId.put(created.id, created);
+            byUser.put(caller, created);
+            byUser.put(callee, created);
+            created.ringTimeout = wheel.schedule(() -> ringExpired(created), ringTimeoutMillis);
+            started.increment();
+            call = created;
+        }
+        if (replaced != null) {
+            fire(replaced, REPLACED);
+        }
+        return call;
+    }
+
+    /**
+     * {@code user} contesta la llamada que tiene con {@code peer}; deja de correr el plazo de timbre
+     * @return la llamada, o null si no la tienen
+     */
+    public synchronized ActiveCall answer(String user, String peer) {
+        ActiveCall call = byUser.get(user);
+        if (call == null || !call.between(user, peer)) {
+            return null;
+        }
+        if (!call.answered) {
+            call.answered = true;
+            call.ringTimeout.cancel();
+        }
+        return call;
+    }
+
+    /**
+     * {@code sender} manda audio a {@code target} por AudioServer. Si no tenían
+     * llamada se abre una ya contestada: el stream es la prueba.
+     * @return la llamada, o null si {@code target} está en otra
+     */
+    public ActiveCall startStream(String sender, String target, String format) {
+        ActiveCall call = start(sender, target);
+        if (call != null) {
+            answer(sender, target);
+            call.setStreamFormat(sender, format);
+        }
+        return call;
+    }
+
+    public void stopStream(String sender) {
+        ActiveCall call = byUser.get(sender);
+        if (call != null) {
+            call.setStreamFormat(sender, null);
+        }
+    }
+
+    public ActiveCall get(String callId) {
+        return byId.get(callId);
+    }
+
+    /**
+     * @return la llamada en la que está {@code user}, o null
+     */
+    public ActiveCall callOf(String user) {
+        return byUser.get(user);
+    }
+
+    /**
+     * @return la llamada terminada, o null si ya no existía
+     */
+    public ActiveCall end(String callId, String reason) {
+        ActiveCall call;
+        synchronized (this) {
+            call = byId.get(callId);
+            if (call == null) {
+                return null;
+            }
+            remove(call);
+        }
+        fire(call, reason);
+        return call;
+    }
+
+    /**
+     * Termina la llamada entre {@code user} y {@code peer} (END_CALL y CALL_END no llevan id)
+     */
+    public ActiveCall endBetween(String user, String peer, String reason) {
+        ActiveCall call;
+        synchronized (this) {
+            call = byUser.get(user);
+            if (call == null || !call.between(user, peer)) {
+                return null;
+            }
+            remove(call);
+        }
+        fire(call, reason);
+        return call;
+    }
+
+    /**
+     * Termina la llamada de {@code user}, si tiene una (logout, desconexión)
+     */
+    public ActiveCall endCallOf(String user, String reason) {
+        ActiveCall call;
+        synchronized (this) {
+            call = byUser.get(user);
+            if (call == null) {
+                return null;
+            }
+            remove(call);
+        }
+        fire(call, reason);
+        return call;
+    }
+
+    private void ringExpired(ActiveCall call) {
+        synchronized (this) {
+            if (call.answered || byId.get(call.id) != call) {
+                return;
+            }
+            remove(call);
+        }
+        unanswered.increment();
+        fire(call, TIMEOUT);
+    }
+
+    // Con el lock tomado
+    private void remove(ActiveCall call) {
+        byId.remove(call.id, call);
+        byUser.remove(call.caller, call);
+        byUser.remove(call.callee, call);
+        call.ringTimeout.cancel();
+    }
+
+    private void fire(ActiveCall call, String reason) {
+        for (Listener listener : listeners) {
+            try {
+                listener.callEnded(call, reason);
+            } catch (RuntimeException e) {
+                System.err.println("[CALLS] Listener failed for " + call.id + ": " + e.getMessage());
+            }
+        }
+    }
+}
@@ -2,20 +2,31 @@ package services;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
 import java.net.Socket;
+import java.nio.file.Files;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import util.MediaFiles;
+import util.MediaStore;
+import util.Metrics;
+import util.SessionWriter;
+import util.TimingWheel;
+import util.VoiceCodec;
+import util.VoiceSummary;
 
 /**
  * Lógica de negocio del chat separada de la capa de transporte
@@ -25,17 +36,38 @@ public class ChatServicesImpl {
     // ---- Estado compartido ----
     private final Map<String, ClientSession> users = new ConcurrentHashMap<>();
     private final Set<String> allKnownUsers = ConcurrentHashMap.newKeySet(); // Registro permanente de usuarios
-    private final Map<String, Set<String>> groups = new ConcurrentHashMap<>();
-    private final Map<String, List<String>> pendingMessages = new ConcurrentHashMap<>(); // Cola de mensajes pendientes para cada usuario
+    private final MembershipIndex membership = new MembershipIndex(); // Grupos <-> usuarios con ids enteros
+    private final FanOutEngine fanOut = new FanOutEngine();
+    private final PresenceService presence = new PresenceService(membership, fanOut,
+            PresenceService.DEFAULT_WINDOW_MS, this::deliverPresence);
+    private final Map<String, List<MessageEnvelope>> pendingMessages = new ConcurrentHashMap<>(); // Cola de mensajes pendientes para cada usuario (referencias compartidas)
     private final File dataDir = new File("data");
     private final File historyDir = new File(dataDir, "history");
-    private final File mediaDir = new File(dataDir, "media");
+    private final MediaStore media = MediaStore.shared(); // Notas de voz por hash, con cuenta de referencias
     private final File usersFile = new File(dataDir, "users.txt");
     private final File groupsFile = new File(dataDir, "groups.txt");
 
+    // ---- Expiración de sesiones sin socket (clientes TCP-JSON) ----
+    public static final long DEFAULT_SESSION_TTL_MS = TimeUnit.MINUTES.toMillis(2);
+    private final TimingWheel leaseWheel = new TimingWheel("sessions", 1000, 512);
+    private volatile long sessionTtlMillis = DEFAULT_SESSION_TTL_MS;
+    private final Metrics.Counter expiredSessions = Metrics.counter("session.lease.expired");
+
+    // ---- Llamadas en curso (el timbre vence en la misma rueda) ----
+    private final CallRegistry calls = new CallRegistry(leaseWheel);
+
+    private volatile int maxVoiceNoteBytes = 16 * 1024 * 1024;
+
+    // ---- Vistas de directorio versionadas (se reconstruyen una vez por cambio) ----
+    private final AtomicLong directoryVersion = new AtomicLong(VersionedView.startEpoch()); // usuarios conocidos y su estado online
+    private final VersionedView<Map<String, Boolean>> allUsersView =
+            new VersionedView<>(directoryVersion::get, this::buildAllUsersWithStatus);
+    private final VersionedView<List<String>> groupsView =
+            new VersionedView<>(membership::version, () -> List.copyOf(membership.groupNames()));
+    private final Map<String, VersionedView<List<String>>> userGroupsViews = new ConcurrentHashMap<>();
+
     public ChatServicesImpl() {
         historyDir.mkdirs();
-        mediaDir.mkdirs();
         loadKnownUsers();
         loadGroups();
     }
@@ -75,22 +107,18 @@ public class ChatServicesImpl {
                         String groupName = parts[0].trim();
                         String[] members = parts[1].split(",");
                         
-                        Set<String> memberSet = ConcurrentHashMap.newKeySet();
                         for (String member : members) {
                             String trimmedMember = member.trim();
                             if (!trimmedMember.isEmpty()) {
-                                memberSet.add(trimmedMember);
+                                membership.add(groupName, trimmedMember);
                             }
                         }
-                        
-                        if (!memberSet.isEmpty()) {
-                            groups.put(groupName, memberSet);
-                        }
                     }
                 }
-                System.out.println("[DEBUG] Loaded " + groups.size() + " groups");
-                for (Map.Entry<String, Set<String>> entry : groups.entrySet()) {
-                    System.out.println("[DEBUG]   - " + entry.getKey() + ": " + entry.getValue());
+                List<String> groupNames = membership.groupNames();
+                System.out.println("[DEBUG] Loaded " + groupNames.size() + " groups");
+                for (String groupName : groupNames) {
+                    System.out.println("[DEBUG]   - " + groupName + ": " + membership.memberNames(groupName));
                 }
             } catch (IOException e) {
                 System.err.println("[ERROR] Failed to load groups: " + e.getMessage());
@@ -100,12 +128,12 @@ public class ChatServicesImpl {
     
     private void saveGroups() {
         try (FileWriter writer = new FileWriter(groupsFile)) {
-            for (Map.Entry<String, Set<String>> entry : groups.entrySet()) {
-                String groupName = entry.getKey();
-                String members = String.join(",", entry.getValue());
+            List<String> groupNames = membership.groupNames();
+            for (String groupName : groupNames) {
+                String members = String.join(",", membership.memberNames(groupName));
                 writer.write(groupName + ":" + members + "\n");
             }
-            System.out.println("[DEBUG] Saved " + groups.size() + " groups to file");
+            System.out.println("[DEBUG] Saved " + groupNames.size() + " groups to file");
         } catch (IOException e) {
             System.err.println("[ERROR] Failed to save groups: " + e.getMessage());
         }
@@ -114,23 +142,49 @@ public class ChatServicesImpl {
     // ---- Sesión de cliente ----
     public static class ClientSession {
         public final String username;
-        public Socket socket;
-        public PrintWriter out;
+        public volatile Socket socket;
+        public volatile SessionWriter out; // Cola de salida con escritor propio; nunca se escribe al socket directamente
         public volatile int udpPort;
-
-        public ClientSession(String username, Socket socket) throws IOException {
-            this.username = username;
-            this.socket = socket;
-            if (socket != null) {
-                this.out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream()), true);
-            }
-        }
+        volatile long lastSeenNanos = System.nanoTime(); // se renueva con cada petición del usuario
 
         public ClientSession(String username) {
             this.username = username;
             this.socket = null;
             this.out = null;
         }
+
+        /**
+         * Asocia un nuevo socket (login o reconexión) y cierra la cola del anterior
+         */
+        void attach(Socket newSocket) throws IOException {
+            SessionWriter previous = out;
+            socket = newSocket;
+            out = newSocket != null
+                    ? new SessionWriter(username, newSocket.getOutputStream(), () -> closeQuietly(newSocket)).start()
+                    : null;
+            if (previous != null) {
+                previous.close();
+            }
+        }
+
+        void detach() {
+            if (out != null) {
+                out.close();
+            }
+        }
+
+        /**
+         * Encola cabecera y cuerpo de la nota de voz como un solo frame
+         */
+        void sendVoiceNote(String from, byte[] audioData) {
+            out.sendWithBody("VOICE_NOTE_FROM " + from + " " + audioData.length, audioData);
+        }
+
+        private static void closeQuietly(Socket s) {
+            try {
+                s.close();
+            } catch (IOException ignored) {}
+        }
     }
 
     // ---- Gestión de usuarios ----
@@ -147,6 +201,7 @@ public class ChatServicesImpl {
         // Registrar usuario si es nuevo
         if (!allKnownUsers.contains(username)) {
             allKnownUsers.add(username);
+            directoryVersion.incrementAndGet();
             saveKnownUsers();
             System.out.println("[DEBUG] New user registered: " + username);
         }
@@ -155,31 +210,88 @@ public class ChatServicesImpl {
         if (users.containsKey(username)) {
             System.out.println("[DEBUG] User " + username + " reconnecting - updating session");
             ClientSession existingSession = users.get(username);
-            existingSession.socket = socket;
             if (socket != null) {
-                existingSession.out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream()), true);
+                existingSession.attach(socket);
             }
             existingSession.udpPort = udpPort;
-            broadcast("SYS " + username + " reconnected");
+            existingSession.lastSeenNanos = System.nanoTime();
+            presence.update(username, true); // sin cambio neto: no se notifica a nadie
             return true;
         }
         
-        ClientSession session = new ClientSession(username, socket);
+        ClientSession session = new ClientSession(username);
+        session.attach(socket);
         session.udpPort = udpPort;
         users.put(username, session);
-        broadcast("SYS " + username + " joined");
+        directoryVersion.incrementAndGet();
+        scheduleLeaseCheck(session, sessionTtlMillis);
+        presence.update(username, true);
         return true;
     }
 
     public boolean logout(String username) {
         ClientSession session = users.remove(username);
         if (session != null) {
-            broadcast("SYS " + username + " left");
+            directoryVersion.incrementAndGet();
+            session.detach();
+            presence.update(username, false);
+            presence.unwatchAll(username);
+            calls.endCallOf(username, CallRegistry.DISCONNECTED);
             return true;
         }
         return false;
     }
 
+    // ---- Leases de sesión ----
+
+    /**
+     * Tiempo sin peticiones tras el cual una sesión sin socket se da por cerrada
+     */
+    public void setSessionTtl(long ttlMillis) {
+        this.sessionTtlMillis = ttlMillis;
+    }
+
+    public void setMaxVoiceNoteBytes(int maxBytes) {
+        this.maxVoiceNoteBytes = maxBytes;
+    }
+
+    /**
+     * Renueva el lease del usuario; cualquier petición suya cuenta como actividad. O(1).
+     */
+    public void touchSession(String username) {
+        ClientSession session = username != null ? users.get(username) : null;
+        if (session != null) {
+            session.lastSeenNanos = System.nanoTime();
+        }
+    }
+
+    // Un solo plazo pendiente por sesión: renovar no toca la rueda, el plazo se reprograma al vencer
+    private void scheduleLeaseCheck(ClientSession session, long delayMillis) {
+        leaseWheel.schedule(() -> checkLease(session), delayMillis);
+    }
+
+    private void checkLease(ClientSession session) {
+        if (users.get(session.username) != session) {
+            return; // ya hizo logout o la sesión fue reemplazada
+        }
+        long ttl = sessionTtlMillis;
+        long idleMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - session.lastSeenNanos);
+        if (session.socket != null || idleMillis < ttl) {
+            // Las sesiones con socket las cierra su conexión; solo se revisan de nuevo
+            scheduleLeaseCheck(session, session.socket != null ? ttl : ttl - idleMillis);
+            return;
+        }
+        if (users.remove(session.username, session)) {
+            expiredSessions.increment();
+            System.out.println("[SESSION] Lease expired for " + session.username + " after " + idleMillis + " ms idle");
+            directoryVersion.incrementAndGet();
+            session.detach();
+            presence.update(session.username, false);
+            presence.unwatchAll(session.username);
+            calls.endCallOf(session.username, CallRegistry.DISCONNECTED);
+        }
+    }
+
     /**
      * Limpia usuarios inválidos (vacíos o solo espacios)
      * @return número de usuarios limpiados
@@ -199,17 +311,21 @@ public class ChatServicesImpl {
         // Eliminar usuarios inválidos
         for (String username : toRemove) {
             allKnownUsers.remove(username);
-            users.remove(username);
+            ClientSession removed = users.remove(username);
+            if (removed != null) {
+                removed.detach();
+            }
+            calls.endCallOf(username, CallRegistry.DISCONNECTED);
+            presence.forget(username);
             pendingMessages.remove(username);
             
             // Eliminar de grupos
-            for (Map.Entry<String, Set<String>> entry : groups.entrySet()) {
-                entry.getValue().remove(username);
-            }
+            membership.removeUser(username);
         }
         
         // Guardar cambios
         if (cleaned > 0) {
+            directoryVersion.incrementAndGet();
             saveKnownUsers();
             saveGroups();
             System.out.println("[CLEANUP] Removed " + cleaned + " invalid users");
@@ -228,23 +344,30 @@ public class ChatServicesImpl {
             return false; // Usuario no existe
         }
         
-        // 1. Hacer logout si está online
+        // 1. Hacer logout si está online, y colgar su llamada aunque no tenga sesión (AudioServer, Ice)
         logout(username);
+        calls.endCallOf(username, CallRegistry.DISCONNECTED);
         
-        // 2. Eliminar de todos los grupos
-        for (Map.Entry<String, Set<String>> entry : groups.entrySet()) {
-            entry.getValue().remove(username);
-        }
+        // 2. Eliminar de todos los grupos y de la presencia seguida
+        membership.removeUser(username);
+        presence.forget(username);
         
         // 3. Eliminar mensajes pendientes
         pendingMessages.remove(username);
         
         // 4. Eliminar de la lista de usuarios conocidos
         allKnownUsers.remove(username);
+        userGroupsViews.remove(username);
+        directoryVersion.incrementAndGet();
         
-        // 5. Eliminar archivo de historial del usuario
+        // 5. Eliminar archivo de historial del usuario (y soltar las notas de voz que referenciaba)
         File userHistoryFile = new File(historyDir, username + ".jsonl");
         if (userHistoryFile.exists()) {
+            try {
+                media.releaseAll(Files.readAllLines(userHistoryFile.toPath()));
+            } catch (IOException e) {
+                System.err.println("[ERROR] Failed to release media of " + username + ": " + e.getMessage());
+            }
             userHistoryFile.delete();
         }
         
@@ -269,11 +392,19 @@ public class ChatServicesImpl {
     }
     
     public Map<String, Boolean> getAllUsersWithStatus() {
+        return new HashMap<>(allUsersView.get().value());
+    }
+
+    public VersionedView<Map<String, Boolean>> getAllUsersView() {
+        return allUsersView;
+    }
+
+    private Map<String, Boolean> buildAllUsersWithStatus() {
         Map<String, Boolean> usersStatus = new HashMap<>();
         for (String username : allKnownUsers) {
             usersStatus.put(username, users.containsKey(username));
         }
-        return usersStatus;
+        return Collections.unmodifiableMap(usersStatus);
     }
 
     public void setUserUdpPort(String username, int port) {
@@ -285,47 +416,52 @@ public class ChatServicesImpl {
 
     // ---- Gestión de grupos ----
     public boolean createGroup(String groupName) {
-        groups.putIfAbsent(groupName, ConcurrentHashMap.newKeySet());
+        membership.createGroup(groupName);
         saveGroups(); // Guardar inmediatamente
         System.out.println("[DEBUG] Group created (no creator): " + groupName);
         return true;
     }
     
     public boolean createGroup(String groupName, String creator) {
-        groups.putIfAbsent(groupName, ConcurrentHashMap.newKeySet());
-        groups.get(groupName).add(creator);
+        membership.add(groupName, creator);
         saveGroups(); // Guardar inmediatamente
         System.out.println("[DEBUG] Group created: " + groupName + " by " + creator);
-        System.out.println("[DEBUG] Members after creation: " + groups.get(groupName));
+        System.out.println("[DEBUG] Members after creation: " + membership.memberNames(groupName));
         return true;
     }
 
     public boolean addToGroup(String groupName, String username) {
-        groups.putIfAbsent(groupName, ConcurrentHashMap.newKeySet());
-        groups.get(groupName).add(username);
+        membership.add(groupName, username);
         saveGroups(); // Guardar inmediatamente
         System.out.println("[DEBUG] User " + username + " added to group " + groupName);
-        System.out.println("[DEBUG] Group members now: " + groups.get(groupName));
+        System.out.println("[DEBUG] Group members now: " + membership.memberNames(groupName));
         return true;
     }
 
     public List<String> getGroups() {
-        return new ArrayList<>(groups.keySet());
+        return membership.groupNames();
     }
     
     public List<String> getUserGroups(String username) {
-        List<String> userGroups = new ArrayList<>();
-        for (Map.Entry<String, Set<String>> entry : groups.entrySet()) {
-            if (entry.getValue().contains(username)) {
-                userGroups.add(entry.getKey());
-            }
+        // O(grupos del usuario) gracias al índice inverso
+        return membership.groupsOf(username);
+    }
+
+    public VersionedView<List<String>> getGroupsView() {
+        return groupsView;
+    }
+
+    public VersionedView<List<String>> getUserGroupsView(String username) {
+        if (!allKnownUsers.contains(username)) {
+            // No se cachea: el mapa solo crece con usuarios reales
+            return new VersionedView<>(membership::version, () -> List.copyOf(membership.groupsOf(username)));
         }
-        return userGroups;
+        return userGroupsViews.computeIfAbsent(username,
+                u -> new VersionedView<>(membership::version, () -> List.copyOf(membership.groupsOf(u))));
     }
 
     public List<String> getGroupMembers(String groupName) {
-        Set<String> members = groups.get(groupName);
-        return members != null ? new ArrayList<>(members) : new ArrayList<>();
+        return membership.memberNames(groupName);
     }
 
     // ---- Mensajes de texto ----
@@ -333,19 +469,10 @@ public class ChatServicesImpl {
         String record = "{type:text,from:" + from + ",target:" + to + ",isGroup:false,msg:" + message + ",ts:" + Instant.now() + "}";
         persist(from, to, false, record);
 
-        ClientSession session = users.get(to);
-        
-        // Solo agregar a pendientes si el usuario está OFFLINE
-        if (session == null) {
-            pendingMessages.putIfAbsent(to, new ArrayList<>());
-            pendingMessages.get(to).add("MSG|" + from + "|" + message);
-            System.out.println("[DEBUG] User " + to + " is offline, message queued");
-        } else {
-            // Usuario online - enviar vía polling (pendientes)
-            pendingMessages.putIfAbsent(to, new ArrayList<>());
-            pendingMessages.get(to).add("MSG|" + from + "|" + message);
-            System.out.println("[DEBUG] User " + to + " is online, message sent to pending for polling");
-        }
+        // Un solo sobre por mensaje; el buzón guarda la referencia.
+        // Los usuarios online también lo reciben vía polling (pendientes)
+        enqueuePending(to, MessageEnvelope.toUser(from, to, message));
+        System.out.println("[DEBUG] Message queued for " + to + (users.containsKey(to) ? " (online, polling)" : " (offline)"));
         
         return true;
     }
@@ -354,38 +481,61 @@ public class ChatServicesImpl {
         String record = "{type:text,from:" + from + ",target:" + groupName + ",isGroup:true,msg:" + message + ",ts:" + Instant.now() + "}";
         persist(from, groupName, true, record);
 
-        Set<String> members = groups.getOrDefault(groupName, Set.of());
-        System.out.println("[DEBUG] Sending message to group: " + groupName);
-        System.out.println("[DEBUG] Group members: " + members);
+        int[] members = membership.members(groupName);
+        int senderId = membership.userId(from);
+        System.out.println("[DEBUG] Sending message to group: " + groupName + " (" + members.length + " members)");
         System.out.println("[DEBUG] Message: " + message + " from: " + from);
         
-        for (String username : members) {
+        // El sobre se crea y se codifica una sola vez para todo el grupo
+        MessageEnvelope envelope = MessageEnvelope.toGroup(from, groupName, message);
+        for (int memberId : members) {
             // NO enviar el mensaje al remitente
-            if (username.equals(from)) {
+            if (memberId == senderId) {
                 continue;
             }
+            String username = membership.userName(memberId);
             
-            // Agregar a cola de mensajes pendientes de cada miembro
-            pendingMessages.putIfAbsent(username, new ArrayList<>());
-            String pendingMsg = "GROUP|" + groupName + "|" + from + "|" + message;
-            pendingMessages.get(username).add(pendingMsg);
-            System.out.println("[DEBUG] Added to pending queue for " + username + ": " + pendingMsg);
-            
-            ClientSession session = users.get(username);
+            // Agregar a cola de mensajes pendientes de cada miembro (misma referencia)
+            enqueuePending(username, envelope);
+        }
+
+        // Las escrituras a sockets van en paralelo; el remitente no espera a los miembros lentos.
+        // La clave del grupo mantiene el orden de los mensajes para cada miembro
+        String line = envelope.toSocketLine();
+        fanOut.fanOut("group_text", groupName, members, memberId -> {
+            if (memberId == senderId) {
+                return;
+            }
+            ClientSession session = users.get(membership.userName(memberId));
             if (session != null && session.out != null) {
-                session.out.println("MSG " + from + " -> #" + groupName + ": " + message);
+                session.out.println(line);
             }
-        }
+        });
         return true;
     }
     
     // ---- Polling de mensajes pendientes ----
     public List<String> getPendingMessages(String username) {
-        List<String> messages = pendingMessages.getOrDefault(username, new ArrayList<>());
-        pendingMessages.put(username, new ArrayList<>()); // Limpiar mensajes después de obtenerlos
+        // Limpiar mensajes después de obtenerlos
+        List<MessageEnvelope> envelopes = pendingMessages.remove(username);
+        List<String> messages = new ArrayList<>();
+        if (envelopes != null) {
+            for (MessageEnvelope envelope : envelopes) {
+                messages.add(envelope.toPendingLine());
+            }
+        }
         return messages;
     }
 
+    private void enqueuePending(String username, MessageEnvelope envelope) {
+        // compute es atómico por clave frente al remove de getPendingMessages
+        pendingMessages.compute(username, (k, list) -> {
+            List<MessageEnvelope> queue = list != null ? list : new ArrayList<>();
+            queue.add(envelope);
+            return queue;
+        });
+    }
+
     public List<String> getHistory(String username) throws IOException {
         File historyFile = new File(historyDir, username + ".jsonl");
         List<String> history = new ArrayList<>();
@@ -425,6 +575,7 @@ public class ChatServicesImpl {
      */
     public boolean clearChatHistory(String user1, String user2) {
         try {
+            List<String> removed = new ArrayList<>(); // Registros borrados: sueltan sus notas de voz
             // Limpiar historial del usuario 1
             File historyFile1 = new File(historyDir, user1 + ".jsonl");
             if (historyFile1.exists()) {
@@ -435,6 +586,8 @@ public class ChatServicesImpl {
                         // Mantener solo mensajes que NO sean entre user1 y user2
                         if (!line.contains("from:" + user2) && !line.contains("target:" + user2)) {
                             filteredHistory.add(line);
+                        } else {
+                            removed.add(line);
                         }
                     }
                 }
@@ -456,6 +609,8 @@ public class ChatServicesImpl {
                         // Mantener solo mensajes que NO sean entre user2 y user1
                         if (!line.contains("from:" + user1) && !line.contains("target:" + user1)) {
                             filteredHistory.add(line);
+                        } else {
+                            removed.add(line);
                         }
                     }
                 }
@@ -467,6 +622,7 @@ public class ChatServicesImpl {
                 }
             }
 
+            media.releaseAll(removed);
             System.out.println("[CHAT] History cleared between " + user1 + " and " + user2);
             return true;
         } catch (IOException e) {
@@ -476,50 +632,295 @@ public class ChatServicesImpl {
     }
 
     // ---- Notas de voz ----
-    public boolean sendVoiceNoteToUser(String from, String to, byte[] audioData) throws IOException {
-        File audioFile = new File(mediaDir, "vn_" + System.currentTimeMillis() + ".raw");
-        try (FileOutputStream fos = new FileOutputStream(audioFile)) {
-            fos.write(audioData);
+    // Aquí la nota ya llega completa en memoria (parámetro Ice); solo se aplica el límite de tamaño
+    private void checkVoiceNoteSize(byte[] audioData) throws IOException {
+        if (audioData.length > maxVoiceNoteBytes) {
+            throw new IOException("voice note of " + audioData.length + " bytes exceeds " + maxVoiceNoteBytes);
         }
+    }
 
-        String record = "{type:voice_note,from:" + from + ",target:" + to + ",isGroup:false,file:" + audioFile.getPath() + ",ts:" + Instant.now() + "}";
-        persist(from, to, false, record);
+    /**
+     * Tramo de una nota guardada, tal como está en disco (ver {@link MediaFiles#codec});
+     * el id es el nombre del archivo que aparece en el historial
+     */
+    public MediaFiles.Range getMedia(String id, long offset, long length) throws IOException {
+        return MediaFiles.resolve(media, id, offset, length);
+    }
+
+    /**
+     * Tramo de una nota decodificado a PCM, para clientes que no decodifican ADPCM
+     */
+    public MediaFiles.Pcm getMediaPcm(String id, long offset, long length) throws IOException {
+        return MediaFiles.readPcm(media, id, offset, length);
+    }
+
+    // Duración y forma de onda para el registro del historial; null si la nota no es PCM
+    private static VoiceSummary summarize(byte[] audioData, boolean pcm) {
+        return VoiceCodec.isPcm(audioData, pcm) ? VoiceSummary.of(audioData) : null;
+    }
+
+    private static String recordFields(VoiceSummary summary) {
+        return summary != null ? summary.recordFields() : "";
+    }
+
+    /**
+     * @param pcm si el cliente declaró la nota como PCM de 16 bits; si no, se guarda tal cual
+     * @return nota guardada, con el resumen del registro (duración y forma de onda) si es PCM
+     */
+    public StoredVoiceNote sendVoiceNoteToUser(String from, String to, byte[] audioData, boolean pcm) throws IOException {
+        checkVoiceNoteSize(audioData);
+        // El PCM va a disco en ADPCM; a los destinatarios en vivo se les reenvía lo recibido.
+        // Una referencia por cada historial donde persist escribe el registro
+        String id = media.put(VoiceCodec.encode(audioData, pcm), HISTORY_COPIES);
+        VoiceSummary summary = summarize(audioData, pcm);
+
+        String record = "{type:voice_note,from:" + from + ",target:" + to + ",isGroup:false,file:" + media.recordPath(id) + recordFields(summary) + ",ts:" + Instant.now() + "}";
+        persistVoiceNote(from, to, false, record, id);
 
         ClientSession session = users.get(to);
-        if (session != null && session.socket != null) {
-            session.out.println("VOICE_NOTE_FROM " + from + " " + audioData.length);
-            session.out.flush();
-            session.socket.getOutputStream().write(audioData);
-            session.socket.getOutputStream().flush();
+        if (session != null && session.out != null) {
+            session.sendVoiceNote(from, audioData);
         }
-        return true;
+        return new StoredVoiceNote(from, to, false, id, summary);
+    }
+
+    /**
+     * @param pcm si el cliente declaró la nota como PCM de 16 bits; si no, se guarda tal cual
+     * @return nota guardada, con el resumen del registro (duración y forma de onda) si es PCM
+     */
+    public StoredVoiceNote sendVoiceNoteToGroup(String from, String groupName, byte[] audioData, boolean pcm) throws IOException {
+        checkVoiceNoteSize(audioData);
+        String id = media.put(VoiceCodec.encode(audioData, pcm), HISTORY_COPIES);
+        VoiceSummary summary = summarize(audioData, pcm);
+
+        String record = "{type:voice_note,from:" + from + ",target:" + groupName + ",isGroup:true,file:" + media.recordPath(id) + recordFields(summary) + ",ts:" + Instant.now() + "}";
+        persistVoiceNote(from, groupName, true, record, id);
+
+        int senderId = membership.userId(from);
+        fanOut.fanOut("group_voice", groupName, membership.members(groupName), memberId -> {
+            if (memberId == senderId) {
+                return;
+            }
+            ClientSession session = users.get(membership.userName(memberId));
+            if (session != null && session.out != null) {
+                session.sendVoiceNote(from, audioData);
+            }
+        });
+        return new StoredVoiceNote(from, groupName, true, id, summary);
     }
 
-    public boolean sendVoiceNoteToGroup(String from, String groupName, byte[] audioData) throws IOException {
-        File audioFile = new File(mediaDir, "vn_" + System.currentTimeMillis() + ".raw");
-        try (FileOutputStream fos = new FileOutputStream(audioFile)) {
-            fos.write(audioData);
+    /**
+     * Deja la referencia a la nota en la cola de pendientes de los destinatarios
+     * (clientes por polling); el audio se pide aparte con el id del medio
+     */
+    public void queueVoiceNote(StoredVoiceNote note) {
+        String content = note.reference();
+        if (!note.isGroup()) {
+            enqueuePending(note.target(), MessageEnvelope.toUser(note.from(), note.target(), content));
+            return;
+        }
+        MessageEnvelope envelope = MessageEnvelope.toGroup(note.from(), note.target(), content);
+        int senderId = membership.userId(note.from());
+        for (int memberId : membership.members(note.target())) {
+            if (memberId != senderId) {
+                enqueuePending(membership.userName(memberId), envelope);
+            }
         }
+    }
 
-        String record = "{type:voice_note,from:" + from + ",target:" + groupName + ",isGroup:true,file:" + audioFile.getPath() + ",ts:" + Instant.now() + "}";
-        persist(from, groupName, true, record);
+    // ---- Notas de voz por partes (Ice en binario) ----
+    public static final long VOICE_UPLOAD_IDLE_MS = TimeUnit.SECONDS.toMillis(60);
+    private final Map<String, VoiceNoteUpload> voiceUploads = new ConcurrentHashMap<>();
+    private final Metrics.Counter voiceUploadsExpired = Metrics.counter("voice.upload.expired");
 
-        Set<String> members = groups.getOrDefault(groupName, Set.of());
-        for (String username : members) {
-            if (username.equals(from)) continue;
-            
-            ClientSession session = users.get(username);
-            if (session != null && session.socket != null) {
-                session.out.println("VOICE_NOTE_FROM " + from + " " + audioData.length);
-                session.out.flush();
-                session.socket.getOutputStream().write(audioData);
-                session.socket.getOutputStream().flush();
+    /**
+     * Nota ya guardada: id del medio (lo que va en el historial) y su resumen, o null si no es PCM
+     */
+    public record StoredVoiceNote(String from, String target, boolean isGroup, String mediaId, VoiceSummary summary) {
+
+        /**
+         * Contenido que reciben los clientes en lugar del audio:
+         * {"type":"audio","mediaId":"...","durationMs":N,"waveform":"..."}
+         */
+        public String reference() {
+            return reference(mediaId, summary);
+        }
+
+        public static String reference(String mediaId, VoiceSummary summary) {
+            // El id y la forma de onda (base64url) no llevan comillas ni barras: no hace falta escapar
+            String json = "{\"type\":\"audio\",\"mediaId\":\"" + mediaId + "\"";
+            if (summary != null) {
+                json += ",\"durationMs\":" + summary.durationMs() + ",\"waveform\":\"" + summary.waveform() + "\"";
+            }
+            return json + "}";
+        }
+    }
+
+    /**
+     * Subida en curso: se escribe a disco a medida que llega; los clientes con socket
+     * la reciben desde el blob cuando termina
+     */
+    private static final class VoiceNoteUpload {
+        final String id;
+        final String from;
+        final String target;
+        final boolean isGroup;
+        final int size;
+        final MediaStore.Upload blob;
+        final VoiceCodec.Encoder disk;
+        final VoiceSummary.Builder summary;
+        long received;
+        volatile long lastSeenNanos = System.nanoTime();
+
+        VoiceNoteUpload(String id, String from, String target, boolean isGroup, int size, boolean pcm, MediaStore.Upload blob) {
+            this.id = id;
+            this.from = from;
+            this.target = target;
+            this.isGroup = isGroup;
+            this.size = size;
+            this.blob = blob;
+            this.disk = VoiceCodec.encoder(blob, size, pcm);
+            this.summary = new VoiceSummary.Builder(size);
+        }
+    }
+
+    /**
+     * Abre una subida por partes. Los destinatarios con socket no reciben nada hasta
+     * {@link #finishVoiceNote}: un cuerpo abierto retendría todo lo demás que se les
+     * envía mientras dure la subida, y el cliente Ice puede tardar o abandonarla.
+     * @param pcm si la nota es PCM de 16 bits; si no, se guarda tal cual
+     * @return id de la subida para {@link #appendVoiceNote} y {@link #finishVoiceNote}
+     */
+    public String beginVoiceNote(String from, String target, boolean isGroup, int size, boolean pcm) throws IOException {
+        if (size <= 0 || size > maxVoiceNoteBytes) {
+            throw new IOException("voice note of " + size + " bytes exceeds " + maxVoiceNoteBytes);
+        }
+        VoiceNoteUpload upload = new VoiceNoteUpload(UUID.randomUUID().toString(), from, target, isGroup, size, pcm, media.begin());
+        voiceUploads.put(upload.id, upload);
+        leaseWheel.schedule(() -> checkVoiceUpload(upload), VOICE_UPLOAD_IDLE_MS);
+        return upload.id;
+    }
+
+    /**
+     * @param offset bytes ya recibidos; una parte repetida o fuera de orden se rechaza
+     */
+    public void appendVoiceNote(String uploadId, long offset, byte[] chunk) throws IOException {
+        VoiceNoteUpload upload = voiceUploads.get(uploadId);
+        if (upload == null) {
+            throw new IOException("unknown upload: " + uploadId);
+        }
+        synchronized (upload) {
+            if (offset != upload.received) {
+                throw new IOException("expected offset " + upload.received + ", got " + offset);
+            }
+            if (upload.received + chunk.length > upload.size) {
+                abortVoiceNote(upload);
+                throw new IOException("upload exceeds announced size " + upload.size);
+            }
+            upload.lastSeenNanos = System.nanoTime();
+            upload.disk.write(chunk, 0, chunk.length);
+            upload.summary.update(chunk, 0, chunk.length);
+            upload.received += chunk.length;
+        }
+    }
+
+    /**
+     * Guarda la nota completa, escribe su registro en el historial y la envía a los
+     * destinatarios con socket
+     */
+    public StoredVoiceNote finishVoiceNote(String uploadId) throws IOException {
+        VoiceNoteUpload upload = voiceUploads.remove(uploadId);
+        if (upload == null) {
+            throw new IOException("unknown upload: " + uploadId);
+        }
+        synchronized (upload) {
+            if (upload.received != upload.size) {
+                abortVoiceNote(upload);
+                throw new IOException("incomplete upload: " + upload.received + " of " + upload.size + " bytes");
+            }
+            upload.disk.finish();
+            String id = upload.blob.commit(HISTORY_COPIES);
+            VoiceSummary summary = upload.disk.isPcm() ? upload.summary.finish() : null;
+            String record = "{type:voice_note,from:" + upload.from + ",target:" + upload.target + ",isGroup:" + upload.isGroup
+                    + ",file:" + media.recordPath(id) + recordFields(summary) + ",ts:" + Instant.now() + "}";
+            persistVoiceNote(upload.from, upload.target, upload.isGroup, record, id);
+            StoredVoiceNote note = new StoredVoiceNote(upload.from, upload.target, upload.isGroup, id, summary);
+            pushVoiceNote(note);
+            return note;
+        }
+    }
+
+    // Se llama con el lock de la subida tomado, o cuando ya no está en el mapa
+    private void abortVoiceNote(VoiceNoteUpload upload) {
+        voiceUploads.remove(upload.id);
+        upload.blob.abort();
+    }
+
+    /**
+     * Envía una nota ya guardada a los destinatarios con socket. Se sirve desde el
+     * blob (sendfile) si está tal cual; si está en ADPCM se les manda el PCM, como en vivo.
+     */
+    private void pushVoiceNote(StoredVoiceNote note) throws IOException {
+        List<ClientSession> online = new ArrayList<>();
+        for (String recipient : voiceNoteRecipients(note)) {
+            ClientSession session = users.get(recipient);
+            if (session != null && session.out != null) {
+                online.add(session);
+            }
+        }
+        if (online.isEmpty()) {
+            return;
+        }
+        MediaFiles.Range range = MediaFiles.resolve(media, note.mediaId(), 0, -1);
+        if (VoiceCodec.IMA_ADPCM.equals(MediaFiles.codec(range))) {
+            byte[] pcm = MediaFiles.readPcm(media, note.mediaId(), 0, -1).data();
+            online.forEach(session -> session.sendVoiceNote(note.from(), pcm));
+            return;
+        }
+        String header = "VOICE_NOTE_FROM " + note.from() + " " + range.length();
+        online.forEach(session -> session.out.pushFile(header, range));
+    }
+
+    private List<String> voiceNoteRecipients(StoredVoiceNote note) {
+        if (!note.isGroup()) {
+            return List.of(note.target());
+        }
+        List<String> recipients = new ArrayList<>();
+        int senderId = membership.userId(note.from());
+        for (int memberId : membership.members(note.target())) {
+            if (memberId != senderId) {
+                recipients.add(membership.userName(memberId));
+            }
+        }
+        return recipients;
+    }
+
+    // Subidas abandonadas por el cliente: se descartan tras VOICE_UPLOAD_IDLE_MS sin partes
+    private void checkVoiceUpload(VoiceNoteUpload upload) {
+        if (voiceUploads.get(upload.id) != upload) {
+            return;
+        }
+        long idleMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - upload.lastSeenNanos);
+        if (idleMillis < VOICE_UPLOAD_IDLE_MS) {
+            leaseWheel.schedule(() -> checkVoiceUpload(upload), VOICE_UPLOAD_IDLE_MS - idleMillis);
+            return;
+        }
+        synchronized (upload) {
+            if (voiceUploads.get(upload.id) == upload) {
+                abortVoiceNote(upload);
+                voiceUploadsExpired.increment();
             }
         }
-        return true;
     }
 
     // ---- Llamadas ----
+    /**
+     * Los dos extremos de una llamada tienen que estar conectados
+     */
+    public boolean canCall(String caller, String target) {
+        return users.containsKey(caller) && users.containsKey(target);
+    }
+
     public String callUser(String caller, String target) {
         ClientSession targetSession = users.get(target);
         ClientSession callerSession = users.get(caller);
@@ -549,10 +950,43 @@ public class ChatServicesImpl {
     }
 
     public boolean endCall(String from, String to) {
-        // For simplicity, just return true as calls are handled via ICE/WebRTC
+        // Sin llamada registrada (ya terminó o se hizo solo por WebRTC) no hay nada que limpiar
+        calls.endBetween(from, to, CallRegistry.ENDED);
         return true;
     }
 
+    public CallRegistry getCallRegistry() {
+        return calls;
+    }
+
+    // ---- Presencia ----
+    public void watchPresence(String watcher, String target) {
+        presence.watch(watcher, target);
+    }
+
+    public void unwatchPresence(String watcher, String target) {
+        presence.unwatch(watcher, target);
+    }
+
+    public long getPresenceVersion() {
+        return presence.currentVersion();
+    }
+
+    public Map<String, Boolean> getPresenceChanges(long sinceVersion) {
+        return presence.changesSince(sinceVersion);
+    }
+
+    PresenceService getPresenceService() {
+        return presence;
+    }
+
+    private void deliverPresence(String watcher, String line) {
+        ClientSession session = users.get(watcher);
+        if (session != null && session.out != null) {
+            session.out.println(line);
+        }
+    }
+
     // ---- Utilidades ----
     private void broadcast(String message) {
         users.values().forEach(session -> {
@@ -562,32 +996,66 @@ public class ChatServicesImpl {
         });
     }
 
+    // persist escribe cada registro en dos historiales: el del remitente y el del destino
+    private static final int HISTORY_COPIES = 2;
+
     private void persist(String from, String target, boolean isGroup, String line) throws IOException {
-        // Guardar en historial del remitente
-        File senderFile = new File(historyDir, from + ".jsonl");
-        try (FileWriter fw = new FileWriter(senderFile, true)) {
-            fw.write(line + "\n");
+        for (File file : historyFiles(from, target, isGroup)) {
+            append(file, line);
         }
+    }
 
-        // Guardar en historial del destinatario
-        if (isGroup) {
-            File groupFile = new File(historyDir, "#" + target + ".jsonl");
-            try (FileWriter fw = new FileWriter(groupFile, true)) {
-                fw.write(line + "\n");
+    /**
+     * persist de un registro que apunta a {@code id}, guardado con HISTORY_COPIES
+     * referencias: las copias que no llegan a escribirse sueltan la suya
+     */
+    private void persistVoiceNote(String from, String target, boolean isGroup, String line, String id) throws IOException {
+        int written = 0;
+        try {
+            for (File file : historyFiles(from, target, isGroup)) {
+                append(file, line);
+                written++;
             }
-        } else {
-            File targetFile = new File(historyDir, target + ".jsonl");
-            try (FileWriter fw = new FileWriter(targetFile, true)) {
-                fw.write(line + "\n");
+        } catch (IOException e) {
+            try {
+                media.release(id, HISTORY_COPIES - written);
+            } catch (IOException releaseError) {
+                e.addSuppressed(releaseError);
             }
+            throw e;
+        }
+    }
+
+    private File[] historyFiles(String from, String target, boolean isGroup) {
+        // Historial del remitente y del destinatario (o del grupo)
+        return new File[] {
+            new File(historyDir, from + ".jsonl"),
+            new File(historyDir, (isGroup ? "#" : "") + target + ".jsonl")
+        };
+    }
+
+    private static void append(File file, String line) throws IOException {
+        try (FileWriter fw = new FileWriter(file, true)) {
+            fw.write(line + "\n");
         }
     }
 
+    public FanOutEngine getFanOutEngine() {
+        return fanOut;
+    }
+
     public Map<String, ClientSession> getUsersMap() {
         return users;
     }
 
+    /**
+     * Copia de los grupos con sus miembros por nombre
+     */
     public Map<String, Set<String>> getGroupsMap() {
-        return groups;
+        Map<String, Set<String>> copy = new HashMap<>();
+        for (String groupName : membership.groupNames()) {
+            copy.put(groupName, new HashSet<>(membership.memberNames(groupName)));
+        }
+        return copy;
     }
 }
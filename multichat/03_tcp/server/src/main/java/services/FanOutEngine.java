@@ -0,0 +1,133 @@
+package services;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+import util.Metrics;
+
+/**
+ * Entrega un mismo mensaje (ya codificado) a muchos destinatarios en paralelo.
+ * Los destinatarios se reparten en lotes sobre un pool work-stealing, de modo
+ * que un miembro lento solo retrasa su propio lote y el remitente recibe su
+ * confirmación sin esperar la entrega. Los fan-outs con la misma clave (p. ej.
+ * un grupo) se ejecutan uno tras otro, así cada miembro recibe los mensajes en
+ * el orden en que se enviaron. Cada fan-out registra su duración en las
+ * métricas "fanout.<tipo>".
+ */
+public class FanOutEngine {
+
+    private static final int DEFAULT_BATCH_SIZE = 32;
+
+    private final ForkJoinPool pool;
+    private final int batchSize;
+    // Último fan-out pendiente de cada clave; el siguiente de la misma clave espera a que termine
+    private final ConcurrentHashMap<String, CompletableFuture<Void>> tails = new ConcurrentHashMap<>();
+
+    public FanOutEngine() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_BATCH_SIZE);
+    }
+
+    public FanOutEngine(int parallelism, int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+        this.pool = new ForkJoinPool(parallelism, p -> {
+            ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+            t.setName("fanout-" + t.getPoolIndex());
+            return t;
+        }, null, true);
+    }
+
+    /**
+     * Fan-out sobre una instantánea de ids (p. ej. {@link MembershipIndex#members})
+     */
+    public CompletableFuture<Void> fanOut(String kind, int[] recipients, IntConsumer delivery) {
+        return submit(kind, null, recipients.length, i -> delivery.accept(recipients[i]));
+    }
+
+    /**
+     * Como {@link #fanOut(String, int[], IntConsumer)}, pero empieza cuando terminan los
+     * fan-outs anteriores con la misma {@code key}: lo que se envía a un grupo llega en orden
+     */
+    public CompletableFuture<Void> fanOut(String kind, String key, int[] recipients, IntConsumer delivery) {
+        return submit(kind, key, recipients.length, i -> delivery.accept(recipients[i]));
+    }
+
+    /**
+     * Fan-out sobre una copia de la lista de destinatarios
+     */
+    public <T> CompletableFuture<Void> fanOut(String kind, List<T> recipients, Consumer<T> delivery) {
+        List<T> snapshot = List.copyOf(recipients);
+        return submit(kind, null, snapshot.size(), i -> delivery.accept(snapshot.get(i)));
+    }
+
+    private CompletableFuture<Void> submit(String kind, String key, int count, IntConsumer deliverAt) {
+        if (count == 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        long start = System.nanoTime();
+        Metrics.Counter failures = Metrics.counter("fanout." + kind + ".failures");
+        Runnable task = () -> new Batch(deliverAt, failures, 0, count).invoke();
+        CompletableFuture<Void> done;
+        if (key == null) {
+            done = CompletableFuture.runAsync(task, pool);
+        } else {
+            done = tails.compute(key, (k, prev) -> prev == null
+                    ? CompletableFuture.runAsync(task, pool)
+                    : prev.exceptionally(error -> null).thenRunAsync(task, pool));
+            CompletableFuture<Void> tail = done;
+            done.whenComplete((ok, error) -> tails.remove(key, tail));
+        }
+        return done
+                .whenComplete((ok, error) -> {
+                    Metrics.timer("fanout." + kind).record(System.nanoTime() - start);
+                    Metrics.counter("fanout." + kind + ".recipients").add(count);
+                });
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Divide el rango de destinatarios hasta el tamaño de lote; los lotes
+     * pendientes quedan disponibles para que otros hilos los roben.
+     * Nunca se serializa: RecursiveAction es Serializable solo por herencia.
+     */
+    @SuppressWarnings("serial")
+    private class Batch extends RecursiveAction {
+        private final IntConsumer deliverAt;
+        private final Metrics.Counter failures;
+        private final int from;
+        private final int to;
+
+        Batch(IntConsumer deliverAt, Metrics.Counter failures, int from, int to) {
+            this.deliverAt = deliverAt;
+            this.failures = failures;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= batchSize) {
+                for (int i = from; i < to; i++) {
+                    try {
+                        deliverAt.accept(i);
+                    } catch (RuntimeException e) {
+                        // Un destinatario con error no corta la entrega al resto
+                        failures.increment();
+                        System.err.println("[FANOUT] Delivery failed: " + e.getMessage());
+                    }
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new Batch(deliverAt, failures, from, mid), new Batch(deliverAt, failures, mid, to));
+        }
+    }
+}
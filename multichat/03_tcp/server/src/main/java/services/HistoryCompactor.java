@@ -0,0 +1,160 @@
+package services;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import util.MediaStore;
+import util.VoiceCodec;
+
+/**
+ * Herramienta de una sola vez: saca de los historiales las notas de voz que
+ * el servidor Ice guardaba en base64 dentro de un registro de texto
+ * ({type:text,...,msg:{"type":"audio","data":"..."},ts:...}) y las mueve al
+ * {@link MediaStore}. Si el mismo historial ya tiene el registro voice_note de
+ * esa nota (se escribían los dos), el registro de texto se borra; si no, se
+ * reescribe como voice_note apuntando al blob.
+ *
+ * Se ejecuta con el servidor detenido: ./gradlew :server:compactHistory [-PhistoryDir=...]
+ */
+public final class HistoryCompactor {
+
+    // El msg es JSON escrito por Gson (el '=' del base64 va como \u003d): se parsea, no se busca con regex
+    private static final Pattern MSG = Pattern.compile(",msg:(\\{.*\\}),ts:[^,}]*\\}$");
+    private static final Pattern FROM = Pattern.compile("from:([^,]*)");
+    private static final Pattern TARGET = Pattern.compile("target:([^,]*)");
+    private static final Pattern TS = Pattern.compile(",ts:([^,}]*)\\}$");
+
+    private final MediaStore store;
+
+    /**
+     * @param files historiales reescritos
+     * @param extracted registros convertidos en voice_note
+     * @param dropped registros de texto borrados por duplicar un voice_note
+     */
+    public record Result(int files, int extracted, int dropped, long bytesBefore, long bytesAfter) {}
+
+    public HistoryCompactor(MediaStore store) {
+        this.store = store;
+    }
+
+    public static void main(String[] args) throws IOException {
+        File historyDir = new File(args.length > 0 ? args[0] : "data/history");
+        Result r = new HistoryCompactor(MediaStore.shared()).compact(historyDir);
+        System.out.println("[COMPACT] " + r.files() + " history files rewritten, " + r.extracted() + " notes moved to "
+                + "the media store, " + r.dropped() + " duplicate records removed, " + r.bytesBefore() + " -> "
+                + r.bytesAfter() + " bytes");
+    }
+
+    public Result compact(File historyDir) throws IOException {
+        File[] files = historyDir.listFiles((dir, name) -> name.endsWith(".jsonl"));
+        int rewritten = 0;
+        int extracted = 0;
+        int dropped = 0;
+        long before = 0;
+        long after = 0;
+        if (files == null) {
+            return new Result(0, 0, 0, 0, 0);
+        }
+        for (File file : files) {
+            List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+            Set<String> notes = notesIn(lines);
+            List<String> out = new ArrayList<>(lines.size());
+            boolean changed = false;
+            for (String line : lines) {
+                byte[] audio = embeddedAudio(line);
+                if (audio == null) {
+                    out.add(line);
+                    continue;
+                }
+                changed = true;
+                // Lo grababa MediaRecorder (WebM, MP4...): se guarda tal cual, sin pasar por el códec
+                String id = MediaStore.idOf(audio);
+                if (!notes.add(id)) {
+                    dropped++;
+                    continue;
+                }
+                // Una referencia por registro, igual que al recibir la nota
+                store.put(audio, 1);
+                out.add(voiceNoteRecord(line, store.recordPath(id)));
+                extracted++;
+            }
+            long size = file.length();
+            before += size;
+            if (!changed) {
+                after += size;
+                continue;
+            }
+            File tmp = new File(historyDir, file.getName() + ".tmp");
+            Files.write(tmp.toPath(), out, StandardCharsets.UTF_8);
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            after += file.length();
+            rewritten++;
+        }
+        return new Result(rewritten, extracted, dropped, before, after);
+    }
+
+    // Ids de las notas que el historial ya referencia. Las que no llevan hash (p. ej.
+    // vn_<millis>.raw, anteriores al almacén) cuentan también con el id de sus bytes.
+    private Set<String> notesIn(List<String> lines) throws IOException {
+        Set<String> ids = new HashSet<>();
+        for (String line : lines) {
+            String id = MediaStore.referencedId(line);
+            if (id == null) {
+                continue;
+            }
+            ids.add(id);
+            File blob = store.locate(id);
+            if (blob != null && blob.isFile() && VoiceCodec.pcmLength(blob) < 0) {
+                ids.add(MediaStore.idOf(Files.readAllBytes(blob.toPath())));
+            }
+        }
+        return ids;
+    }
+
+    // Audio incrustado en un registro de texto, o null si el registro no lo tiene
+    private static byte[] embeddedAudio(String line) {
+        if (!line.startsWith("{type:text") || !line.contains("\"audio\"")) {
+            return null;
+        }
+        Matcher m = MSG.matcher(line);
+        if (!m.find()) {
+            return null;
+        }
+        try {
+            JsonObject msg = JsonParser.parseString(m.group(1)).getAsJsonObject();
+            if (!msg.has("type") || !"audio".equals(msg.get("type").getAsString())
+                    || !msg.has("data") || !msg.get("data").isJsonPrimitive()) {
+                return null;
+            }
+            return Base64.getDecoder().decode(msg.get("data").getAsString());
+        } catch (JsonParseException | IllegalStateException | UnsupportedOperationException | IllegalArgumentException e) {
+            return null; // no es JSON o no es base64: se deja el registro como está
+        }
+    }
+
+    // Sin duración ni forma de onda: el formato no es PCM
+    private static String voiceNoteRecord(String textRecord, String path) {
+        return "{type:voice_note,from:" + field(FROM, textRecord) + ",target:" + field(TARGET, textRecord)
+                + ",isGroup:" + textRecord.contains(",isGroup:true,") + ",file:" + path
+                + ",ts:" + field(TS, textRecord) + "}";
+    }
+
+    private static String field(Pattern pattern, String record) {
+        Matcher m = pattern.matcher(record);
+        return m.find() ? m.group(1) : "";
+    }
+}
@@ -0,0 +1,62 @@
+package services;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registro de nombres internados a ids enteros densos (0, 1, 2, ...).
+ * El nombre se resuelve una sola vez en el borde (una búsqueda hash) y el
+ * resto de estructuras trabaja con enteros. Los ids nunca se reutilizan.
+ */
+public final class IdRegistry {
+
+    public static final int NO_ID = -1;
+
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile String[] names = new String[64];
+    private int size; // protegido por this
+
+    /**
+     * @return id del nombre o {@link #NO_ID} si nunca se registró
+     */
+    public int idOf(String name) {
+        Integer id = ids.get(name);
+        return id != null ? id : NO_ID;
+    }
+
+    /**
+     * Devuelve el id existente o asigna el siguiente id libre
+     */
+    public int intern(String name) {
+        Integer id = ids.get(name);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = ids.get(name);
+            if (id != null) {
+                return id;
+            }
+            int next = size;
+            String[] current = names;
+            if (next == current.length) {
+                current = Arrays.copyOf(current, current.length * 2);
+            }
+            current[next] = name;
+            names = current; // publica el nombre antes que el id
+            ids.put(name, next);
+            size = next + 1;
+            return next;
+        }
+    }
+
+    public String nameOf(int id) {
+        String[] current = names;
+        return id >= 0 && id < current.length ? current[id] : null;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+}
@@ -0,0 +1,211 @@
+package services;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Pertenencia usuario/grupo con ids enteros y conjuntos primitivos.
+ * Cada grupo guarda un int[] ordenado con los ids de sus miembros y cada
+ * usuario un int[] ordenado con los ids de sus grupos (índice inverso).
+ * Los arreglos son copy-on-write: las escrituras (raras) se serializan y
+ * reemplazan el arreglo completo, las lecturas no bloquean y obtienen una
+ * instantánea que nunca cambia.
+ */
+public final class MembershipIndex {
+
+    private static final int[] EMPTY = new int[0];
+
+    private final IdRegistry userIds = new IdRegistry();
+    private final IdRegistry groupIds = new IdRegistry();
+    // Índice = id de grupo / id de usuario; null = grupo inexistente
+    private volatile AtomicReferenceArray<int[]> membersByGroup = new AtomicReferenceArray<>(64);
+    private volatile AtomicReferenceArray<int[]> groupsByUser = new AtomicReferenceArray<>(64);
+    private volatile long version = VersionedView.startEpoch(); // sube en cada escritura que cambia algo
+
+    // ---- Escrituras ----
+
+    /**
+     * @return true si el grupo no existía
+     */
+    public synchronized boolean createGroup(String groupName) {
+        int gid = groupIds.intern(groupName);
+        membersByGroup = ensureCapacity(membersByGroup, gid);
+        if (membersByGroup.get(gid) == null) {
+            membersByGroup.set(gid, EMPTY);
+            version++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Agrega el usuario al grupo (creándolo si hace falta)
+     * @return true si el usuario no era miembro
+     */
+    public synchronized boolean add(String groupName, String username) {
+        createGroup(groupName);
+        int gid = groupIds.idOf(groupName);
+        int uid = userIds.intern(username);
+        groupsByUser = ensureCapacity(groupsByUser, uid);
+
+        int[] members = membersByGroup.get(gid);
+        if (contains(members, uid)) {
+            return false;
+        }
+        membersByGroup.set(gid, with(members, uid));
+        groupsByUser.set(uid, with(orEmpty(groupsByUser.get(uid)), gid));
+        version++;
+        return true;
+    }
+
+    /**
+     * Saca al usuario de todos sus grupos en O(grupos del usuario)
+     * @return nombres de los grupos afectados
+     */
+    public synchronized List<String> removeUser(String username) {
+        int uid = userIds.idOf(username);
+        List<String> affected = new ArrayList<>();
+        if (uid == IdRegistry.NO_ID) {
+            return affected;
+        }
+        int[] memberOf = orEmpty(groupsByUser.get(uid));
+        for (int gid : memberOf) {
+            membersByGroup.set(gid, without(membersByGroup.get(gid), uid));
+            affected.add(groupIds.nameOf(gid));
+        }
+        groupsByUser.set(uid, EMPTY);
+        if (!affected.isEmpty()) {
+            version++;
+        }
+        return affected;
+    }
+
+    // ---- Lecturas (sin bloqueo) ----
+
+    /**
+     * Versión de la pertenencia; cambia cada vez que se crea un grupo o cambian sus miembros
+     */
+    public long version() {
+        return version;
+    }
+
+    public boolean hasGroup(String groupName) {
+        return groupSnapshot(groupName) != null;
+    }
+
+    /**
+     * Instantánea inmutable de los ids de miembros; nunca se modifica después de devolverse
+     */
+    public int[] members(String groupName) {
+        return orEmpty(groupSnapshot(groupName));
+    }
+
+    public List<String> memberNames(String groupName) {
+        return names(members(groupName), userIds);
+    }
+
+    public List<String> groupsOf(String username) {
+        int uid = userIds.idOf(username);
+        if (uid == IdRegistry.NO_ID) {
+            return new ArrayList<>();
+        }
+        AtomicReferenceArray<int[]> table = groupsByUser;
+        return names(uid < table.length() ? orEmpty(table.get(uid)) : EMPTY, groupIds);
+    }
+
+    public boolean isMember(String groupName, String username) {
+        int uid = userIds.idOf(username);
+        return uid != IdRegistry.NO_ID && contains(members(groupName), uid);
+    }
+
+    public List<String> groupNames() {
+        List<String> result = new ArrayList<>();
+        AtomicReferenceArray<int[]> table = membersByGroup;
+        int count = Math.min(groupIds.size(), table.length());
+        for (int gid = 0; gid < count; gid++) {
+            if (table.get(gid) != null) {
+                result.add(groupIds.nameOf(gid));
+            }
+        }
+        return result;
+    }
+
+    public int userId(String username) {
+        return userIds.idOf(username);
+    }
+
+    public String userName(int userId) {
+        return userIds.nameOf(userId);
+    }
+
+    private int[] groupSnapshot(String groupName) {
+        int gid = groupIds.idOf(groupName);
+        if (gid == IdRegistry.NO_ID) {
+            return null;
+        }
+        AtomicReferenceArray<int[]> table = membersByGroup;
+        return gid < table.length() ? table.get(gid) : null;
+    }
+
+    // ---- Conjuntos de enteros ordenados ----
+
+    private static boolean contains(int[] set, int value) {
+        return Arrays.binarySearch(set, value) >= 0;
+    }
+
+    private static int[] with(int[] set, int value) {
+        int pos = Arrays.binarySearch(set, value);
+        if (pos >= 0) {
+            return set;
+        }
+        int insertAt = -pos - 1;
+        int[] result = new int[set.length + 1];
+        System.arraycopy(set, 0, result, 0, insertAt);
+        result[insertAt] = value;
+        System.arraycopy(set, insertAt, result, insertAt + 1, set.length - insertAt);
+        return result;
+    }
+
+    private static int[] without(int[] set, int value) {
+        int pos = Arrays.binarySearch(set, value);
+        if (pos < 0) {
+            return set;
+        }
+        if (set.length == 1) {
+            return EMPTY;
+        }
+        int[] result = new int[set.length - 1];
+        System.arraycopy(set, 0, result, 0, pos);
+        System.arraycopy(set, pos + 1, result, pos, set.length - pos - 1);
+        return result;
+    }
+
+    private static int[] orEmpty(int[] set) {
+        return set != null ? set : EMPTY;
+    }
+
+    private static List<String> names(int[] ids, IdRegistry registry) {
+        List<String> result = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            result.add(registry.nameOf(id));
+        }
+        return result;
+    }
+
+    private static AtomicReferenceArray<int[]> ensureCapacity(AtomicReferenceArray<int[]> table, int index) {
+        if (index < table.length()) {
+            return table;
+        }
+        int newLength = table.length();
+        while (newLength <= index) {
+            newLength *= 2;
+        }
+        AtomicReferenceArray<int[]> grown = new AtomicReferenceArray<>(newLength);
+        for (int i = 0; i < table.length(); i++) {
+            grown.set(i, table.get(i));
+        }
+        return grown;
+    }
+}
@@ -0,0 +1,73 @@
+package services;
+
+/**
+ * Mensaje inmutable compartido entre las colas de pendientes.
+ * Un mensaje de grupo se crea una sola vez y cada buzón guarda una referencia
+ * a él, en lugar de una copia del texto por miembro. Las codificaciones de
+ * salida (cola de polling y línea del socket) se calculan una vez y se reutilizan.
+ */
+public final class MessageEnvelope {
+
+    public enum Kind { PRIVATE, GROUP }
+
+    private final Kind kind;
+    private final String from;
+    private final String target;
+    private final String content;
+    private final long timestamp;
+
+    // Codificaciones perezosas; String es inmutable, así que una carrera solo recalcula el mismo valor
+    private String pendingLine;
+    private String socketLine;
+
+    private MessageEnvelope(Kind kind, String from, String target, String content) {
+        this.kind = kind;
+        this.from = from;
+        this.target = target;
+        this.content = content;
+        this.timestamp = System.currentTimeMillis();
+    }
+
+    public static MessageEnvelope toUser(String from, String to, String content) {
+        return new MessageEnvelope(Kind.PRIVATE, from, to, content);
+    }
+
+    public static MessageEnvelope toGroup(String from, String groupName, String content) {
+        return new MessageEnvelope(Kind.GROUP, from, groupName, content);
+    }
+
+    public Kind getKind() { return kind; }
+    public String getFrom() { return from; }
+    public String getTarget() { return target; }
+    public String getContent() { return content; }
+    public long getTimestamp() { return timestamp; }
+
+    /**
+     * Formato de la cola de polling:
+     * privado "MSG|from|content", grupal "GROUP|groupName|from|content"
+     */
+    public String toPendingLine() {
+        String line = pendingLine;
+        if (line == null) {
+            line = kind == Kind.GROUP
+                    ? "GROUP|" + target + "|" + from + "|" + content
+                    : "MSG|" + from + "|" + content;
+            pendingLine = line;
+        }
+        return line;
+    }
+
+    /**
+     * Formato de texto plano para clientes conectados por socket
+     */
+    public String toSocketLine() {
+        String line = socketLine;
+        if (line == null) {
+            line = kind == Kind.GROUP
+                    ? "MSG " + from + " -> #" + target + ": " + content
+                    : "MSG " + from + ": " + content;
+            socketLine = line;
+        }
+        return line;
+    }
+}
@@ -0,0 +1,193 @@
+package services;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import util.Metrics;
+
+/**
+ * Estado de conexión versionado con entrega de deltas agrupados.
+ * Los cambios (login, logout, reconexión) se acumulan durante una ventana
+ * corta; al cerrarla cada cambio neto recibe un número de versión y solo los
+ * interesados en ese usuario (co-miembros de sus grupos y quienes lo
+ * siguen explícitamente) reciben una línea compacta:
+ *
+ *   PRESENCE <versión> +ana -luis
+ *
+ * Una reconexión dentro de la ventana no produce ningún mensaje.
+ */
+public class PresenceService {
+
+    public static final long DEFAULT_WINDOW_MS = 250;
+
+    /**
+     * Entrega una línea de presencia a la sesión de un usuario
+     */
+    public interface Sink {
+        void deliver(String watcher, String line);
+    }
+
+    public record State(boolean online, long version) {}
+
+    private final MembershipIndex membership;
+    private final FanOutEngine fanOut;
+    private final Sink sink;
+    private final long windowMillis;
+
+    private final Map<String, State> published = new ConcurrentHashMap<>();
+    private final Map<String, Boolean> dirty = new ConcurrentHashMap<>(); // último estado sin publicar
+    private final Map<String, Set<String>> watchers = new ConcurrentHashMap<>(); // usuario -> quienes lo siguen
+    private final AtomicLong version = new AtomicLong();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "presence-flush");
+        t.setDaemon(true);
+        return t;
+    });
+    private final Metrics.Counter coalesced = Metrics.counter("presence.coalesced");
+
+    public PresenceService(MembershipIndex membership, FanOutEngine fanOut, long windowMillis, Sink sink) {
+        this.membership = membership;
+        this.fanOut = fanOut;
+        this.windowMillis = windowMillis;
+        this.sink = sink;
+    }
+
+    /**
+     * Registra un cambio de estado; se publica al cerrar la ventana actual
+     */
+    public void update(String username, boolean online) {
+        if (dirty.put(username, online) != null) {
+            coalesced.increment();
+        }
+        if (flushScheduled.compareAndSet(false, true)) {
+            scheduler.schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * El usuario {@code watcher} recibirá los cambios de {@code target} aunque no compartan grupo
+     */
+    public void watch(String watcher, String target) {
+        watchers.computeIfAbsent(target, k -> ConcurrentHashMap.newKeySet()).add(watcher);
+    }
+
+    public void unwatch(String watcher, String target) {
+        watchers.computeIfPresent(target, (k, set) -> {
+            set.remove(watcher);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    /**
+     * Quita todo lo que {@code watcher} seguía (al desconectarse vuelve a pedirlo);
+     * quienes lo siguen a él se mantienen para enterarse de su regreso
+     */
+    public void unwatchAll(String watcher) {
+        for (String target : watchers.keySet()) {
+            unwatch(watcher, target);
+        }
+    }
+
+    /**
+     * Usuario eliminado: ni sigue a nadie ni nadie lo sigue
+     */
+    public void forget(String username) {
+        watchers.remove(username);
+        unwatchAll(username);
+    }
+
+    /**
+     * Publica los cambios acumulados y envía un delta por interesado
+     */
+    public CompletableFuture<Void> flush() {
+        flushScheduled.set(false);
+        Map<String, Boolean> changes = new LinkedHashMap<>();
+        for (Map.Entry<String, Boolean> e : dirty.entrySet()) {
+            if (dirty.remove(e.getKey(), e.getValue())) {
+                changes.put(e.getKey(), e.getValue());
+            }
+        }
+
+        long flushVersion = 0;
+        List<String> changed = new ArrayList<>();
+        for (Map.Entry<String, Boolean> e : changes.entrySet()) {
+            State prev = published.get(e.getKey());
+            boolean wasOnline = prev != null && prev.online();
+            if (wasOnline == e.getValue()) {
+                coalesced.increment(); // se fue y volvió dentro de la ventana
+                continue;
+            }
+            flushVersion = version.incrementAndGet();
+            published.put(e.getKey(), new State(e.getValue(), flushVersion));
+            changed.add(e.getKey());
+        }
+        if (changed.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        Map<String, StringBuilder> deltas = new HashMap<>();
+        for (String user : changed) {
+            String token = (published.get(user).online() ? " +" : " -") + user;
+            for (String watcher : interestedIn(user)) {
+                if (isOnline(watcher)) {
+                    deltas.computeIfAbsent(watcher, k -> new StringBuilder()).append(token);
+                }
+            }
+        }
+        String prefix = "PRESENCE " + flushVersion;
+        return fanOut.fanOut("presence", new ArrayList<>(deltas.entrySet()),
+                e -> sink.deliver(e.getKey(), prefix + e.getValue()));
+    }
+
+    private Set<String> interestedIn(String user) {
+        Set<String> result = new HashSet<>();
+        for (String group : membership.groupsOf(user)) {
+            result.addAll(membership.memberNames(group));
+        }
+        Set<String> explicit = watchers.get(user);
+        if (explicit != null) {
+            result.addAll(explicit);
+        }
+        result.remove(user);
+        return result;
+    }
+
+    public boolean isOnline(String username) {
+        State state = published.get(username);
+        return state != null && state.online();
+    }
+
+    public long currentVersion() {
+        return version.get();
+    }
+
+    /**
+     * Cambios publicados después de {@code sinceVersion}, para clientes que consultan en lugar de recibir pushes
+     */
+    public Map<String, Boolean> changesSince(long sinceVersion) {
+        Map<String, Boolean> result = new HashMap<>();
+        published.forEach((user, state) -> {
+            if (state.version() > sinceVersion) {
+                result.put(user, state.online());
+            }
+        });
+        return result;
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+}
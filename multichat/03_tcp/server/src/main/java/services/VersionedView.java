@@ -0,0 +1,62 @@
+package services;
+
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Vista de solo lectura cacheada y versionada (directorio de usuarios, grupos...).
+ * La fuente de datos sube su versión en cada cambio; la vista se reconstruye
+ * una sola vez por versión, en la primera lectura, y todas las lecturas
+ * siguientes comparten la misma instantánea inmutable. Un cliente que envía
+ * la versión que ya tiene puede recibir NOT_MODIFIED sin que se construya nada.
+ */
+public final class VersionedView<T> {
+
+    public record Snapshot<T>(long version, T value) {}
+
+    private final LongSupplier version;
+    private final Supplier<T> builder;
+    private volatile Snapshot<T> cached;
+
+    /**
+     * @param version versión actual de la fuente; debe crecer en cada cambio
+     * @param builder construye un valor inmutable a partir del estado actual
+     */
+    public VersionedView(LongSupplier version, Supplier<T> builder) {
+        this.version = version;
+        this.builder = builder;
+    }
+
+    public long version() {
+        return version.getAsLong();
+    }
+
+    /**
+     * Versión inicial de una fuente: parte de la hora de arranque, así una versión
+     * guardada por un cliente antes de reiniciar el servidor nunca parece vigente.
+     * Deja mil cambios por milisegundo de diferencia y no pasa de 2^53, para que
+     * los clientes JSON (que leen los números como double) la devuelvan exacta.
+     */
+    public static long startEpoch() {
+        return System.currentTimeMillis() * 1000;
+    }
+
+    /**
+     * @return true si el cliente ya tiene la versión actual
+     */
+    public boolean isCurrent(long clientVersion) {
+        return clientVersion == version.getAsLong();
+    }
+
+    public Snapshot<T> get() {
+        Snapshot<T> snapshot = cached;
+        // La versión se lee antes de construir: si hay un cambio a mitad, la próxima lectura reconstruye
+        long current = version.getAsLong();
+        if (snapshot != null && snapshot.version() == current) {
+            return snapshot;
+        }
+        snapshot = new Snapshot<>(current, builder.get());
+        cached = snapshot;
+        return snapshot;
+    }
+}
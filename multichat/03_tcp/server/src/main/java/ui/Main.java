@@ -16,8 +16,14 @@ import com.zeroc.Ice.Util;
 
 import chat.ChatServiceImpl;
 import controllers.TCPJSONController;
+import services.CallRegistry;
 import services.ChatServicesImpl;
+import util.NioTCPServer;
+import util.SessionWriter;
 import util.TCPConnection;
+import util.TcpOptions;
+import util.VoiceCodec;
+import util.VoiceSummary;
 
 /**
  * Main application class for the Chat Server.
@@ -74,14 +80,23 @@ public class Main implements TCPConnection.Listener {
             // Validate configuration
             validateConfiguration();
 
+            // Outbound queues for socket sessions
+            SessionWriter.configure(config.outboundMaxBytes, config.outboundOverflow, config.outboundSpillDir);
+            SessionWriter.configureLag(config.lagMaxBytes, config.lagMaxAgeMs, config.lagAction);
+            VoiceCodec.configure(VoiceCodec.IMA_ADPCM.equalsIgnoreCase(config.voiceNoteCodec));
+            VoiceSummary.configure(config.voiceNoteSampleRate);
+
             // Initialize core services
             ChatServicesImpl chatServices = new ChatServicesImpl();
+            chatServices.setSessionTtl(config.sessionTtlMs);
+            chatServices.setMaxVoiceNoteBytes(config.voiceNoteMaxBytes);
+            chatServices.getCallRegistry().setRingTimeout(config.callRingTimeoutMs);
 
             // Start servers in order
             startTCPServer();
             startHTTPProxyServer(chatServices);
             startIceServer(chatServices);
-            startAudioServer();
+            startAudioServer(chatServices);
 
             LOGGER.info("All servers started successfully");
             LOGGER.info("Server ready. Press Ctrl+C to stop.");
@@ -115,6 +130,49 @@ public class Main implements TCPConnection.Listener {
         if (config.iceWssPort <= 0 || config.iceWssPort > 65535) {
             throw new IllegalArgumentException("Invalid ICE WSS port: " + config.iceWssPort);
         }
+        if (config.outboundMaxBytes <= 0) {
+            throw new IllegalArgumentException("Invalid outbound queue size: " + config.outboundMaxBytes);
+        }
+        if (!"blocking".equalsIgnoreCase(config.tcpServerMode) && !"nio".equalsIgnoreCase(config.tcpServerMode)) {
+            throw new IllegalArgumentException("Invalid TCP server mode: " + config.tcpServerMode);
+        }
+        if (config.tcpAcceptors <= 0 || config.httpProxyAcceptors <= 0) {
+            throw new IllegalArgumentException("Invalid acceptor count: tcp " + config.tcpAcceptors
+                    + ", http proxy " + config.httpProxyAcceptors);
+        }
+        if (config.voiceNoteMaxBytes <= 0) {
+            throw new IllegalArgumentException("Invalid voice note size limit: " + config.voiceNoteMaxBytes);
+        }
+        if (!VoiceCodec.IMA_ADPCM.equalsIgnoreCase(config.voiceNoteCodec)
+                && !VoiceCodec.RAW.equalsIgnoreCase(config.voiceNoteCodec)) {
+            throw new IllegalArgumentException("Invalid voice note codec: " + config.voiceNoteCodec);
+        }
+        if (config.voiceNoteSampleRate <= 0) {
+            throw new IllegalArgumentException("Invalid voice note sample rate: " + config.voiceNoteSampleRate);
+        }
+        if (config.iceIoThreads <= 0) {
+            throw new IllegalArgumentException("Invalid ICE I/O threads: " + config.iceIoThreads);
+        }
+        if (config.iceCallbackMaxInFlight <= 0) {
+            throw new IllegalArgumentException("Invalid ICE callback in-flight limit: " + config.iceCallbackMaxInFlight);
+        }
+        if (config.iceCallbackMaxPending <= 0) {
+            throw new IllegalArgumentException("Invalid ICE callback pending limit: " + config.iceCallbackMaxPending);
+        }
+        if (config.callRingTimeoutMs <= 0) {
+            throw new IllegalArgumentException("Invalid call ring timeout: " + config.callRingTimeoutMs);
+        }
+        if (config.tcpHeartbeatMs <= 0 || config.tcpIdleTimeoutMs <= config.tcpHeartbeatMs) {
+            throw new IllegalArgumentException("Invalid TCP heartbeat settings: heartbeat " + config.tcpHeartbeatMs
+                    + " ms, idle timeout " + config.tcpIdleTimeoutMs + " ms");
+        }
+        if (config.sessionTtlMs <= 0) {
+            throw new IllegalArgumentException("Invalid session TTL: " + config.sessionTtlMs);
+        }
+        if (config.lagMaxBytes <= 0 || config.lagMaxAgeMs <= 0) {
+            throw new IllegalArgumentException("Invalid slow consumer limits: " + config.lagMaxBytes
+                    + " bytes, " + config.lagMaxAgeMs + " ms");
+        }
         LOGGER.info("Configuration validation passed");
     }
 
@@ -122,9 +180,26 @@ public class Main implements TCPConnection.Listener {
      * Starts the legacy TCP server
      */
     private void startTCPServer() {
+        TcpOptions options = new TcpOptions(config.tcpNoDelay, config.tcpSendBufferBytes, config.tcpReceiveBufferBytes);
+        if ("nio".equalsIgnoreCase(config.tcpServerMode)) {
+            LOGGER.info(String.format("Starting NIO TCP server on port %d", config.tcpPort));
+            NioTCPServer nio = new NioTCPServer(config.tcpPort, config.tcpNioSelectors, config.tcpAcceptors, options,
+                    config.outboundMaxBytes, config.voiceNoteMaxBytes, this::onLog);
+            nio.configureHeartbeat(config.tcpHeartbeatMs, config.tcpIdleTimeoutMs);
+            try {
+                nio.start();
+                LOGGER.info("TCP server started successfully");
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "TCP server failed", e);
+            }
+            return;
+        }
+
         LOGGER.info(String.format("Starting TCP server on port %d", config.tcpPort));
         TCPConnection srv = TCPConnection.getInstance();
-        srv.initAsServer(config.tcpPort);
+        srv.initAsServer(config.tcpPort, config.tcpAcceptors, options);
+        srv.configureHeartbeat(config.tcpHeartbeatMs, config.tcpIdleTimeoutMs);
+        srv.configureVoiceNotes(config.voiceNoteMaxBytes);
         srv.setListener(this);
 
         executorService.submit(() -> {
@@ -142,7 +217,8 @@ public class Main implements TCPConnection.Listener {
      */
     private void startHTTPProxyServer(ChatServicesImpl chatServices) {
         LOGGER.info(String.format("Starting HTTP proxy server on port %d", config.httpProxyPort));
-        TCPJSONController tcpJsonController = new TCPJSONController(chatServices, config.httpProxyPort);
+        TCPJSONController tcpJsonController = new TCPJSONController(chatServices, config.httpProxyPort,
+                config.httpProxyAcceptors);
 
         executorService.submit(() -> {
             try {
@@ -172,7 +248,9 @@ public class Main implements TCPConnection.Listener {
             Communicator wsCommunicator = Util.initialize(initData);
             ObjectAdapter wsAdapter = wsCommunicator.createObjectAdapterWithEndpoints(
                 "ChatAdapterWS", String.format("ws -p %d -h 0.0.0.0", config.iceWsPort));
-            ChatServiceImpl chatServiceWS = new ChatServiceImpl(chatServices);
+            ChatServiceImpl chatServiceWS = new ChatServiceImpl(chatServices, config.iceIoThreads);
+            chatServiceWS.setCallbackMaxInFlight(config.iceCallbackMaxInFlight);
+            chatServiceWS.setCallbackMaxPending(config.iceCallbackMaxPending);
             wsAdapter.add(chatServiceWS, Util.stringToIdentity("ChatService"));
             wsAdapter.activate();
 
@@ -187,11 +265,11 @@ public class Main implements TCPConnection.Listener {
     /**
      * Starts the Audio WebSocket server
      */
-    private void startAudioServer() {
+    private void startAudioServer(ChatServicesImpl chatServices) {
         LOGGER.info(String.format("Starting Audio WebSocket server on port %d", config.audioWsPort));
         executorService.submit(() -> {
             try {
-                chat.AudioServer audioServer = new chat.AudioServer(config.audioWsPort);
+                chat.AudioServer audioServer = new chat.AudioServer(config.audioWsPort, chatServices.getCallRegistry());
                 audioServer.start();
                 chat.AudioServer.INSTANCE = audioServer;
                 LOGGER.info("Audio server started successfully");
@@ -277,6 +355,29 @@ public class Main implements TCPConnection.Listener {
         final int audioWsPort;
         final int iceWsPort;
         final int iceWssPort;
+        final int outboundMaxBytes;
+        final String outboundOverflow;
+        final String outboundSpillDir;
+        final long lagMaxBytes;
+        final long lagMaxAgeMs;
+        final String lagAction;
+        final long sessionTtlMs;
+        final String tcpServerMode;
+        final int tcpNioSelectors;
+        final int tcpAcceptors;
+        final int httpProxyAcceptors;
+        final boolean tcpNoDelay;
+        final int tcpSendBufferBytes;
+        final int tcpReceiveBufferBytes;
+        final int voiceNoteMaxBytes;
+        final String voiceNoteCodec;
+        final int voiceNoteSampleRate;
+        final int iceIoThreads;
+        final int iceCallbackMaxInFlight;
+        final int iceCallbackMaxPending;
+        final long callRingTimeoutMs;
+        final long tcpHeartbeatMs;
+        final long tcpIdleTimeoutMs;
 
         ServerConfig(Properties props) {
             this.tcpPort = Integer.parseInt(props.getProperty("tcp.port", "6000"));
@@ -284,6 +385,32 @@ public class Main implements TCPConnection.Listener {
             this.audioWsPort = Integer.parseInt(props.getProperty("audio.ws.port", "8888"));
             this.iceWsPort = Integer.parseInt(props.getProperty("ice.ws.port", "10000"));
             this.iceWssPort = Integer.parseInt(props.getProperty("ice.wss.port", "8443"));
+            this.outboundMaxBytes = Integer.parseInt(props.getProperty("session.outbound.max.bytes", "1048576"));
+            this.outboundOverflow = props.getProperty("session.outbound.overflow", "DISCONNECT");
+            this.outboundSpillDir = props.getProperty("session.outbound.spill.dir", "data/spill");
+            this.lagMaxBytes = Long.parseLong(props.getProperty("session.lag.max.bytes", "262144"));
+            this.lagMaxAgeMs = Long.parseLong(props.getProperty("session.lag.max.age.ms", "10000"));
+            this.lagAction = props.getProperty("session.lag.action", "PULL");
+            this.sessionTtlMs = Long.parseLong(props.getProperty("session.lease.ttl.ms", "120000"));
+            this.tcpServerMode = props.getProperty("tcp.server.mode", "blocking").trim();
+            this.tcpNioSelectors = Integer.parseInt(props.getProperty("tcp.nio.selectors", "0"));
+            this.tcpAcceptors = Integer.parseInt(props.getProperty("tcp.acceptors", "1"));
+            this.httpProxyAcceptors = Integer.parseInt(props.getProperty("http.proxy.acceptors", "1"));
+            this.tcpNoDelay = Boolean.parseBoolean(props.getProperty("tcp.nodelay", "true"));
+            this.tcpSendBufferBytes = Integer.parseInt(props.getProperty("tcp.send.buffer.bytes", "0"));
+            this.tcpReceiveBufferBytes = Integer.parseInt(props.getProperty("tcp.receive.buffer.bytes", "0"));
+            this.voiceNoteMaxBytes = Integer.parseInt(props.getProperty("voice.note.max.bytes", "16777216"));
+            this.voiceNoteCodec = props.getProperty("voice.note.codec", VoiceCodec.IMA_ADPCM).trim();
+            this.voiceNoteSampleRate = Integer.parseInt(props.getProperty("voice.note.sample.rate", "16000"));
+            this.iceIoThreads = Integer.parseInt(props.getProperty("ice.io.threads", String.valueOf(ChatServiceImpl.DEFAULT_IO_THREADS)));
+            this.iceCallbackMaxInFlight = Integer.parseInt(props.getProperty("ice.callback.max.inflight",
+                    String.valueOf(ChatServiceImpl.DEFAULT_CALLBACK_MAX_IN_FLIGHT)));
+            this.iceCallbackMaxPending = Integer.parseInt(props.getProperty("ice.callback.max.pending",
+                    String.valueOf(ChatServiceImpl.DEFAULT_CALLBACK_MAX_PENDING)));
+            this.callRingTimeoutMs = Long.parseLong(props.getProperty("call.ring.timeout.ms",
+                    String.valueOf(CallRegistry.DEFAULT_RING_TIMEOUT_MS)));
+            this.tcpHeartbeatMs = Long.parseLong(props.getProperty("tcp.heartbeat.interval.ms", "30000"));
+            this.tcpIdleTimeoutMs = Long.parseLong(props.getProperty("tcp.idle.timeout.ms", "90000"));
         }
     }
 }
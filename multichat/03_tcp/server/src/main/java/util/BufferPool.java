@@ -0,0 +1,54 @@
+package util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool de buffers de tamaño fijo para los lectores de socket. Un lector
+ * bloqueante toma un buffer al abrirse y lo devuelve al cerrarse; una conexión
+ * NIO solo lo tiene mientras hay entrada por procesar. Así las conexiones
+ * reutilizan la memoria de las que ya terminaron o están inactivas.
+ */
+public final class BufferPool {
+
+    public static final BufferPool SHARED = new BufferPool(16 * 1024, 4096);
+
+    private final int bufferSize;
+    private final int maxRetained;
+    private final Queue<byte[]> free = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger retained = new AtomicInteger();
+
+    public BufferPool(int bufferSize, int maxRetained) {
+        this.bufferSize = bufferSize;
+        this.maxRetained = maxRetained;
+    }
+
+    public byte[] acquire() {
+        byte[] buf = free.poll();
+        if (buf == null) {
+            return new byte[bufferSize];
+        }
+        retained.decrementAndGet();
+        return buf;
+    }
+
+    public void release(byte[] buf) {
+        if (buf == null || buf.length != bufferSize) {
+            return;
+        }
+        if (retained.incrementAndGet() <= maxRetained) {
+            free.add(buf);
+        } else {
+            retained.decrementAndGet(); // el pool está lleno: se deja al GC
+        }
+    }
+
+    public int bufferSize() {
+        return bufferSize;
+    }
+
+    public int retained() {
+        return retained.get();
+    }
+}
@@ -0,0 +1,142 @@
+package util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decodificador del protocolo TCP heredado: líneas de comando terminadas en
+ * '\n' seguidas, a veces, de un cuerpo binario de tamaño conocido (notas de
+ * voz). Todo se lee sobre un único buffer tomado del {@link BufferPool}: una
+ * llamada a read() del socket trae muchos comandos de una vez en lugar de un
+ * byte por llamada, y los cuerpos se copian desde ese mismo buffer.
+ */
+public final class FrameDecoder implements AutoCloseable {
+
+    private static final int MAX_LINE = 64 * 1024;
+
+    private final InputStream in;
+    private final BufferPool pool;
+    private byte[] buf;
+    private int start; // primer byte sin consumir
+    private int end;   // fin de los datos válidos
+
+    public FrameDecoder(InputStream in) {
+        this(in, BufferPool.SHARED);
+    }
+
+    public FrameDecoder(InputStream in, BufferPool pool) {
+        this.in = in;
+        this.pool = pool;
+        this.buf = pool.acquire();
+    }
+
+    /**
+     * @return la siguiente línea sin '\r' ni '\n', o null al llegar al fin del flujo
+     */
+    public String readLine() throws IOException {
+        int scanFrom = start;
+        while (true) {
+            for (int i = scanFrom; i < end; i++) {
+                if (buf[i] == '\n') {
+                    int lineEnd = (i > start && buf[i - 1] == '\r') ? i - 1 : i;
+                    String line = new String(buf, start, lineEnd - start, StandardCharsets.UTF_8);
+                    start = i + 1;
+                    return line;
+                }
+            }
+            scanFrom = end - start; // posición relativa: fill() puede compactar el buffer
+            if (end - start >= MAX_LINE) {
+                throw new IOException("line too long");
+            }
+            if (!fill()) {
+                if (start == end) {
+                    return null;
+                }
+                // Última línea sin '\n'
+                String line = new String(buf, start, end - start, StandardCharsets.UTF_8);
+                start = end;
+                return line;
+            }
+            scanFrom += start;
+        }
+    }
+
+    /**
+     * Lee exactamente {@code size} bytes en un arreglo nuevo. Los bytes ya
+     * almacenados salen del buffer; el resto se lee directo al destino.
+     */
+    public byte[] readBody(int size) throws IOException {
+        byte[] body = new byte[size];
+        int off = drainTo(body, 0, size);
+        while (off < size) {
+            int r = in.read(body, off, size - off);
+            if (r < 0) {
+                throw new EOFException("fin de flujo al leer nota de voz");
+            }
+            off += r;
+        }
+        return body;
+    }
+
+    /**
+     * Copia exactamente {@code size} bytes al destino a través del buffer, sin crear arreglos
+     */
+    public void transferBody(int size, OutputStream sink) throws IOException {
+        int remaining = size;
+        while (remaining > 0) {
+            if (start == end && !fill()) {
+                throw new EOFException("fin de flujo al leer nota de voz");
+            }
+            int n = Math.min(remaining, end - start);
+            sink.write(buf, start, n);
+            start += n;
+            remaining -= n;
+        }
+    }
+
+    private int drainTo(byte[] dst, int off, int len) {
+        int n = Math.min(len, end - start);
+        System.arraycopy(buf, start, dst, off, n);
+        start += n;
+        return off + n;
+    }
+
+    // Compacta si hace falta y hace una sola lectura del socket
+    private boolean fill() throws IOException {
+        if (start == end) {
+            start = end = 0;
+        } else if (end == buf.length) {
+            if (start > 0) {
+                System.arraycopy(buf, start, buf, 0, end - start);
+                end -= start;
+                start = 0;
+            } else {
+                // Una línea más larga que el buffer del pool: se agranda solo para esta conexión
+                byte[] bigger = new byte[Math.min(buf.length * 2, MAX_LINE + 1)];
+                System.arraycopy(buf, 0, bigger, 0, end);
+                pool.release(buf);
+                buf = bigger;
+            }
+        }
+        int r = in.read(buf, end, buf.length - end);
+        if (r < 0) {
+            return false;
+        }
+        end += r;
+        return true;
+    }
+
+    /**
+     * Devuelve el buffer al pool; no cierra el flujo
+     */
+    @Override
+    public void close() {
+        if (buf != null) {
+            pool.release(buf);
+            buf = null;
+        }
+    }
+}
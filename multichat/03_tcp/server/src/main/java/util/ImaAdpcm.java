@@ -0,0 +1,121 @@
+package util;
+
+/**
+ * Códec IMA-ADPCM para PCM de 16 bits con signo, little-endian y mono. Cada
+ * muestra se codifica como la diferencia con la anterior en 4 bits con un
+ * paso adaptativo, así que guarda 4 veces menos que el PCM con una calidad
+ * suficiente para voz. Es un flujo continuo (sin bloques): dos muestras por
+ * byte, primero el nibble bajo.
+ */
+public final class ImaAdpcm {
+
+    private static final int[] INDEX_TABLE = {
+        -1, -1, -1, -1, 2, 4, 6, 8,
+        -1, -1, -1, -1, 2, 4, 6, 8
+    };
+
+    private static final int[] STEP_TABLE = {
+        7, 8, 9, 10, 11, 12, 13, 14, 16, 17,
+        19, 21, 23, 25, 28, 31, 34, 37, 41, 45,
+        50, 55, 60, 66, 73, 80, 88, 97, 107, 118,
+        130, 143, 157, 173, 190, 209, 230, 253, 279, 307,
+        337, 371, 408, 449, 494, 544, 598, 658, 724, 796,
+        876, 963, 1060, 1166, 1282, 1411, 1552, 1707, 1878, 2066,
+        2272, 2499, 2749, 3024, 3327, 3660, 4026, 4428, 4871, 5358,
+        5894, 6484, 7132, 7845, 8630, 9493, 10442, 11487, 12635, 13899,
+        15289, 16818, 18500, 20350, 22385, 24623, 27086, 29794, 32767
+    };
+
+    private ImaAdpcm() {}
+
+    /**
+     * Predictor e índice de paso; codificador y decodificador empiezan en cero y
+     * avanzan igual, por eso el flujo no necesita cabeceras por bloque
+     */
+    public static final class State {
+        int predictor;
+        int index;
+    }
+
+    /**
+     * Codifica {@code len} bytes de PCM (múltiplo de 4: dos muestras por byte de salida)
+     * @return bytes escritos en {@code out}, len / 4
+     */
+    public static int encode(State s, byte[] pcm, int off, int len, byte[] out, int outOff) {
+        int o = outOff;
+        for (int i = off, end = off + len; i < end; i += 4) {
+            int lo = encodeSample(s, (short) ((pcm[i] & 0xFF) | (pcm[i + 1] << 8)));
+            int hi = encodeSample(s, (short) ((pcm[i + 2] & 0xFF) | (pcm[i + 3] << 8)));
+            out[o++] = (byte) (lo | (hi << 4));
+        }
+        return o - outOff;
+    }
+
+    /**
+     * Decodifica {@code len} bytes de ADPCM
+     * @return bytes de PCM escritos en {@code pcm}, len * 4
+     */
+    public static int decode(State s, byte[] adpcm, int off, int len, byte[] pcm, int pcmOff) {
+        int o = pcmOff;
+        for (int i = off, end = off + len; i < end; i++) {
+            int lo = decodeNibble(s, adpcm[i] & 0x0F);
+            pcm[o++] = (byte) lo;
+            pcm[o++] = (byte) (lo >> 8);
+            int hi = decodeNibble(s, (adpcm[i] >> 4) & 0x0F);
+            pcm[o++] = (byte) hi;
+            pcm[o++] = (byte) (hi >> 8);
+        }
+        return o - pcmOff;
+    }
+
+    public static int encodeSample(State s, int sample) {
+        int step = STEP_TABLE[s.index];
+        int diff = sample - s.predictor;
+        int nibble = 0;
+        if (diff < 0) {
+            nibble = 8;
+            diff = -diff;
+        }
+        int delta = step >> 3;
+        if (diff >= step) {
+            nibble |= 4;
+            diff -= step;
+            delta += step;
+        }
+        step >>= 1;
+        if (diff >= step) {
+            nibble |= 2;
+            diff -= step;
+            delta += step;
+        }
+        step >>= 1;
+        if (diff >= step) {
+            nibble |= 1;
+            delta += step;
+        }
+        advance(s, nibble, delta);
+        return nibble;
+    }
+
+    public static int decodeNibble(State s, int nibble) {
+        int step = STEP_TABLE[s.index];
+        int delta = step >> 3;
+        if ((nibble & 4) != 0) {
+            delta += step;
+        }
+        if ((nibble & 2) != 0) {
+            delta += step >> 1;
+        }
+        if ((nibble & 1) != 0) {
+            delta += step >> 2;
+        }
+        advance(s, nibble, delta);
+        return s.predictor;
+    }
+
+    private static void advance(State s, int nibble, int delta) {
+        int predictor = (nibble & 8) != 0 ? s.predictor - delta : s.predictor + delta;
+        s.predictor = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, predictor));
+        s.index = Math.max(0, Math.min(STEP_TABLE.length - 1, s.index + INDEX_TABLE[nibble]));
+    }
+}
@@ -0,0 +1,478 @@
+package util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Comandos del protocolo TCP heredado (LOGIN, MSG_*, VOICE_NOTE_*, MEDIA_GET,
+ * CALL_*, HISTORY, PING) y el estado compartido de usuarios y grupos. No hace E/S de
+ * red: el transporte (hilo por conexión en {@link TCPConnection} o selectores
+ * en {@link NioTCPServer}) entrega líneas y cuerpos binarios y provee la
+ * salida de cada conexión.
+ */
+public class LegacyProtocol {
+
+    private final Map<String, Session> users = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> groups = new ConcurrentHashMap<>();
+    private final File dataDir = new File("data");
+    private final File historyDir = new File(dataDir, "history");
+    private final MediaStore media = MediaStore.shared();
+    private final Consumer<String> log;
+
+    // Heartbeats: tras heartbeatMillis sin leer nada se envía PING; tras idleTimeoutMillis se cierra la conexión
+    private volatile long heartbeatMillis = 30_000;
+    private volatile long idleTimeoutMillis = 90_000;
+    // Un solo hilo revisa todas las conexiones: un plazo por conexión, O(1) por revisión
+    private final TimingWheel idleWheel = new TimingWheel("tcp-idle", 1000, 512);
+    private final AtomicInteger connections = new AtomicInteger();
+    private final Metrics.Counter reaped = Metrics.counter("tcp.reaped");
+
+    // Notas de voz: se reenvían por partes mientras se suben, con un tamaño máximo
+    private volatile int maxVoiceNoteBytes = 16 * 1024 * 1024;
+    private final Metrics.Counter voiceUploads = Metrics.counter("voice.uploads");
+    private final Metrics.Counter voiceRejected = Metrics.counter("voice.rejected");
+    private final Metrics.Counter voiceAborted = Metrics.counter("voice.aborted");
+    private final Metrics.Counter voiceStreams = Metrics.counter("voice.relay.streams");
+
+    public LegacyProtocol(Consumer<String> log) {
+        this.log = log;
+        historyDir.mkdirs();
+        Metrics.gauge("tcp.connections", connections::get);
+        Metrics.gauge("tcp.sessions", users::size);
+    }
+
+    public void configureHeartbeat(long heartbeatMillis, long idleTimeoutMillis) {
+        this.heartbeatMillis = heartbeatMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    public void configureVoiceNotes(int maxBytes) {
+        this.maxVoiceNoteBytes = maxBytes;
+    }
+
+    static final class Session {
+        final String user;
+        final Connection conn;
+        volatile int udpPort; // para llamadas
+
+        Session(String user, Connection conn) {
+            this.user = user;
+            this.conn = conn;
+        }
+    }
+
+    /**
+     * Estado de una conexión. Los comandos de una misma conexión llegan siempre
+     * de un solo hilo a la vez (su lector o su selector).
+     */
+    public final class Connection {
+        final Outbound out;
+        final InetAddress address;
+        final String remote;
+        private final Runnable closer;
+        private volatile long lastReadNanos = System.nanoTime();
+        private volatile boolean closed;
+        private String user;
+        private Session session;
+        private VoiceUpload upload; // nota de voz cuyo cuerpo está llegando
+
+        private Connection(Outbound out, InetAddress address, String remote, Runnable closer) {
+            this.out = out;
+            this.address = address;
+            this.remote = remote;
+            this.closer = closer;
+        }
+
+        /**
+         * Registra actividad de lectura (cualquier byte recibido)
+         */
+        public void touch() {
+            lastReadNanos = System.nanoTime();
+        }
+
+        public boolean isClosed() {
+            return closed;
+        }
+
+        void close() {
+            closed = true;
+            closer.run();
+        }
+    }
+
+    // ---- Ciclo de vida de la conexión ----
+
+    /**
+     * @param closer cierra el socket; el transporte llama luego a {@link #onClose}
+     */
+    public Connection open(Outbound out, InetAddress address, String remote, Runnable closer) {
+        Connection conn = new Connection(out, address, remote, closer);
+        connections.incrementAndGet();
+        scheduleIdleCheck(conn, heartbeatMillis);
+        out.println("HELLO use: LOGIN <user>");
+        return conn;
+    }
+
+    public void onClose(Connection conn) {
+        conn.closed = true;
+        if (conn.upload != null) {
+            abortVoice(conn.upload);
+            conn.upload = null;
+        }
+        // La sesión es conocida: se quita en O(1) sin recorrer users
+        if (conn.session != null && users.remove(conn.user, conn.session)) {
+            broadcast("SYS " + conn.user + " left");
+        }
+        conn.out.close();
+        connections.decrementAndGet();
+    }
+
+    private void scheduleIdleCheck(Connection conn, long delayMillis) {
+        idleWheel.schedule(() -> checkIdle(conn), Math.max(1, delayMillis));
+    }
+
+    // Corre en el hilo de la rueda: solo encola un PING o cierra el socket, nunca bloquea
+    private void checkIdle(Connection conn) {
+        if (conn.closed) {
+            return;
+        }
+        long idle = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - conn.lastReadNanos);
+        if (idle >= idleTimeoutMillis) {
+            reaped.increment();
+            log.accept("[SERVER] Cerrando conexión inactiva " + conn.remote + " (" + idle + " ms sin datos)");
+            conn.close(); // el transporte detecta el cierre y llama a onClose
+            return;
+        }
+        if (idle >= heartbeatMillis) {
+            conn.out.println("PING");
+            scheduleIdleCheck(conn, Math.min(heartbeatMillis, idleTimeoutMillis - idle));
+        } else {
+            scheduleIdleCheck(conn, heartbeatMillis - idle);
+        }
+    }
+
+    // ---- Comandos ----
+
+    /**
+     * Procesa una línea de comando.
+     * @return tamaño del cuerpo binario que el transporte debe leer a continuación
+     *         y entregar por partes con {@link #onBody}, o -1 si no sigue ningún cuerpo
+     */
+    public int onLine(Connection conn, String line) {
+        if (line.isBlank()) {
+            return -1;
+        }
+        String[] parts = line.split(" ", 2);
+        String cmd = parts[0].toUpperCase(Locale.ROOT);
+        String args = parts.length > 1 ? parts[1] : "";
+        Outbound out = conn.out;
+        String user = conn.user;
+
+        try {
+            switch (cmd) {
+                case "PING" -> out.println("PONG");
+                case "PONG" -> { } // respuesta a nuestro PING; ya se registró la actividad
+                case "LOGIN" -> {
+                    if (user != null) { out.println("ERR already logged"); break; }
+                    if (args.isBlank()) { out.println("ERR username required"); break; }
+                    String u = args.trim();
+                    Session session = new Session(u, conn);
+                    if (users.putIfAbsent(u, session) != null) { out.println("ERR in use"); break; }
+                    conn.user = u;
+                    conn.session = session;
+                    broadcast("SYS " + u + " joined");
+                    out.println("OK LOGIN");
+                }
+                case "CREATE_GROUP" -> {
+                    if (!ensureLogged(user, out)) break;
+                    String g = args.trim();
+                    if (g.isEmpty()) { out.println("ERR group required"); break; }
+                    groups.putIfAbsent(g, ConcurrentHashMap.newKeySet());
+                    out.println("OK GROUP " + g);
+                }
+                case "ADD_TO_GROUP" -> {
+                    if (!ensureLogged(user, out)) break;
+                    String[] a = args.split(" ");
+                    if (a.length < 2) { out.println("ERR usage: ADD_TO_GROUP <group> <user>"); break; }
+                    groups.computeIfAbsent(a[0], k -> ConcurrentHashMap.newKeySet()).add(a[1]);
+                    out.println("OK ADDED " + a[1] + " TO #" + a[0]);
+                }
+                case "MSG_USER" -> {
+                    if (!ensureLogged(user, out)) break;
+                    int sp = args.indexOf(' ');
+                    if (sp <= 0) { out.println("ERR usage: MSG_USER <user> <text>"); break; }
+                    sendText(user, args.substring(0, sp), false, args.substring(sp + 1));
+                    out.println("OK");
+                }
+                case "MSG_GROUP" -> {
+                    if (!ensureLogged(user, out)) break;
+                    int sp = args.indexOf(' ');
+                    if (sp <= 0) { out.println("ERR usage: MSG_GROUP <group> <text>"); break; }
+                    sendText(user, args.substring(0, sp), true, args.substring(sp + 1));
+                    out.println("OK");
+                }
+                case "VOICE_NOTE_USER", "VOICE_NOTE_GROUP" -> {
+                    if (!ensureLogged(user, out)) break;
+                    int sp = args.indexOf(' ');
+                    if (sp <= 0) { out.println("ERR usage: " + cmd + " <" + (cmd.endsWith("USER") ? "user" : "group") + "> <size>"); break; }
+                    int size = Integer.parseInt(args.substring(sp + 1).trim());
+                    if (size < 0) { out.println("ERR invalid size"); break; }
+                    if (size > maxVoiceNoteBytes) {
+                        // El cuerpo ya viene en camino y no hay forma de saltarlo sin leerlo: se corta la conexión
+                        voiceRejected.increment();
+                        out.println("ERR voice note too large (max " + maxVoiceNoteBytes + " bytes)");
+                        conn.close();
+                        break;
+                    }
+                    VoiceUpload upload;
+                    try {
+                        upload = startVoice(user, args.substring(0, sp).trim(), "VOICE_NOTE_GROUP".equals(cmd), size);
+                    } catch (IOException e) {
+                        out.println("ERR " + e.getMessage());
+                        conn.close();
+                        break;
+                    }
+                    if (size == 0) { finishVoice(conn, upload); break; }
+                    conn.upload = upload;
+                    return size;
+                }
+                case "SET_UDP" -> {
+                    if (!ensureLogged(user, out)) break;
+                    conn.session.udpPort = Integer.parseInt(args.trim());
+                    out.println("OK UDP " + conn.session.udpPort);
+                }
+                case "CALL_USER" -> {
+                    if (!ensureLogged(user, out)) break;
+                    callUser(user, args.trim(), out);
+                }
+                case "CALL_GROUP" -> {
+                    if (!ensureLogged(user, out)) break;
+                    callGroup(user, args.trim(), out);
+                }
+                case "HISTORY" -> {
+                    if (!ensureLogged(user, out)) break;
+                    sendHistory(user, out);
+                }
+                case "MEDIA_GET", "MEDIA_GET_PCM" -> {
+                    // MEDIA_GET <id> [offset] [length] -> MEDIA <id> <offset> <length> <total> <codec> + bytes en disco
+                    // MEDIA_GET_PCM, igual pero con el PCM decodificado (codec pcm)
+                    if (!ensureLogged(user, out)) break;
+                    String[] a = args.trim().split("\\s+");
+                    if (a[0].isEmpty()) { out.println("ERR usage: " + cmd + " <id> [offset] [length]"); break; }
+                    long offset = a.length > 1 ? Long.parseLong(a[1]) : 0;
+                    long length = a.length > 2 ? Long.parseLong(a[2]) : -1;
+                    try {
+                        if (cmd.equals("MEDIA_GET_PCM")) {
+                            MediaFiles.Pcm pcm = MediaFiles.readPcm(media, a[0], offset, length);
+                            out.sendWithBody("MEDIA " + pcm.id() + " " + pcm.offset() + " " + pcm.data().length + " "
+                                    + pcm.total() + " pcm", pcm.data());
+                        } else {
+                            MediaFiles.Range range = MediaFiles.resolve(media, a[0], offset, length);
+                            out.sendFile("MEDIA " + range.id() + " " + range.offset() + " " + range.length() + " "
+                                    + range.total() + " " + MediaFiles.codec(range), range);
+                        }
+                    } catch (IOException e) {
+                        out.println("ERR " + e.getMessage());
+                    }
+                }
+                default -> out.println("ERR unknown");
+            }
+        } catch (Exception ex) {
+            out.println("ERR " + ex.getMessage());
+            ex.printStackTrace();
+        }
+        return -1;
+    }
+
+    /**
+     * Entrega la siguiente parte del cuerpo pedido por el último {@link #onLine}: se
+     * escribe al archivo (en ADPCM, ver {@link VoiceCodec}) y se reenvía a los destinatarios conectados en el acto, así
+     * que la memoria por subida no depende del tamaño de la nota.
+     * @param buf buffer del transporte; se puede reutilizar al volver
+     */
+    public void onBody(Connection conn, byte[] buf, int off, int len) throws IOException {
+        VoiceUpload upload = conn.upload;
+        conn.touch(); // una subida larga no es inactividad
+        upload.disk.write(buf, off, len);
+        upload.summary.update(buf, off, len);
+        if (!upload.streams.isEmpty()) {
+            byte[] part = Arrays.copyOfRange(buf, off, off + len); // una copia compartida por todos los destinatarios
+            upload.streams.removeIf(stream -> {
+                if (stream.write(part)) {
+                    return false;
+                }
+                stream.finish(); // salida cerrada: se libera lo que esperaba detrás
+                return true;
+            });
+        }
+        upload.remaining -= len;
+        if (upload.remaining == 0) {
+            conn.upload = null;
+            finishVoice(conn, upload);
+        }
+    }
+
+    /**
+     * Nota de voz en curso: blob en el almacén y cuerpos abiertos en los destinatarios conectados
+     */
+    private static final class VoiceUpload {
+        final String from;
+        final String target;
+        final boolean isGroup;
+        final MediaStore.Upload blob;
+        final VoiceCodec.Encoder disk; // delante de blob: comprime a medida que llega
+        final VoiceSummary.Builder summary;
+        final List<Outbound.BodyStream> streams = new ArrayList<>();
+        long remaining;
+
+        VoiceUpload(String from, String target, boolean isGroup, MediaStore.Upload blob, int size) {
+            this.from = from;
+            this.target = target;
+            this.isGroup = isGroup;
+            this.blob = blob;
+            this.disk = VoiceCodec.encoder(blob, size, true); // VOICE_NOTE lo manda el cliente nativo: PCM de 16 bits
+            this.summary = new VoiceSummary.Builder(size);
+            this.remaining = size;
+        }
+    }
+
+    private VoiceUpload startVoice(String from, String target, boolean isGroup, int size) throws IOException {
+        List<Session> online = new ArrayList<>();
+        if (isGroup) {
+            for (String u : groups.getOrDefault(target, Set.of())) {
+                if (u.equals(from)) continue;
+                Session s = users.get(u);
+                if (s != null) online.add(s);
+            }
+        } else {
+            Session s = users.get(target);
+            if (s != null) online.add(s);
+        }
+
+        VoiceUpload upload = new VoiceUpload(from, target, isGroup, media.begin(), size);
+        voiceUploads.increment();
+        for (Session s : online) {
+            // El encabezado sale ya: el destinatario empieza a recibir antes de que termine la subida
+            Outbound.BodyStream stream = s.conn.out.openStream("VOICE_NOTE_FROM " + from + " " + size, size);
+            if (stream != null) {
+                upload.streams.add(stream);
+                voiceStreams.increment();
+            }
+        }
+        return upload;
+    }
+
+    private void finishVoice(Connection conn, VoiceUpload upload) throws IOException {
+        upload.streams.forEach(Outbound.BodyStream::finish);
+        upload.disk.finish();
+        String id = upload.blob.commit(HISTORY_COPIES);
+        // Duración y forma de onda en el registro: el historial las muestra sin bajar el audio
+        String summary = upload.disk.isPcm() ? upload.summary.finish().recordFields() : "";
+        String rec = "{type:voice_note,from:" + upload.from + ",target:" + upload.target + ",isGroup:" + upload.isGroup
+                + ",file:" + media.recordPath(id) + summary + ",ts:" + Instant.now() + "}";
+        persistVoiceNote(upload.from, upload.target, upload.isGroup, rec, id);
+        conn.out.println("OK VOICE_NOTE");
+    }
+
+    // La conexión se cortó a mitad de la subida: se descarta el blob y los destinatarios
+    // reciben VOICE_NOTE_ABORT tras el cuerpo incompleto para descartarlo
+    private void abortVoice(VoiceUpload upload) {
+        voiceAborted.increment();
+        upload.blob.abort();
+        upload.streams.forEach(s -> s.abort("VOICE_NOTE_ABORT " + upload.from));
+    }
+
+    private boolean ensureLogged(String u, Outbound out) {
+        if (u == null) { out.println("ERR login required"); return false; }
+        return true;
+    }
+
+    private void broadcast(String l) {
+        users.values().forEach(s -> s.conn.out.println(l));
+    }
+
+    private void sendText(String from, String target, boolean isGroup, String msg) throws IOException {
+        String rec = "{type:text,from:" + from + ",target:" + target + ",isGroup:" + isGroup + ",msg:" + msg + ",ts:" + Instant.now() + "}";
+        persist(from, target, isGroup, rec);
+        if (isGroup) {
+            for (String u : groups.getOrDefault(target, Set.of())) {
+                var s = users.get(u);
+                if (s != null) s.conn.out.println("MSG " + from + " -> #" + target + ": " + msg);
+            }
+        } else {
+            var s = users.get(target);
+            if (s != null) s.conn.out.println("MSG " + from + ": " + msg);
+        }
+    }
+
+    private void sendHistory(String user, Outbound out) throws IOException, InterruptedException {
+        File f = new File(historyDir, user + ".jsonl");
+        out.printlnAwait("HISTORY_BEGIN");
+        if (f.exists()) {
+            try (BufferedReader r = new BufferedReader(new FileReader(f))) {
+                String l;
+                while ((l = r.readLine()) != null) out.printlnAwait(l);
+            }
+        }
+        out.printlnAwait("HISTORY_END");
+    }
+
+    // persist escribe cada registro en dos historiales: el del remitente y el del destino
+    private static final int HISTORY_COPIES = 2;
+
+    private void persist(String from, String target, boolean isGroup, String line) throws IOException {
+        for (File f : historyFiles(from, target, isGroup)) {
+            try (FileWriter fw = new FileWriter(f, true)) { fw.write(line + "\n"); }
+        }
+    }
+
+    // persist de un registro que apunta al blob id: las copias que no llegan a escribirse sueltan su referencia
+    private void persistVoiceNote(String from, String target, boolean isGroup, String line, String id) throws IOException {
+        int written = 0;
+        try {
+            for (File f : historyFiles(from, target, isGroup)) {
+                try (FileWriter fw = new FileWriter(f, true)) { fw.write(line + "\n"); }
+                written++;
+            }
+        } catch (IOException e) {
+            try { media.release(id, HISTORY_COPIES - written); } catch (IOException re) { e.addSuppressed(re); }
+            throw e;
+        }
+    }
+
+    private File[] historyFiles(String from, String target, boolean isGroup) {
+        return new File[] { new File(historyDir, from + ".jsonl"), new File(historyDir, (isGroup ? "#" : "") + target + ".jsonl") };
+    }
+
+    private void callUser(String caller, String target, Outbound out) {
+        var t = users.get(target);
+        var c = users.get(caller);
+        if (t == null || t.udpPort == 0 || c == null || c.udpPort == 0) {
+            out.println("ERR target not ready for UDP");
+            return;
+        }
+        out.println("CALL_PEER " + t.conn.address.getHostAddress() + " " + t.udpPort);
+        t.conn.out.println("INCOMING_CALL " + caller + " " + c.conn.address.getHostAddress() + " " + c.udpPort);
+    }
+
+    private void callGroup(String caller, String group, Outbound out) {
+        for (String u : groups.getOrDefault(group, Set.of())) {
+            if (!u.equals(caller)) callUser(caller, u, out);
+        }
+    }
+}
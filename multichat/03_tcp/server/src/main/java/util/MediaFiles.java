@@ -0,0 +1,164 @@
+package util;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Notas de voz del {@link MediaStore}, servidas desde el archivo. Con un
+ * socket como destino FileChannel.transferTo usa sendfile: los bytes van de
+ * la caché de páginas del sistema al socket sin pasar por el heap, y los
+ * miembros de un grupo que piden la misma nota leen la misma caché.
+ */
+public final class MediaFiles {
+
+    private static final Metrics.Counter fetches = Metrics.counter("media.fetch");
+    private static final Metrics.Counter bytesServed = Metrics.counter("media.fetch.bytes");
+
+    private MediaFiles() {}
+
+    /**
+     * Tramo de un archivo de medios ya acotado a su tamaño
+     */
+    public record Range(String id, File file, long offset, long length, long total) {}
+
+    /**
+     * Tramo del PCM de una nota, ya decodificado en memoria
+     */
+    public record Pcm(String id, long offset, long total, byte[] data) {}
+
+    /**
+     * @param length bytes pedidos; negativo o más allá del final = hasta el final
+     * @throws IOException si el id no es válido, el archivo no existe o el inicio queda fuera de él
+     */
+    public static Range resolve(MediaStore store, String id, long offset, long length) throws IOException {
+        // Solo nombres generados por el servidor: nada de rutas ni "..", el id viene del cliente
+        File file = store.locate(id);
+        if (file == null) {
+            throw new FileNotFoundException("invalid media id: " + id);
+        }
+        if (!file.isFile()) {
+            throw new FileNotFoundException("media not found: " + id);
+        }
+        long total = file.length();
+        if (offset < 0 || offset > total) {
+            throw new IOException("offset " + offset + " out of range (size " + total + ")");
+        }
+        long available = total - offset;
+        return new Range(id, file, offset, length < 0 ? available : Math.min(length, available), total);
+    }
+
+    /**
+     * @return {@link VoiceCodec#IMA_ADPCM} o {@link VoiceCodec#RAW}: cómo interpretar los bytes del tramo
+     */
+    public static String codec(Range range) throws IOException {
+        return VoiceCodec.codec(range.file());
+    }
+
+    /**
+     * Como {@link #resolve} + {@link #read}, pero con posiciones y bytes del PCM
+     * original, para clientes que no decodifican ADPCM
+     */
+    public static Pcm readPcm(MediaStore store, String id, long offset, long length) throws IOException {
+        Range stored = resolve(store, id, 0, 0);
+        long total = VoiceCodec.pcmLength(stored.file());
+        if (total < 0) {
+            Range range = resolve(store, id, offset, length);
+            return new Pcm(id, range.offset(), range.total(), read(range));
+        }
+        if (offset < 0 || offset > total) {
+            throw new IOException("offset " + offset + " out of range (size " + total + ")");
+        }
+        long available = total - offset;
+        byte[] data = VoiceCodec.readPcm(stored.file(), offset,
+                Math.toIntExact(length < 0 ? available : Math.min(length, available)));
+        fetches.increment();
+        bytesServed.add(data.length);
+        return new Pcm(id, offset, total, data);
+    }
+
+    /**
+     * Copia el tramo a un canal bloqueante; si es un SocketChannel la copia la hace el kernel
+     */
+    public static void transfer(Range range, WritableByteChannel target) throws IOException {
+        try (FileChannel channel = FileChannel.open(range.file().toPath(), StandardOpenOption.READ)) {
+            long position = range.offset();
+            long end = range.offset() + range.length();
+            while (position < end) {
+                long n = channel.transferTo(position, end - position, target);
+                if (n <= 0 && position >= channel.size()) {
+                    throw new EOFException("media truncated: " + range.id());
+                }
+                position += n;
+            }
+        }
+        fetches.increment();
+        bytesServed.add(range.length());
+    }
+
+    /**
+     * Lee el tramo en un arreglo, para transportes que necesitan el cuerpo en memoria (Ice)
+     */
+    public static byte[] read(Range range) throws IOException {
+        byte[] data = new byte[Math.toIntExact(range.length())];
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        try (FileChannel channel = FileChannel.open(range.file().toPath(), StandardOpenOption.READ)) {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, range.offset() + buffer.position()) < 0) {
+                    throw new EOFException("media truncated: " + range.id());
+                }
+            }
+        }
+        fetches.increment();
+        bytesServed.add(range.length());
+        return data;
+    }
+
+    /**
+     * Envío por partes a un canal no bloqueante: cada {@link #transferSome} manda lo que
+     * acepte el socket sin esperar
+     */
+    public static final class Transfer implements AutoCloseable {
+        private final Range range;
+        private final FileChannel channel;
+        private long position;
+
+        public Transfer(Range range) throws IOException {
+            this.range = range;
+            this.channel = FileChannel.open(range.file().toPath(), StandardOpenOption.READ);
+            this.position = range.offset();
+        }
+
+        /**
+         * @return true cuando se envió el tramo completo
+         */
+        public boolean transferSome(WritableByteChannel target) throws IOException {
+            long end = range.offset() + range.length();
+            if (position < end) {
+                long n = channel.transferTo(position, end - position, target);
+                if (n <= 0 && position >= channel.size()) {
+                    throw new EOFException("media truncated: " + range.id());
+                }
+                position += n;
+                if (position < end) {
+                    return false;
+                }
+            }
+            fetches.increment();
+            bytesServed.add(range.length());
+            return true;
+        }
+
+        @Override
+        public void close() {
+            try {
+                channel.close();
+            } catch (IOException ignored) {}
+        }
+    }
+}
@@ -0,0 +1,345 @@
+package util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Almacén de notas de voz direccionado por contenido. Cada blob se nombra por
+ * el SHA-256 de sus bytes (vn_&lt;hash&gt;.raw) dentro de un árbol de dos niveles
+ * (ab/cd/), así ningún directorio crece sin límite, dos subidas simultáneas no
+ * se pisan y una nota idéntica se guarda una sola vez.
+ *
+ * Cada blob lleva la cuenta de registros de historial que lo referencian; al
+ * llegar a cero se borra. Los cambios de cuenta se anotan en un diario
+ * (refs.log) que se compacta al abrir el almacén.
+ *
+ * Las notas anteriores (vn_&lt;millis&gt;.raw en la raíz) se siguen sirviendo, pero
+ * no llevan cuenta de referencias.
+ */
+public final class MediaStore {
+
+    private static final Pattern HASHED = Pattern.compile("vn_([0-9a-f]{64})\\.raw");
+    private static final Pattern LEGACY = Pattern.compile("vn_[A-Za-z0-9_-]+\\.raw");
+    // Campo file:<ruta> de los registros voice_note del historial
+    private static final Pattern FILE_FIELD = Pattern.compile("file:([^,}]+)");
+
+    private static MediaStore shared;
+
+    private final File root;
+    private final File tmpDir;
+    private final File journalFile;
+    // Protegidos por this
+    private final Map<String, Integer> refs = new HashMap<>();
+    private BufferedWriter journal;
+
+    private final Metrics.Counter ingested = Metrics.counter("media.store.ingested");
+    private final Metrics.Counter deduplicated = Metrics.counter("media.store.deduplicated");
+    private final Metrics.Counter collected = Metrics.counter("media.store.collected");
+
+    /**
+     * Almacén del servidor en data/media, compartido por todos los transportes.
+     * Al abrirlo se borran los blobs huérfanos que dejó la ejecución anterior.
+     */
+    public static synchronized MediaStore shared() {
+        if (shared == null) {
+            try {
+                MediaStore store = new MediaStore(new File("data", "media"));
+                int orphans = store.sweep();
+                if (orphans > 0) {
+                    System.out.println("[MEDIA] Removed " + orphans + " orphaned blobs");
+                }
+                shared = store;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return shared;
+    }
+
+    public MediaStore(File root) throws IOException {
+        this.root = root;
+        this.tmpDir = new File(root, "tmp");
+        this.journalFile = new File(root, "refs.log");
+        tmpDir.mkdirs();
+        // Subidas a medias de una ejecución anterior
+        File[] leftovers = tmpDir.listFiles();
+        if (leftovers != null) {
+            for (File f : leftovers) {
+                f.delete();
+            }
+        }
+        loadJournal();
+    }
+
+    // ---- Ingesta ----
+
+    /**
+     * Empieza una subida: los bytes van a un archivo temporal mientras se calcula su hash
+     */
+    public Upload begin() throws IOException {
+        return new Upload();
+    }
+
+    /**
+     * Guarda una nota que ya está en memoria
+     * @param references registros de historial que la van a referenciar
+     * @return id del blob
+     */
+    public String put(byte[] data, int references) throws IOException {
+        Upload upload = begin();
+        try {
+            upload.write(data, 0, data.length);
+            return upload.commit(references);
+        } catch (IOException e) {
+            upload.abort();
+            throw e;
+        }
+    }
+
+    /**
+     * Resta referencias tomadas para registros que no llegaron a escribirse;
+     * si el blob queda sin referencias se borra
+     */
+    public synchronized void release(String id, int references) throws IOException {
+        adjust(id, -references);
+    }
+
+    /**
+     * Subida en curso; la usa un solo hilo
+     */
+    public final class Upload extends OutputStream {
+        private final File tmp;
+        private final OutputStream out;
+        private final MessageDigest digest;
+        private boolean done;
+
+        private Upload() throws IOException {
+            tmp = File.createTempFile("up-", ".part", tmpDir);
+            out = new FileOutputStream(tmp);
+            digest = sha256();
+        }
+
+        @Override
+        public void write(byte[] buf, int off, int len) throws IOException {
+            out.write(buf, off, len);
+            digest.update(buf, off, len);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        /**
+         * Mueve el blob a su lugar en el árbol (o lo descarta si ya existía) y suma
+         * {@code references} a su cuenta en el mismo paso, para que una liberación
+         * concurrente no lo borre antes de que el historial lo apunte
+         * @return id del blob
+         */
+        public String commit(int references) throws IOException {
+            done = true;
+            out.close();
+            String hash = HexFormat.of().formatHex(digest.digest());
+            String id = "vn_" + hash + ".raw";
+            File target = blobFile(hash);
+            synchronized (MediaStore.this) {
+                if (target.exists()) {
+                    tmp.delete();
+                    deduplicated.increment();
+                } else {
+                    target.getParentFile().mkdirs();
+                    Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                    ingested.increment();
+                }
+                adjust(id, references);
+            }
+            return id;
+        }
+
+        public void abort() {
+            if (done) {
+                return;
+            }
+            done = true;
+            try {
+                out.close();
+            } catch (IOException ignored) {}
+            tmp.delete();
+        }
+    }
+
+    // ---- Lectura ----
+
+    /**
+     * Id que tendría un blob con estos bytes, sin guardarlo
+     */
+    public static String idOf(byte[] data) {
+        return "vn_" + HexFormat.of().formatHex(sha256().digest(data)) + ".raw";
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return archivo del blob, o null si el id no es un nombre generado por el servidor
+     */
+    public File locate(String id) {
+        if (id == null) {
+            return null;
+        }
+        Matcher m = HASHED.matcher(id);
+        if (m.matches()) {
+            return blobFile(m.group(1));
+        }
+        return LEGACY.matcher(id).matches() ? new File(root, id) : null;
+    }
+
+    /**
+     * Ruta que se guarda en el campo file: del historial
+     */
+    public String recordPath(String id) {
+        File f = locate(id);
+        return f != null ? f.getPath() : id;
+    }
+
+    private File blobFile(String hash) {
+        return new File(new File(new File(root, hash.substring(0, 2)), hash.substring(2, 4)), "vn_" + hash + ".raw");
+    }
+
+    // ---- Referencias ----
+
+    /**
+     * Id del blob al que apunta un registro de historial, o null si no apunta a ninguno
+     */
+    public static String referencedId(String historyLine) {
+        if (!historyLine.contains("type:voice_note")) {
+            return null;
+        }
+        Matcher m = FILE_FIELD.matcher(historyLine);
+        return m.find() ? new File(m.group(1).trim()).getName() : null;
+    }
+
+    /**
+     * Resta una referencia por cada registro dado; los blobs que quedan sin
+     * referencias se borran
+     */
+    public synchronized void releaseAll(Iterable<String> historyLines) throws IOException {
+        for (String line : historyLines) {
+            String id = referencedId(line);
+            if (id != null) {
+                adjust(id, -1);
+            }
+        }
+    }
+
+    public synchronized int references(String id) {
+        return refs.getOrDefault(id, 0);
+    }
+
+    // Se llama con el lock tomado. Las notas anteriores al almacén no llevan cuenta.
+    private void adjust(String id, int delta) throws IOException {
+        Matcher m = HASHED.matcher(id);
+        if (delta == 0 || !m.matches()) {
+            return;
+        }
+        int previous = refs.getOrDefault(id, 0);
+        int count = Math.max(0, previous + delta);
+        if (count == previous) {
+            return;
+        }
+        if (count > 0) {
+            refs.put(id, count);
+        } else {
+            refs.remove(id);
+            if (blobFile(m.group(1)).delete()) {
+                collected.increment();
+            }
+        }
+        journal.write(id + " " + (count - previous));
+        journal.newLine();
+        journal.flush();
+    }
+
+    /**
+     * Borra los blobs del árbol que no tienen referencias (p. ej. subidos justo
+     * antes de una caída, sin llegar al historial)
+     * @return blobs borrados
+     */
+    public synchronized int sweep() {
+        int removed = 0;
+        File[] shards = root.listFiles(f -> f.isDirectory() && f.getName().length() == 2);
+        if (shards == null) {
+            return 0;
+        }
+        for (File shard : shards) {
+            File[] subShards = shard.listFiles(File::isDirectory);
+            if (subShards == null) {
+                continue;
+            }
+            for (File subShard : subShards) {
+                File[] blobs = subShard.listFiles();
+                if (blobs == null) {
+                    continue;
+                }
+                for (File blob : blobs) {
+                    if (HASHED.matcher(blob.getName()).matches() && !refs.containsKey(blob.getName()) && blob.delete()) {
+                        removed++;
+                        collected.increment();
+                    }
+                }
+            }
+        }
+        return removed;
+    }
+
+    // Reproduce el diario y lo reescribe con una línea por blob vivo
+    private void loadJournal() throws IOException {
+        if (journalFile.exists()) {
+            try (BufferedReader r = new BufferedReader(new FileReader(journalFile))) {
+                String line;
+                while ((line = r.readLine()) != null) {
+                    int sp = line.indexOf(' ');
+                    if (sp <= 0) {
+                        continue;
+                    }
+                    try {
+                        refs.merge(line.substring(0, sp), Integer.parseInt(line.substring(sp + 1).trim()), Integer::sum);
+                    } catch (NumberFormatException e) {
+                        // Línea cortada por una caída a mitad de escritura
+                    }
+                }
+            }
+            refs.values().removeIf(count -> count <= 0);
+        }
+        File compacted = new File(root, "refs.log.tmp");
+        try (BufferedWriter w = new BufferedWriter(new FileWriter(compacted))) {
+            for (Map.Entry<String, Integer> e : refs.entrySet()) {
+                w.write(e.getKey() + " " + e.getValue());
+                w.newLine();
+            }
+        }
+        Files.move(compacted.toPath(), journalFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        journal = new BufferedWriter(new FileWriter(journalFile, true));
+    }
+}
@@ -0,0 +1,86 @@
+package util;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Registro global de métricas del servidor (contadores, tiempos y gauges).
+ * Se consulta con la acción GET_METRICS del controlador TCP-JSON.
+ */
+public final class Metrics {
+
+    private static final Map<String, Counter> COUNTERS = new ConcurrentHashMap<>();
+    private static final Map<String, Timer> TIMERS = new ConcurrentHashMap<>();
+    private static final Map<String, Supplier<? extends Number>> GAUGES = new ConcurrentHashMap<>();
+
+    private Metrics() {}
+
+    public static Counter counter(String name) {
+        return COUNTERS.computeIfAbsent(name, k -> new Counter());
+    }
+
+    public static Timer timer(String name) {
+        return TIMERS.computeIfAbsent(name, k -> new Timer());
+    }
+
+    /**
+     * Registra (o reemplaza) un valor calculado al momento de consultar
+     */
+    public static void gauge(String name, Supplier<? extends Number> value) {
+        GAUGES.put(name, value);
+    }
+
+    public static void removeGauge(String name) {
+        GAUGES.remove(name);
+    }
+
+    /**
+     * @return todas las métricas aplanadas y ordenadas por nombre
+     */
+    public static Map<String, Object> snapshot() {
+        Map<String, Object> out = new TreeMap<>();
+        COUNTERS.forEach((name, c) -> out.put(name, c.get()));
+        TIMERS.forEach((name, t) -> {
+            long count = t.count.sum();
+            out.put(name + ".count", count);
+            out.put(name + ".avgMs", count == 0 ? 0.0 : toMillis(t.totalNanos.sum() / count));
+            out.put(name + ".maxMs", toMillis(t.maxNanos.get()));
+        });
+        GAUGES.forEach((name, g) -> {
+            try {
+                out.put(name, g.get());
+            } catch (RuntimeException e) {
+                out.put(name, -1);
+            }
+        });
+        return out;
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    public static final class Counter {
+        private final LongAdder value = new LongAdder();
+        public void increment() { value.increment(); }
+        public void add(long n) { value.add(n); }
+        public long get() { return value.sum(); }
+    }
+
+    public static final class Timer {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+        public void record(long nanos) {
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+        }
+    }
+}
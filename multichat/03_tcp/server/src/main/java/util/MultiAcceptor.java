@@ -0,0 +1,121 @@
+package util;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Uno o varios sockets de escucha en el mismo puerto, cada uno con su propio
+ * hilo aceptador. Con más de uno se usa SO_REUSEPORT (Linux) y el kernel
+ * reparte las conexiones nuevas entre ellos, así que aceptar deja de estar
+ * limitado a un solo núcleo. Si el sistema no soporta SO_REUSEPORT se usa un
+ * único socket.
+ *
+ * Los sockets se abren como canales para que cada conexión aceptada tenga su
+ * SocketChannel (necesario para enviar archivos con transferTo/sendfile). Lo
+ * usan tanto los servidores bloqueantes ({@link #start}) como NioTCPServer
+ * ({@link #acceptChannels}), que registra cada canal en un selector.
+ */
+public final class MultiAcceptor {
+
+    private static final int BACKLOG = 1024;
+
+    private final String name;
+    private final List<ServerSocketChannel> sockets = new ArrayList<>();
+    private volatile boolean running;
+
+    public MultiAcceptor(String name, int port, int acceptors, TcpOptions options) throws IOException {
+        this.name = name;
+        int count = acceptors > 1 && reusePortSupported() ? acceptors : 1;
+        if (acceptors > 1 && count == 1) {
+            System.err.println("[ACCEPT] SO_REUSEPORT not supported, " + name + " uses a single listener");
+        }
+        try {
+            for (int i = 0; i < count; i++) {
+                ServerSocketChannel socket = ServerSocketChannel.open();
+                sockets.add(socket);
+                if (count > 1) {
+                    socket.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                }
+                options.apply(socket.socket());
+                // Con puerto 0 el primero elige el puerto y los demás se unen a él
+                socket.bind(new InetSocketAddress(i == 0 ? port : getLocalPort()), BACKLOG);
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    public static boolean reusePortSupported() {
+        try (ServerSocketChannel probe = ServerSocketChannel.open()) {
+            return probe.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Arranca un hilo aceptador por socket; cada conexión se entrega a {@code handler}
+     * en el hilo que la aceptó
+     */
+    public void start(Consumer<Socket> handler) {
+        acceptChannels(channel -> handler.accept(channel.socket()), false);
+    }
+
+    /**
+     * Como {@link #start} pero entrega el canal aceptado, todavía en modo bloqueante.
+     * Si {@code handler} lanza IOException se registra y se sigue aceptando
+     *
+     * @param daemon si los hilos aceptadores no deben impedir que la JVM termine
+     */
+    public void acceptChannels(ChannelHandler handler, boolean daemon) {
+        running = true;
+        for (int i = 0; i < sockets.size(); i++) {
+            ServerSocketChannel socket = sockets.get(i);
+            Thread acceptor = new Thread(() -> acceptLoop(socket, handler), name + "-acceptor-" + i);
+            acceptor.setDaemon(daemon);
+            acceptor.start();
+        }
+    }
+
+    @FunctionalInterface
+    public interface ChannelHandler {
+        void accept(SocketChannel channel) throws IOException;
+    }
+
+    private void acceptLoop(ServerSocketChannel socket, ChannelHandler handler) {
+        while (running) {
+            try {
+                handler.accept(socket.accept());
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("[ACCEPT] " + name + " accept failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    public int getLocalPort() {
+        return sockets.get(0).socket().getLocalPort();
+    }
+
+    public int size() {
+        return sockets.size();
+    }
+
+    public void close() {
+        running = false;
+        for (ServerSocketChannel socket : sockets) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {}
+        }
+    }
+}
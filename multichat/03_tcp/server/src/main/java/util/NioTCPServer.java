@@ -0,0 +1,685 @@
+package util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Alternativa NIO a {@link TCPConnection} con el mismo protocolo
+ * ({@link LegacyProtocol}). Uno o varios hilos aceptadores (varios sockets
+ * con SO_REUSEPORT) reparten las conexiones entre unos pocos selectores; cada selector lee, decodifica y ejecuta los
+ * comandos de sus conexiones y escribe sin bloquear, así que el número de
+ * conexiones no depende del número de hilos.
+ *
+ * Los comandos corren en workers virtuales, de a un lote por conexión, y el
+ * selector no lee más de esa conexión hasta que el lote termina: escrituras a
+ * disco, códec o un destinatario lento no frenan al resto. Así HISTORY puede
+ * esperar espacio en la cola de salida línea a línea; un cuerpo reenviado, en
+ * cambio, nunca espera: como en {@link SessionWriter}, el destinatario atrasado
+ * se desconecta.
+ */
+public class NioTCPServer {
+
+    private static final int MAX_LINE = 64 * 1024;
+    private static final int MAX_GATHER = 64;
+    private static final byte[] ZEROS = new byte[16 * 1024];
+
+    private final int port;
+    private final TcpOptions options;
+    private final int maxOutboundBytes;
+    private final Consumer<String> log;
+    private final LegacyProtocol protocol;
+    private final SelectorLoop[] loops;
+    private final int acceptors;
+    private MultiAcceptor acceptor;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    private final ExecutorService workers = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("nio-worker-", 0).factory());
+    private final Metrics.Counter relaySkipped = Metrics.counter("session.lag.skipped");
+    private volatile boolean running;
+
+    /**
+     * @param selectors hilos selectores; 0 usa uno por núcleo
+     * @param maxOutboundBytes bytes pendientes de envío por conexión antes de desconectarla
+     * @param maxBodyBytes tamaño máximo aceptado para una nota de voz
+     */
+    public NioTCPServer(int port, int selectors, TcpOptions options, int maxOutboundBytes, int maxBodyBytes,
+            Consumer<String> log) {
+        this(port, selectors, 1, options, maxOutboundBytes, maxBodyBytes, log);
+    }
+
+    /**
+     * @param acceptors sockets de escucha con SO_REUSEPORT, cada uno con su hilo aceptador
+     */
+    public NioTCPServer(int port, int selectors, int acceptors, TcpOptions options, int maxOutboundBytes,
+            int maxBodyBytes, Consumer<String> log) {
+        this.port = port;
+        this.acceptors = acceptors;
+        this.options = options;
+        this.maxOutboundBytes = maxOutboundBytes;
+        this.log = log;
+        this.protocol = new LegacyProtocol(log);
+        protocol.configureVoiceNotes(maxBodyBytes);
+        int count = selectors > 0 ? selectors : Runtime.getRuntime().availableProcessors();
+        this.loops = new SelectorLoop[count];
+    }
+
+    public void configureHeartbeat(long heartbeatMillis, long idleTimeoutMillis) {
+        protocol.configureHeartbeat(heartbeatMillis, idleTimeoutMillis);
+    }
+
+    public void start() throws IOException {
+        acceptor = new MultiAcceptor("nio", port, acceptors, options);
+        running = true;
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new SelectorLoop(Selector.open());
+            Thread t = new Thread(loops[i], "nio-selector-" + i);
+            t.setDaemon(true);
+            t.start();
+        }
+        acceptor.acceptChannels(this::onAccepted, true);
+        log.accept("[SERVER] Escuchando TCP (NIO, " + loops.length + " selectores, " + acceptor.size()
+                + " aceptadores) en " + getLocalPort());
+    }
+
+    public void stop() {
+        running = false;
+        if (acceptor != null) {
+            acceptor.close();
+        }
+        for (SelectorLoop loop : loops) {
+            if (loop != null) {
+                loop.selector.wakeup();
+            }
+        }
+        workers.shutdown();
+    }
+
+    public int getLocalPort() {
+        return acceptor.getLocalPort();
+    }
+
+    private void onAccepted(SocketChannel channel) throws IOException {
+        channel.configureBlocking(false);
+        options.apply(channel.socket());
+        loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)].register(channel);
+    }
+
+    // ---- Selector ----
+
+    private final class SelectorLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<SocketChannel> accepted = new ConcurrentLinkedQueue<>();
+        private final Queue<NioConnection> flushRequests = new ConcurrentLinkedQueue<>();
+        private final Queue<NioConnection> closeRequests = new ConcurrentLinkedQueue<>();
+        private final Queue<NioConnection> resumeRequests = new ConcurrentLinkedQueue<>();
+
+        SelectorLoop(Selector selector) {
+            this.selector = selector;
+        }
+
+        void register(SocketChannel channel) {
+            accepted.add(channel);
+            selector.wakeup();
+        }
+
+        void requestFlush(NioConnection conn) {
+            flushRequests.add(conn);
+            selector.wakeup();
+        }
+
+        void requestClose(NioConnection conn) {
+            closeRequests.add(conn);
+            selector.wakeup();
+        }
+
+        // Un worker terminó con la entrada de la conexión: se vuelve a leer de ella
+        void requestResume(NioConnection conn) {
+            resumeRequests.add(conn);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    selector.select();
+                    registerAccepted();
+                    NioConnection conn;
+                    while ((conn = flushRequests.poll()) != null) {
+                        conn.flush();
+                    }
+                    while ((conn = closeRequests.poll()) != null) {
+                        conn.closeChannel();
+                    }
+                    while ((conn = resumeRequests.poll()) != null) {
+                        conn.resume();
+                    }
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        NioConnection c = (NioConnection) key.attachment();
+                        if (!key.isValid()) {
+                            c.closeChannel();
+                            continue;
+                        }
+                        if (key.isWritable()) {
+                            c.flush();
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            c.onReadable();
+                        }
+                    }
+                } catch (IOException e) {
+                    System.err.println("[NIO] Selector error: " + e.getMessage());
+                }
+            }
+            for (SelectionKey key : selector.keys()) {
+                ((NioConnection) key.attachment()).closeChannel();
+            }
+            NioConnection conn;
+            while ((conn = resumeRequests.poll()) != null) {
+                conn.resume();
+            }
+        }
+
+        private void registerAccepted() {
+            SocketChannel channel;
+            while ((channel = accepted.poll()) != null) {
+                try {
+                    NioConnection conn = new NioConnection(this, channel);
+                    conn.key = channel.register(selector, SelectionKey.OP_READ, conn);
+                    conn.open();
+                } catch (IOException e) {
+                    try {
+                        channel.close();
+                    } catch (IOException ignored) {}
+                }
+            }
+        }
+    }
+
+    // Tareas de una conexión en un worker; tras stop() corren en el hilo que las pide
+    private void runOnWorker(Runnable task) {
+        try {
+            workers.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.run();
+        }
+    }
+
+    // ---- Conexión ----
+
+    /**
+     * Estado de una conexión. La lectura y las escrituras al canal ocurren solo en
+     * su selector; los comandos leídos se ejecutan en un worker, de a un lote por
+     * conexión, y mientras tanto el selector no lee más de ella. Otros hilos
+     * únicamente encolan salida.
+     */
+    private final class NioConnection implements Outbound {
+        private final SelectorLoop loop;
+        private final SocketChannel channel;
+        private SelectionKey key;
+        private LegacyProtocol.Connection conn;
+        // Del selector cuando processing es false y del worker mientras es true. Solo se
+        // tiene mientras hay entrada sin procesar: una conexión inactiva no retiene buffer
+        private byte[] inBuf;
+        private ByteBuffer in;
+        private int bodyRemaining; // bytes del cuerpo binario en curso que faltan por llegar
+        private boolean processing; // solo el selector: un worker tiene la entrada
+        private volatile boolean channelClosed;
+
+        // Cola de salida, protegida por lock: ByteBuffer o MediaFiles.Transfer (archivo enviado con transferTo)
+        private final ReentrantLock lock = new ReentrantLock(); // no synchronized: los workers son hilos virtuales
+        private final Condition space = lock.newCondition();
+        private final ArrayDeque<Object> outQueue = new ArrayDeque<>();
+        private long queuedBytes;
+        private boolean outputClosed;
+        private boolean streaming; // hay un cuerpo abierto: los demás frames esperan en held
+        private final ArrayDeque<Object> held = new ArrayDeque<>();
+        private long heldBytes;
+
+        NioConnection(SelectorLoop loop, SocketChannel channel) {
+            this.loop = loop;
+            this.channel = channel;
+        }
+
+        void open() throws IOException {
+            conn = protocol.open(this, channel.socket().getInetAddress(),
+                    String.valueOf(channel.getRemoteAddress()), () -> loop.requestClose(this));
+        }
+
+        // ---- Lectura ----
+
+        void onReadable() {
+            if (inBuf == null) {
+                inBuf = BufferPool.SHARED.acquire();
+                in = ByteBuffer.wrap(inBuf);
+            }
+            int r;
+            try {
+                r = channel.read(in);
+            } catch (IOException e) {
+                r = -1;
+            }
+            if (r < 0) {
+                closeChannel();
+                return;
+            }
+            if (r == 0) {
+                releaseIfDrained();
+                return;
+            }
+            conn.touch();
+            in.flip();
+            processing = true;
+            updateInterest();
+            runOnWorker(this::process);
+        }
+
+        // En un worker: disco, HISTORY o un destinatario lento solo frenan a esta conexión
+        private void process() {
+            try {
+                decode();
+            } catch (IOException | RuntimeException e) {
+                System.err.println("[NIO] " + conn.remote + ": " + e.getMessage());
+                loop.requestClose(this);
+            }
+            in.compact();
+            releaseIfDrained();
+            loop.requestResume(this);
+        }
+
+        // Sin bytes a medias (línea incompleta) el buffer vuelve al pool hasta la próxima lectura
+        private void releaseIfDrained() {
+            if (in != null && in.position() == 0) {
+                BufferPool.SHARED.release(inBuf);
+                inBuf = null;
+                in = null;
+            }
+        }
+
+        // En el selector, cuando el worker devuelve la entrada
+        void resume() {
+            processing = false;
+            if (channelClosed) {
+                runOnWorker(this::release);
+                return;
+            }
+            updateInterest();
+        }
+
+        private void decode() throws IOException {
+            // Si el protocolo cerró la conexión (p. ej. nota de voz rechazada) lo que sigue no son comandos
+            while (in.hasRemaining() && !channelClosed && !conn.isClosed()) {
+                if (bodyRemaining > 0) {
+                    // Cada lectura se reenvía en el acto; el cuerpo nunca se acumula
+                    int n = Math.min(in.remaining(), bodyRemaining);
+                    protocol.onBody(conn, inBuf, in.position(), n);
+                    in.position(in.position() + n);
+                    bodyRemaining -= n;
+                    continue;
+                }
+                int lineEnd = indexOf(in, (byte) '\n');
+                if (lineEnd < 0) {
+                    growIfFull();
+                    return;
+                }
+                int start = in.position();
+                int end = lineEnd > start && inBuf[lineEnd - 1] == '\r' ? lineEnd - 1 : lineEnd;
+                String line = new String(inBuf, start, end - start, StandardCharsets.UTF_8);
+                in.position(lineEnd + 1);
+                int bodySize = protocol.onLine(conn, line);
+                if (bodySize > 0) {
+                    bodyRemaining = bodySize;
+                }
+            }
+        }
+
+        private int indexOf(ByteBuffer buf, byte b) {
+            for (int i = buf.position(); i < buf.limit(); i++) {
+                if (inBuf[i] == b) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        // Una línea incompleta que ocupa todo el buffer: se agranda hasta MAX_LINE
+        private void growIfFull() throws IOException {
+            if (in.position() > 0 || in.limit() < in.capacity()) {
+                return;
+            }
+            if (inBuf.length >= MAX_LINE) {
+                throw new IOException("line too long");
+            }
+            byte[] bigger = new byte[inBuf.length * 2];
+            System.arraycopy(inBuf, 0, bigger, 0, in.limit());
+            ByteBuffer grown = ByteBuffer.wrap(bigger);
+            grown.limit(in.limit());
+            BufferPool.SHARED.release(inBuf);
+            inBuf = bigger;
+            in = grown;
+        }
+
+        // ---- Escritura ----
+
+        @Override
+        public boolean println(String line) {
+            return enqueue(false, ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8)));
+        }
+
+        @Override
+        public boolean sendWithBody(String header, byte[] data) {
+            // El cuerpo no se copia: cada destinatario envuelve el mismo arreglo
+            return enqueue(false, ByteBuffer.wrap((header + "\n").getBytes(StandardCharsets.UTF_8)), ByteBuffer.wrap(data));
+        }
+
+        /**
+         * El archivo no ocupa la cola: el selector lo envía con transferTo a medida que el socket acepta
+         */
+        @Override
+        public boolean sendFile(String header, MediaFiles.Range range) {
+            MediaFiles.Transfer transfer;
+            try {
+                transfer = new MediaFiles.Transfer(range);
+            } catch (IOException e) {
+                return println("ERR " + e.getMessage());
+            }
+            if (!enqueue(false, ByteBuffer.wrap((header + "\n").getBytes(StandardCharsets.UTF_8)), transfer)) {
+                transfer.close();
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * Respuesta a la propia conexión (HISTORY): el worker espera a que el selector
+         * vacíe la cola, así que el historial sale línea a línea sin importar su tamaño
+         */
+        @Override
+        public boolean printlnAwait(String line) throws InterruptedException {
+            return offer(false, Long.MAX_VALUE, ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8)));
+        }
+
+        /**
+         * Como en {@link SessionWriter}: con otro cuerpo abierto o sin espacio para el
+         * encabezado el destinatario no recibe el cuerpo (queda en el historial), y una
+         * parte que no cabe lo desconecta sin hacer esperar al emisor
+         */
+        @Override
+        public BodyStream openStream(String header, int size) {
+            ByteBuffer first = ByteBuffer.wrap((header + "\n").getBytes(StandardCharsets.UTF_8));
+            boolean wasEmpty;
+            lock.lock();
+            try {
+                if (outputClosed || streaming) {
+                    return null;
+                }
+                if (queuedBytes + heldBytes + first.remaining() > maxOutboundBytes) {
+                    relaySkipped.increment();
+                    return null;
+                }
+                streaming = true;
+                wasEmpty = outQueue.isEmpty();
+                outQueue.add(first);
+                queuedBytes += first.remaining();
+            } finally {
+                lock.unlock();
+            }
+            if (wasEmpty) {
+                loop.requestFlush(this);
+            }
+            return new PartStream(size);
+        }
+
+        // part: bytes de un cuerpo abierto, que no esperan detrás de él; items: ByteBuffer o MediaFiles.Transfer
+        private boolean enqueue(boolean part, Object... items) {
+            try {
+                return offer(part, 0, items);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt(); // sin espera no se interrumpe
+                return false;
+            }
+        }
+
+        /**
+         * @param waitNanos cuánto esperar espacio; 0 = un desbordamiento desconecta en el acto.
+         *                  Un frame mayor que el límite entra igual si la cola está vacía,
+         *                  salvo que sea sin espera y no sea parte de un cuerpo.
+         */
+        private boolean offer(boolean part, long waitNanos, Object... items) throws InterruptedException {
+            long size = 0;
+            for (Object item : items) {
+                if (item instanceof ByteBuffer buffer) {
+                    size += buffer.remaining();
+                }
+            }
+            boolean patient = waitNanos > 0;
+            boolean wasEmpty;
+            lock.lock();
+            try {
+                // Las partes no cuentan lo retenido: eso solo sale cuando termina su cuerpo
+                while (!outputClosed && waitNanos > 0 && pending(part) > 0 && pending(part) + size > maxOutboundBytes) {
+                    waitNanos = space.awaitNanos(waitNanos);
+                }
+                if (outputClosed) {
+                    return false;
+                }
+                if (pending(part) + size > maxOutboundBytes && !((patient || part) && pending(part) == 0)) {
+                    outputClosed = true;
+                    System.err.println("[NIO] " + conn.remote + (part ? " too slow for a streamed body" : " outbound queue overflow")
+                            + ", disconnecting");
+                    loop.requestClose(this);
+                    return false;
+                }
+                if (streaming && !part) {
+                    held.addAll(List.of(items));
+                    heldBytes += size;
+                    return true;
+                }
+                wasEmpty = outQueue.isEmpty();
+                outQueue.addAll(List.of(items));
+                queuedBytes += size;
+            } finally {
+                lock.unlock();
+            }
+            if (wasEmpty) {
+                loop.requestFlush(this);
+            }
+            return true;
+        }
+
+        // Con el lock tomado
+        private long pending(boolean part) {
+            return part ? queuedBytes : queuedBytes + heldBytes;
+        }
+
+        // Cierra el cuerpo abierto y libera, en orden, lo que esperaba detrás
+        private void endStream() {
+            lock.lock();
+            try {
+                streaming = false;
+                outQueue.addAll(held);
+                queuedBytes += heldBytes;
+                held.clear();
+                heldBytes = 0;
+            } finally {
+                lock.unlock();
+            }
+            loop.requestFlush(this);
+        }
+
+        /**
+         * Cuerpo escrito a medida que llega; un destinatario atrasado se desconecta
+         */
+        private final class PartStream implements BodyStream {
+            private long remaining;
+
+            PartStream(int size) {
+                this.remaining = size;
+            }
+
+            @Override
+            public boolean write(byte[] part) {
+                remaining -= part.length;
+                return enqueue(true, ByteBuffer.wrap(part));
+            }
+
+            @Override
+            public void finish() {
+                endStream();
+            }
+
+            @Override
+            public void abort(String trailer) {
+                boolean open = true;
+                while (remaining > 0 && open) {
+                    int n = (int) Math.min(remaining, ZEROS.length);
+                    remaining -= n;
+                    open = enqueue(true, ByteBuffer.wrap(ZEROS, 0, n));
+                }
+                if (open) {
+                    enqueue(true, ByteBuffer.wrap((trailer + "\n").getBytes(StandardCharsets.UTF_8)));
+                }
+                endStream();
+            }
+        }
+
+        /**
+         * Escribe lo que el socket acepte sin bloquear (escritura gather de varios frames);
+         * si queda algo pendiente se pide OP_WRITE
+         */
+        void flush() {
+            if (channelClosed) {
+                return;
+            }
+            boolean failed = false;
+            lock.lock();
+            try {
+                long before = queuedBytes;
+                while (!outQueue.isEmpty()) {
+                    if (outQueue.peek() instanceof MediaFiles.Transfer transfer) {
+                        if (!transfer.transferSome(channel)) {
+                            break; // buffer del socket lleno
+                        }
+                        transfer.close();
+                        outQueue.poll();
+                        continue;
+                    }
+                    ByteBuffer[] batch = outQueue.stream().limit(MAX_GATHER)
+                            .takeWhile(ByteBuffer.class::isInstance).toArray(ByteBuffer[]::new);
+                    long written = channel.write(batch);
+                    queuedBytes -= written;
+                    while (outQueue.peek() instanceof ByteBuffer buffer && !buffer.hasRemaining()) {
+                        outQueue.poll();
+                    }
+                    if (written == 0 || batch[batch.length - 1].hasRemaining()) {
+                        break; // buffer del socket lleno
+                    }
+                }
+                if (queuedBytes < before) {
+                    space.signalAll();
+                }
+                updateInterest();
+            } catch (IOException e) {
+                failed = true;
+            } finally {
+                lock.unlock();
+            }
+            if (failed) {
+                closeChannel();
+            }
+        }
+
+        // Solo en el selector: OP_READ mientras ningún worker tenga la entrada, OP_WRITE si queda salida
+        private void updateInterest() {
+            lock.lock();
+            try {
+                int ops = (processing ? 0 : SelectionKey.OP_READ) | (outQueue.isEmpty() ? 0 : SelectionKey.OP_WRITE);
+                if (key.isValid() && key.interestOps() != ops) {
+                    key.interestOps(ops);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void close() {
+            lock.lock();
+            try {
+                outputClosed = true;
+                space.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // ---- Cierre ----
+
+        // En el selector. Si un worker tiene la entrada, protocol.onClose espera a que la devuelva
+        void closeChannel() {
+            if (channelClosed) {
+                return;
+            }
+            channelClosed = true;
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                channel.close();
+            } catch (IOException ignored) {}
+            lock.lock();
+            try {
+                outputClosed = true;
+                closeTransfers(outQueue);
+                closeTransfers(held);
+                outQueue.clear();
+                queuedBytes = 0;
+                held.clear();
+                heldBytes = 0;
+                space.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            if (!processing) {
+                // onClose aborta la subida en curso (blob en disco y cuerpos abiertos en otras conexiones)
+                runOnWorker(this::release);
+            }
+        }
+
+        private void release() {
+            if (conn != null) {
+                protocol.onClose(conn);
+            }
+            BufferPool.SHARED.release(inBuf);
+            inBuf = null;
+            in = null;
+        }
+
+        private void closeTransfers(ArrayDeque<Object> items) {
+            for (Object item : items) {
+                if (item instanceof MediaFiles.Transfer transfer) {
+                    transfer.close();
+                }
+            }
+        }
+    }
+}
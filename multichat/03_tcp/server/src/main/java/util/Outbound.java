@@ -0,0 +1,72 @@
+package util;
+
+/**
+ * Salida de una conexión de cliente, independiente del transporte
+ * (escritor propio sobre un socket bloqueante o cola no bloqueante de NIO).
+ */
+public interface Outbound {
+
+    boolean println(String line);
+
+    /**
+     * Encola una línea de cabecera seguida de un cuerpo binario como un único frame
+     */
+    boolean sendWithBody(String header, byte[] body);
+
+    /**
+     * Encola una línea de cabecera seguida de un tramo de archivo; el transporte
+     * lo envía desde el archivo (sendfile si puede) sin cargarlo en el heap
+     */
+    boolean sendFile(String header, MediaFiles.Range range);
+
+    /**
+     * Como {@link #sendFile}, pero para algo que no pidió el destinatario (una nota
+     * de otro usuario): sigue la política de retraso del transporte
+     */
+    default boolean pushFile(String header, MediaFiles.Range range) {
+        return sendFile(header, range);
+    }
+
+    /**
+     * Abre un frame cuyo cuerpo de {@code size} bytes llega por partes (reenvío en
+     * corte directo). Mientras esté abierto, lo demás que se envíe a esta salida
+     * espera detrás para no intercalarse con el cuerpo.
+     * @return null si la salida no acepta el frame (cerrada, en modo pull, atrasada o con
+     *         otro cuerpo abierto); el destinatario lo pide luego del historial
+     */
+    BodyStream openStream(String header, int size);
+
+    /**
+     * Respuesta grande al propio solicitante; por defecto igual que {@link #println}
+     */
+    default boolean printlnAwait(String line) throws InterruptedException {
+        return println(line);
+    }
+
+    void close();
+
+    /**
+     * Cuerpo de un frame abierto con {@link #openStream}; lo usa un solo hilo
+     */
+    interface BodyStream {
+        /**
+         * Encola la siguiente parte del cuerpo sin esperar: si el destinatario no tiene
+         * espacio se le desconecta, para no frenar al emisor ni a los demás destinatarios.
+         * El arreglo se comparte entre destinatarios y no debe modificarse después.
+         * @return false si la salida se cerró (el resto del cuerpo se descarta)
+         */
+        boolean write(byte[] part);
+
+        /**
+         * Cierra el frame con el cuerpo completo
+         */
+        void finish();
+
+        /**
+         * Cierra un frame incompleto (subida abortada): los bytes que faltan se completan
+         * con ceros para no perder la sincronía y a continuación sale {@code trailer},
+         * con el que el cliente sabe que debe descartar el cuerpo recibido.
+         */
+        void abort(String trailer);
+    }
+}
@@ -0,0 +1,635 @@
+package util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cola de salida acotada de una sesión, vaciada por su propio hilo escritor.
+ * Quien envía solo encola y vuelve de inmediato; el escritor agrupa todo lo
+ * pendiente y hace un único flush por lote. Cada frame (línea o cabecera +
+ * binario) se escribe completo, así que varios emisores no se intercalan.
+ *
+ * Si la cola supera el límite de bytes se aplica la política configurada:
+ * DROP descarta el frame nuevo, DISCONNECT cierra la sesión y SPILL lo
+ * guarda en un archivo temporal que se reenvía, en orden, al vaciarse la cola.
+ *
+ * Además se lleva la cuenta del retraso de cada sesión (bytes sin entregar y
+ * antigüedad del frame más viejo). Si supera los umbrales, la sesión pasa a
+ * modo pull (deja de recibir pushes hasta ponerse al día; los mensajes siguen
+ * en su buzón de pendientes) o se desconecta. Las cifras se exportan como
+ * métricas "session.*".
+ *
+ * Un cuerpo abierto con {@link #openStream} se escribe a medida que llegan sus
+ * partes; mientras tanto el resto de los frames espera detrás. Solo hay un
+ * cuerpo abierto a la vez por sesión.
+ */
+public class SessionWriter implements Outbound {
+
+    public enum OverflowPolicy { DROP, DISCONNECT, SPILL }
+
+    public enum LagAction { PULL, DISCONNECT }
+
+    // ---- Configuración global (server.properties) ----
+    private static volatile int defaultMaxQueuedBytes = 1024 * 1024;
+    private static volatile OverflowPolicy defaultPolicy = OverflowPolicy.DISCONNECT;
+    private static volatile File spillDir = new File("data", "spill");
+
+    private static volatile long lagMaxBytes = 256 * 1024;
+    private static volatile long lagMaxAgeNanos = TimeUnit.SECONDS.toNanos(10);
+    private static volatile LagAction defaultLagAction = LagAction.PULL;
+
+    public static void configure(int maxQueuedBytes, String policy, String spillDirectory) {
+        defaultMaxQueuedBytes = maxQueuedBytes;
+        defaultPolicy = OverflowPolicy.valueOf(policy.trim().toUpperCase(Locale.ROOT));
+        spillDir = new File(spillDirectory);
+    }
+
+    public static void configureLag(long maxLagBytes, long maxLagAgeMillis, String action) {
+        lagMaxBytes = maxLagBytes;
+        lagMaxAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxLagAgeMillis);
+        defaultLagAction = LagAction.valueOf(action.trim().toUpperCase(Locale.ROOT));
+    }
+
+    public static long lagMaxAgeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(lagMaxAgeNanos);
+    }
+
+    public static LagAction lagAction() {
+        return defaultLagAction;
+    }
+
+    // Sesiones vivas, para las métricas agregadas de retraso
+    private static final Set<SessionWriter> LIVE = ConcurrentHashMap.newKeySet();
+
+    static {
+        Metrics.gauge("session.count", LIVE::size);
+        Metrics.gauge("session.lag.maxQueuedBytes",
+                () -> LIVE.stream().mapToLong(SessionWriter::getQueuedBytes).max().orElse(0));
+        Metrics.gauge("session.lag.maxAgeMs",
+                () -> LIVE.stream().mapToLong(SessionWriter::getLagAgeMillis).max().orElse(0));
+        Metrics.gauge("session.lag.pullMode",
+                () -> LIVE.stream().filter(SessionWriter::isPullMode).count());
+    }
+
+    private static final byte[] NEWLINE = { '\n' };
+    private static final byte[] ZEROS = new byte[16 * 1024];
+
+    private final String name;
+    private final OutputStream out;
+    private final int maxQueuedBytes;
+    private final OverflowPolicy policy;
+    private final LagAction lagAction;
+    private final Runnable onClose;
+    private volatile WritableByteChannel channel; // canal del socket para sendfile, si lo hay
+
+    // Lock explícito en lugar de synchronized/wait: el escritor es un hilo virtual y no debe fijar su carrier
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition ready = lock.newCondition();
+    private final Condition space = lock.newCondition();
+    // Protegidos por lock
+    private final ArrayDeque<Frame> queue = new ArrayDeque<>();
+    private long queuedBytes; // incluye el lote que el escritor está enviando
+    private boolean closed;
+    private boolean pullMode;
+    private boolean streaming; // hay un cuerpo abierto: los demás frames esperan en held
+    private final ArrayDeque<Frame> held = new ArrayDeque<>();
+    private long heldBytes;
+    private long inFlightSince; // nanoTime del frame más viejo del lote en curso, 0 si no hay
+    private long spillSince;
+    private File spillFile;
+    private OutputStream spillOut;
+
+    private final Metrics.Counter dropped = Metrics.counter("session.outbound.dropped");
+    private final Metrics.Counter spilled = Metrics.counter("session.outbound.spilled");
+    private final Metrics.Counter overflowDisconnects = Metrics.counter("session.outbound.disconnects");
+    private final Metrics.Counter lagPull = Metrics.counter("session.lag.pull");
+    private final Metrics.Counter lagSkipped = Metrics.counter("session.lag.skipped");
+    private final Metrics.Counter lagDisconnects = Metrics.counter("session.lag.disconnects");
+
+    /**
+     * @param onClose se invoca una vez cuando el escritor se cierra por error o desbordamiento
+     *                (normalmente cierra el socket de la sesión)
+     */
+    public SessionWriter(String name, OutputStream out, Runnable onClose) {
+        this(name, out, defaultLagAction, onClose);
+    }
+
+    /**
+     * @param lagAction acción para consumidores lentos; las sesiones sin buzón de pendientes
+     *                  deben usar DISCONNECT porque en modo pull perderían mensajes
+     */
+    public SessionWriter(String name, OutputStream out, LagAction lagAction, Runnable onClose) {
+        this(name, out, defaultMaxQueuedBytes, defaultPolicy, lagAction, onClose);
+    }
+
+    public SessionWriter(String name, OutputStream out, int maxQueuedBytes, OverflowPolicy policy, Runnable onClose) {
+        this(name, out, maxQueuedBytes, policy, defaultLagAction, onClose);
+    }
+
+    public SessionWriter(String name, OutputStream out, int maxQueuedBytes, OverflowPolicy policy,
+            LagAction lagAction, Runnable onClose) {
+        this.name = name;
+        this.out = new BufferedOutputStream(out, 16 * 1024);
+        this.maxQueuedBytes = maxQueuedBytes;
+        this.policy = policy;
+        this.lagAction = lagAction;
+        this.onClose = onClose;
+    }
+
+    /**
+     * Publica la sesión en las métricas y arranca el escritor. Va aparte del
+     * constructor para que ni el hilo ni los gauges vean un objeto a medio construir.
+     * @return this, para encadenar con el constructor
+     */
+    public SessionWriter start() {
+        LIVE.add(this);
+        Thread.ofVirtual().name("writer-" + name).start(this::drainLoop);
+        return this;
+    }
+
+    /**
+     * Canal del mismo socket que {@code out}; con él los archivos se envían con
+     * sendfile en lugar de copiarse por el buffer del escritor
+     */
+    public void useChannel(WritableByteChannel channel) {
+        this.channel = channel;
+    }
+
+    // ---- Envío (no bloquea) ----
+
+    @Override
+    public boolean println(String line) {
+        return offer(line.getBytes(StandardCharsets.UTF_8), NEWLINE);
+    }
+
+    /**
+     * Encola una línea de cabecera seguida de un cuerpo binario como un único frame
+     */
+    @Override
+    public boolean sendWithBody(String header, byte[] body) {
+        return offer((header + "\n").getBytes(StandardCharsets.UTF_8), body);
+    }
+
+    /**
+     * Solo la cabecera ocupa la cola; el archivo se lee al escribirlo. Es la respuesta
+     * a un pedido de la propia sesión, así que no se omite en modo pull.
+     */
+    @Override
+    public boolean sendFile(String header, MediaFiles.Range range) {
+        return offer(new Frame(new byte[][] { (header + "\n").getBytes(StandardCharsets.UTF_8) }, range), false);
+    }
+
+    /**
+     * Como {@link #sendFile} pero es un push: se omite en modo pull y cuenta para el retraso
+     */
+    @Override
+    public boolean pushFile(String header, MediaFiles.Range range) {
+        return offer(new Frame(new byte[][] { (header + "\n").getBytes(StandardCharsets.UTF_8) }, range), true);
+    }
+
+    /**
+     * Como {@link #println} pero espera a que haya espacio en lugar de aplicar la
+     * política de desbordamiento. Solo para respuestas grandes desde el propio hilo
+     * lector de la sesión (p. ej. HISTORY): el que pide es quien espera.
+     */
+    @Override
+    public boolean printlnAwait(String line) throws InterruptedException {
+        Frame frame = new Frame(new byte[][] { line.getBytes(StandardCharsets.UTF_8), NEWLINE });
+        lock.lock();
+        try {
+            while (!closed && spillOut == null && queuedBytes > 0 && queuedBytes + frame.length > maxQueuedBytes) {
+                space.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+        return offer(frame, false); // es la respuesta a un pedido, no un push
+    }
+
+    /**
+     * El encabezado sale de inmediato y cada parte se encola al recibirla. Una sesión
+     * que ya tiene otro cuerpo abierto, retrasada o con la cola llena no recibe el
+     * cuerpo (queda en el historial): acumularlo no contaría en el límite de la cola.
+     */
+    @Override
+    public BodyStream openStream(String header, int size) {
+        Frame frame = new Frame(new byte[][] { (header + "\n").getBytes(StandardCharsets.UTF_8) });
+        lock.lock();
+        try {
+            if (closed || pullMode || spillOut != null || streaming) {
+                return null;
+            }
+            if (isLagging(frame.enqueuedAt) || queuedBytes + heldBytes + frame.length > maxQueuedBytes) {
+                lagSkipped.increment();
+                return null;
+            }
+            streaming = true;
+            queue.add(frame);
+            queuedBytes += frame.length;
+            ready.signal();
+            return new PartStream(size);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean offer(byte[]... parts) {
+        return offer(new Frame(parts), true);
+    }
+
+    private boolean offer(Frame frame, boolean push) {
+        Metrics.Counter disconnectReason;
+        lock.lock();
+        try {
+            if (closed) {
+                return false;
+            }
+            if (push && pullMode) {
+                lagSkipped.increment();
+                return false;
+            }
+            if (push && isLagging(frame.enqueuedAt)) {
+                String lag = queuedBytes + " bytes, " + lagAgeMillis(frame.enqueuedAt) + " ms";
+                if (lagAction == LagAction.PULL) {
+                    pullMode = true;
+                    lagPull.increment();
+                    System.err.println("[WRITER] " + name + " is lagging (" + lag + "), switching to pull mode");
+                    return false;
+                }
+                System.err.println("[WRITER] " + name + " is lagging (" + lag + "), disconnecting");
+                disconnectReason = lagDisconnects;
+            } else if (spillOut == null && queuedBytes + heldBytes + frame.length <= maxQueuedBytes) {
+                if (streaming) {
+                    held.add(frame);
+                    heldBytes += frame.length;
+                } else {
+                    queue.add(frame);
+                    queuedBytes += frame.length;
+                    ready.signal();
+                }
+                return true;
+            } else if (policy == OverflowPolicy.DROP) {
+                dropped.increment();
+                return false;
+            } else if (policy == OverflowPolicy.SPILL && spill(frame)) {
+                ready.signal();
+                return true;
+            } else {
+                System.err.println("[WRITER] " + name + " outbound queue overflow, disconnecting");
+                disconnectReason = overflowDisconnects;
+            }
+        } finally {
+            lock.unlock();
+        }
+        disconnectReason.increment();
+        fail();
+        return false;
+    }
+
+    // Las partes de un cuerpo abierto no se descartan ni se derraman, y el emisor no espera:
+    // si no hay espacio la sesión se desconecta y el resto de la subida sigue sin ella
+    private boolean offerPart(Frame frame) {
+        lock.lock();
+        try {
+            if (closed) {
+                return false;
+            }
+            if (queuedBytes == 0 || queuedBytes + frame.length <= maxQueuedBytes) {
+                queue.add(frame);
+                queuedBytes += frame.length;
+                ready.signal();
+                return true;
+            }
+        } finally {
+            lock.unlock();
+        }
+        System.err.println("[WRITER] " + name + " too slow for a streamed body, disconnecting");
+        lagDisconnects.increment();
+        fail();
+        return false;
+    }
+
+    // Cierra el cuerpo abierto y libera, en orden, lo que esperaba detrás
+    private void endStream() {
+        lock.lock();
+        try {
+            streaming = false;
+            queue.addAll(held);
+            queuedBytes += heldBytes;
+            held.clear();
+            heldBytes = 0;
+            ready.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Se llama con el lock tomado
+    private boolean isLagging(long now) {
+        return queuedBytes > lagMaxBytes || ((queuedBytes > 0 || spillOut != null) && now - oldestPending(now) > lagMaxAgeNanos);
+    }
+
+    // Se llama con el lock tomado: instante de encolado del byte más viejo aún no entregado
+    private long oldestPending(long now) {
+        if (inFlightSince != 0) {
+            return inFlightSince;
+        }
+        Frame head = queue.peek();
+        if (head != null) {
+            return head.enqueuedAt;
+        }
+        return spillOut != null ? spillSince : now;
+    }
+
+    private long lagAgeMillis(long now) {
+        return queuedBytes == 0 && spillOut == null ? 0 : TimeUnit.NANOSECONDS.toMillis(now - oldestPending(now));
+    }
+
+    // Se llama con el lock tomado; a partir del primer frame derramado todo va al archivo para no perder el orden
+    private boolean spill(Frame frame) {
+        try {
+            if (spillOut == null) {
+                spillDir.mkdirs();
+                spillFile = File.createTempFile("spill-" + name.replaceAll("[^A-Za-z0-9_-]", "_") + "-", ".bin", spillDir);
+                spillOut = new BufferedOutputStream(new FileOutputStream(spillFile));
+                spillSince = frame.enqueuedAt;
+            }
+            for (byte[] part : frame.parts) {
+                spillOut.write(part);
+            }
+            if (frame.file != null) {
+                MediaFiles.transfer(frame.file, Channels.newChannel(spillOut));
+            }
+            spilled.increment();
+            return true;
+        } catch (IOException e) {
+            System.err.println("[WRITER] " + name + " spill failed: " + e.getMessage());
+            return false;
+        }
+    }
+
+    // ---- Hilo escritor ----
+
+    private void drainLoop() {
+        List<Frame> batch = new ArrayList<>();
+        try {
+            while (true) {
+                File pendingSpill = null;
+                lock.lock();
+                try {
+                    // Con un cuerpo abierto el derrame espera: sus bytes van detrás del cuerpo
+                    while (queue.isEmpty() && (spillOut == null || streaming) && !closed) {
+                        ready.await();
+                    }
+                    if (closed && queue.isEmpty()) {
+                        break;
+                    }
+                    batch.addAll(queue);
+                    queue.clear();
+                    // Los frames en memoria son anteriores al derrame: se escriben primero
+                    if (!batch.isEmpty()) {
+                        inFlightSince = batch.get(0).enqueuedAt;
+                    } else if (spillOut != null && !streaming) {
+                        inFlightSince = spillSince;
+                        spillOut.close();
+                        spillOut = null;
+                        pendingSpill = spillFile;
+                        spillFile = null;
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                long written = 0;
+                for (Frame frame : batch) {
+                    for (byte[] part : frame.parts) {
+                        out.write(part);
+                    }
+                    if (frame.file != null) {
+                        writeFile(frame.file);
+                    }
+                    written += frame.length;
+                }
+                batch.clear();
+                if (pendingSpill != null) {
+                    replay(pendingSpill);
+                }
+                out.flush(); // un flush por lote
+                release(written);
+            }
+        } catch (IOException e) {
+            System.err.println("[WRITER] " + name + " write failed: " + e.getMessage());
+            fail();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            LIVE.remove(this);
+            discardSpill();
+        }
+    }
+
+    private void writeFile(MediaFiles.Range range) throws IOException {
+        WritableByteChannel target = channel;
+        if (target == null) {
+            MediaFiles.transfer(range, Channels.newChannel(out));
+            return;
+        }
+        out.flush(); // lo ya encolado va antes que el archivo
+        MediaFiles.transfer(range, target);
+    }
+
+    private void release(long written) {
+        lock.lock();
+        try {
+            queuedBytes = Math.max(0, queuedBytes - written);
+            inFlightSince = 0;
+            if (pullMode && queue.isEmpty() && spillOut == null) {
+                // Se puso al día: vuelve a recibir pushes (lo perdido está en su buzón)
+                pullMode = false;
+                System.out.println("[WRITER] " + name + " caught up, push resumed");
+            }
+            space.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void replay(File file) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            in.transferTo(out);
+        } finally {
+            file.delete();
+        }
+    }
+
+    // ---- Cierre ----
+
+    /**
+     * Cierra la cola; lo ya encolado se termina de escribir
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            ready.signal();
+            space.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void fail() {
+        boolean first;
+        lock.lock();
+        try {
+            first = !closed;
+            closed = true;
+            queue.clear();
+            queuedBytes = 0;
+            held.clear();
+            heldBytes = 0;
+            ready.signal();
+            space.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (first && onClose != null) {
+            onClose.run();
+        }
+    }
+
+    private void discardSpill() {
+        lock.lock();
+        try {
+            if (spillOut != null) {
+                try {
+                    spillOut.close();
+                } catch (IOException ignored) {}
+                spillOut = null;
+            }
+            if (spillFile != null) {
+                spillFile.delete();
+                spillFile = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isClosed() {
+        lock.lock();
+        try {
+            return closed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return milisegundos que lleva esperando el frame más viejo sin entregar (0 si está al día)
+     */
+    public long getLagAgeMillis() {
+        lock.lock();
+        try {
+            return lagAgeMillis(System.nanoTime());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return true mientras la sesión está en modo pull por ir retrasada
+     */
+    public boolean isPullMode() {
+        lock.lock();
+        try {
+            return pullMode;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getQueuedBytes() {
+        lock.lock();
+        try {
+            return queuedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Cuerpo escrito a medida que llega
+     */
+    private final class PartStream implements BodyStream {
+        private long remaining;
+
+        PartStream(int size) {
+            this.remaining = size;
+        }
+
+        @Override
+        public boolean write(byte[] part) {
+            remaining -= part.length;
+            return offerPart(new Frame(new byte[][] { part }));
+        }
+
+        @Override
+        public void finish() {
+            endStream();
+        }
+
+        @Override
+        public void abort(String trailer) {
+            boolean open = true;
+            while (remaining > 0 && open) {
+                int n = (int) Math.min(remaining, ZEROS.length);
+                remaining -= n;
+                open = offerPart(new Frame(new byte[][] { n == ZEROS.length ? ZEROS : new byte[n] }));
+            }
+            if (open) {
+                offerPart(new Frame(new byte[][] { (trailer + "\n").getBytes(StandardCharsets.UTF_8) }));
+            }
+            endStream();
+        }
+    }
+
+    private static final class Frame {
+        final byte[][] parts;
+        final MediaFiles.Range file; // tramo de archivo tras las partes; no cuenta en la cola
+        final int length;
+        final long enqueuedAt = System.nanoTime();
+
+        Frame(byte[][] parts) {
+            this(parts, null);
+        }
+
+        Frame(byte[][] parts, MediaFiles.Range file) {
+            this.parts = parts;
+            this.file = file;
+            int total = 0;
+            for (byte[] part : parts) {
+                total += part.length;
+            }
+            this.length = total;
+        }
+    }
+}
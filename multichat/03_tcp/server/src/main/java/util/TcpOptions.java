@@ -0,0 +1,35 @@
+package util;
+
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+
+/**
+ * Opciones de socket de los servidores TCP (server.properties: tcp.nodelay,
+ * tcp.send.buffer.bytes, tcp.receive.buffer.bytes). Un tamaño 0 deja el valor del sistema.
+ */
+public record TcpOptions(boolean tcpNoDelay, int sendBufferBytes, int receiveBufferBytes) {
+
+    public static final TcpOptions DEFAULT = new TcpOptions(true, 0, 0);
+
+    /**
+     * El buffer de recepción se fija en el socket de escucha para que las conexiones
+     * aceptadas lo hereden antes del handshake (necesario para ventanas mayores a 64 KB)
+     */
+    public void apply(ServerSocket serverSocket) throws SocketException {
+        if (receiveBufferBytes > 0) {
+            serverSocket.setReceiveBufferSize(receiveBufferBytes);
+        }
+    }
+
+    public void apply(Socket socket) throws SocketException {
+        socket.setTcpNoDelay(tcpNoDelay);
+        socket.setKeepAlive(true);
+        if (sendBufferBytes > 0) {
+            socket.setSendBufferSize(sendBufferBytes);
+        }
+        if (receiveBufferBytes > 0) {
+            socket.setReceiveBufferSize(receiveBufferBytes);
+        }
+    }
+}
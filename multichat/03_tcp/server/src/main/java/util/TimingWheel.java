@@ -0,0 +1,179 @@
+package util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Rueda de tiempos con hash (hashed timing wheel) para cientos de miles de
+ * plazos aproximados: expiración de sesiones, lecturas ociosas, llamadas sin
+ * respuesta... Programar y cancelar es O(1); en cada tick solo se recorre
+ * el casillero actual, y cada plazo se visita una vez por vuelta de la rueda.
+ * La precisión es la de un tick.
+ *
+ * Las tareas corren en el hilo de la rueda: deben ser cortas y no bloquear.
+ */
+public final class TimingWheel {
+
+    private final String name;
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    // Los plazos nuevos entran por una cola y solo el hilo de la rueda toca los casilleros
+    private final Queue<Timeout> incoming = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean started = new AtomicBoolean();
+    private volatile boolean stopped;
+    private long startNanos;
+    private long tick;
+    private final Metrics.Counter expired;
+
+    /**
+     * @param tickMillis duración de un tick (precisión)
+     * @param ticksPerWheel casilleros; se redondea a potencia de 2
+     */
+    public TimingWheel(String name, long tickMillis, int ticksPerWheel) {
+        this.name = name;
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMillis));
+        int size = Integer.highestOneBit(Math.max(1, ticksPerWheel - 1)) << 1;
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = size - 1;
+        this.expired = Metrics.counter("wheel." + name + ".expired");
+    }
+
+    /**
+     * Programa {@code task} para dentro de {@code delayMillis}. El hilo de la rueda arranca con el primer plazo.
+     */
+    public Timeout schedule(Runnable task, long delayMillis) {
+        if (started.compareAndSet(false, true)) {
+            startNanos = System.nanoTime();
+            Thread worker = new Thread(this::run, "wheel-" + name);
+            worker.setDaemon(true);
+            worker.start();
+        }
+        Timeout timeout = new Timeout(task, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMillis)));
+        incoming.add(timeout);
+        return timeout;
+    }
+
+    public void stop() {
+        stopped = true;
+    }
+
+    private void run() {
+        while (!stopped) {
+            long deadline = startNanos + (tick + 1) * tickNanos;
+            long sleepNanos = deadline - System.nanoTime();
+            if (sleepNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            transferIncoming();
+            wheel[(int) (tick & mask)].expire(tick);
+            tick++;
+        }
+    }
+
+    private void transferIncoming() {
+        // Límite por tick para que una avalancha de altas no retrase el tick actual
+        for (int i = 0; i < 100_000; i++) {
+            Timeout timeout = incoming.poll();
+            if (timeout == null) {
+                return;
+            }
+            if (timeout.cancelled) {
+                continue;
+            }
+            long targetTick = Math.max(tick, (timeout.deadlineNanos - startNanos) / tickNanos);
+            timeout.remainingRounds = (targetTick - tick) / wheel.length;
+            wheel[(int) (targetTick & mask)].add(timeout);
+        }
+    }
+
+    /**
+     * Un plazo programado; cancelarlo es O(1) y lo retira la rueda al pasar por su casillero
+     */
+    public final class Timeout {
+        private final Runnable task;
+        private final long deadlineNanos;
+        private long remainingRounds;
+        private volatile boolean cancelled;
+        private Timeout prev;
+        private Timeout next;
+
+        private Timeout(Runnable task, long deadlineNanos) {
+            this.task = task;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    /**
+     * Lista doblemente enlazada de plazos; solo la usa el hilo de la rueda
+     */
+    private final class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        void add(Timeout timeout) {
+            timeout.prev = tail;
+            timeout.next = null;
+            if (tail == null) {
+                head = timeout;
+            } else {
+                tail.next = timeout;
+            }
+            tail = timeout;
+        }
+
+        void remove(Timeout timeout) {
+            if (timeout.prev != null) {
+                timeout.prev.next = timeout.next;
+            } else {
+                head = timeout.next;
+            }
+            if (timeout.next != null) {
+                timeout.next.prev = timeout.prev;
+            } else {
+                tail = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+        }
+
+        void expire(long currentTick) {
+            Timeout timeout = head;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.cancelled) {
+                    remove(timeout);
+                } else if (timeout.remainingRounds <= 0) {
+                    remove(timeout);
+                    expired.increment();
+                    try {
+                        timeout.task.run();
+                    } catch (RuntimeException e) {
+                        System.err.println("[WHEEL] " + name + " task failed at tick " + currentTick + ": " + e.getMessage());
+                    }
+                } else {
+                    timeout.remainingRounds--;
+                }
+                timeout = next;
+            }
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+/**
+ * Formato en disco de las notas de voz. Las notas en PCM de 16 bits se guardan
+ * en IMA-ADPCM (4 veces menos) detrás de una cabecera de 8 bytes: "IMA4" y el
+ * tamaño del PCM original.
+ *
+ * Solo se comprime lo que quien llama sabe que es PCM (la nota nativa
+ * VOICE_NOTE, o un formato "pcm" explícito): por los bytes no se distingue PCM
+ * de MP4, MP3 sin ID3 o AAC, y recodificarlos los rompería. Todo lo demás,
+ * las notas anteriores y un "PCM" con tamaño impar o cabecera de contenedor
+ * se guardan y sirven tal cual.
+ *
+ * Los clientes en vivo siguen recibiendo PCM; el PCM se reconstruye al pedirlo
+ * con {@link #readPcm}.
+ */
+public final class VoiceCodec {
+
+    public static final String RAW = "raw";
+    public static final String IMA_ADPCM = "ima-adpcm";
+    public static final int HEADER_BYTES = 8;
+
+    private static final byte[] MAGIC = {'I', 'M', 'A', '4'};
+    // Cabeceras de audio ya comprimido o envuelto: no son PCM crudo
+    private static final byte[][] CONTAINERS = {
+        {'R', 'I', 'F', 'F'}, {'O', 'g', 'g', 'S'}, {0x1A, 0x45, (byte) 0xDF, (byte) 0xA3},
+        {'f', 'L', 'a', 'C'}, {'I', 'D', '3'}, {'#', '!', 'A', 'M'}
+    };
+
+    private static volatile boolean enabled = true;
+    private static final Metrics.Counter pcmBytes = Metrics.counter("voice.codec.pcm.bytes");
+    private static final Metrics.Counter storedBytes = Metrics.counter("voice.codec.stored.bytes");
+
+    private VoiceCodec() {}
+
+    /**
+     * @param compress false = las notas nuevas se guardan en PCM, como antes
+     */
+    public static void configure(boolean compress) {
+        enabled = compress;
+    }
+
+    /**
+     * Codificador por partes delante de {@code target}
+     * @param size tamaño total de la nota que se va a escribir
+     * @param pcm si la nota es PCM de 16 bits; false = se escribe tal cual
+     */
+    public static Encoder encoder(OutputStream target, long size, boolean pcm) {
+        return new Encoder(target, size, pcm);
+    }
+
+    /**
+     * Nota completa en memoria, tal como se guardaría en disco
+     * @param pcm si la nota es PCM de 16 bits; false = se devuelve tal cual
+     */
+    public static byte[] encode(byte[] data, boolean pcm) {
+        if (!pcm) {
+            return data;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + HEADER_BYTES);
+        Encoder encoder = encoder(out, data.length, true);
+        try {
+            encoder.write(data, 0, data.length);
+            encoder.finish();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // ByteArrayOutputStream no falla
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Escribe la nota en {@code target} a medida que llega. No cierra {@code target}.
+     */
+    public static final class Encoder extends OutputStream {
+        private final OutputStream target;
+        private final long size;
+        private final ImaAdpcm.State state = new ImaAdpcm.State();
+        private final byte[] probe = new byte[4];
+        private final byte[] pending = new byte[4];
+        private byte[] buffer = new byte[0];
+        private int probed;
+        private int pendingBytes;
+        private Boolean compress; // null mientras no se han visto los primeros bytes
+        private boolean pcm;
+
+        private Encoder(OutputStream target, long size, boolean pcm) {
+            this.target = target;
+            this.size = size;
+            if (!pcm || size % 2 != 0 || size < probe.length) {
+                compress = false;
+            }
+        }
+
+        /**
+         * @return si la nota es PCM de 16 bits: declarada como tal y sin tamaño impar
+         *         ni cabecera de contenedor (válido después de {@link #finish})
+         */
+        public boolean isPcm() {
+            return pcm;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            pcmBytes.add(len);
+            if (compress == null) {
+                int n = Math.min(len, probe.length - probed);
+                System.arraycopy(b, off, probe, probed, n);
+                probed += n;
+                off += n;
+                len -= n;
+                if (probed < probe.length) {
+                    return;
+                }
+                decide();
+            }
+            if (compress) {
+                feed(b, off, len);
+            } else {
+                target.write(b, off, len);
+                storedBytes.add(len);
+            }
+        }
+
+        /**
+         * Vacía lo pendiente (la última muestra impar se completa con un nibble en cero)
+         */
+        public void finish() throws IOException {
+            if (compress == null) {
+                decide();
+            }
+            if (compress && pendingBytes > 0) {
+                Arrays.fill(pending, pendingBytes, pending.length, (byte) 0);
+                ImaAdpcm.encode(state, pending, 0, pending.length, pending, 0);
+                target.write(pending, 0, 1);
+                storedBytes.add(1);
+                pendingBytes = 0;
+            }
+        }
+
+        private void decide() throws IOException {
+            pcm = probed == probe.length && !isContainer(probe, probed);
+            compress = enabled && pcm;
+            if (compress) {
+                byte[] header = Arrays.copyOf(MAGIC, HEADER_BYTES);
+                header[4] = (byte) (size >>> 24);
+                header[5] = (byte) (size >>> 16);
+                header[6] = (byte) (size >>> 8);
+                header[7] = (byte) size;
+                target.write(header);
+                storedBytes.add(HEADER_BYTES);
+                feed(probe, 0, probed);
+            } else {
+                target.write(probe, 0, probed);
+                storedBytes.add(probed);
+            }
+        }
+
+        // ADPCM por grupos de 4 bytes (dos muestras); el resto espera a la siguiente parte
+        private void feed(byte[] b, int off, int len) throws IOException {
+            if (pendingBytes > 0) {
+                int n = Math.min(len, pending.length - pendingBytes);
+                System.arraycopy(b, off, pending, pendingBytes, n);
+                pendingBytes += n;
+                off += n;
+                len -= n;
+                if (pendingBytes < pending.length) {
+                    return;
+                }
+                ImaAdpcm.encode(state, pending, 0, pending.length, pending, 0);
+                target.write(pending, 0, 1);
+                storedBytes.add(1);
+                pendingBytes = 0;
+            }
+            int whole = len & ~3;
+            if (whole > 0) {
+                if (buffer.length < whole / 4) {
+                    buffer = new byte[whole / 4];
+                }
+                int n = ImaAdpcm.encode(state, b, off, whole, buffer, 0);
+                target.write(buffer, 0, n);
+                storedBytes.add(n);
+            }
+            System.arraycopy(b, off + whole, pending, 0, len - whole);
+            pendingBytes = len - whole;
+        }
+    }
+
+    /**
+     * Mismo criterio que el codificador para una nota declarada PCM: tamaño par y
+     * sin cabecera de contenedor
+     */
+    public static boolean isPcm(byte[] data, boolean pcm) {
+        return pcm && data.length % 2 == 0 && data.length >= 4 && !isContainer(data, data.length);
+    }
+
+    private static boolean isContainer(byte[] head, int len) {
+        for (byte[] magic : CONTAINERS) {
+            if (len >= magic.length && Arrays.equals(head, 0, magic.length, magic, 0, magic.length)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // ---- Lectura ----
+
+    /**
+     * @return {@link #IMA_ADPCM} o {@link #RAW}
+     */
+    public static String codec(File file) throws IOException {
+        return pcmLength(file) >= 0 ? IMA_ADPCM : RAW;
+    }
+
+    /**
+     * @return tamaño del PCM original, o -1 si el archivo no está en ADPCM
+     */
+    public static long pcmLength(File file) throws IOException {
+        if (file.length() < HEADER_BYTES) {
+            return -1;
+        }
+        byte[] header = new byte[HEADER_BYTES];
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            in.readFully(header);
+        }
+        if (!Arrays.equals(header, 0, MAGIC.length, MAGIC, 0, MAGIC.length)) {
+            return -1;
+        }
+        return ((header[4] & 0xFFL) << 24) | ((header[5] & 0xFF) << 16) | ((header[6] & 0xFF) << 8) | (header[7] & 0xFF);
+    }
+
+    /**
+     * Reconstruye un tramo del PCM de una nota en ADPCM. El flujo no tiene puntos
+     * de acceso: se decodifica desde el principio hasta el final del tramo.
+     * @param offset posición en el PCM; el tramo ya debe estar dentro de {@link #pcmLength}
+     */
+    public static byte[] readPcm(File file, long offset, int length) throws IOException {
+        byte[] result = new byte[length];
+        long end = offset + length;
+        ImaAdpcm.State state = new ImaAdpcm.State();
+        byte[] in = new byte[16 * 1024];
+        byte[] pcm = new byte[in.length * 4];
+        long position = 0; // posición en el PCM del inicio de pcm[]
+        try (InputStream stream = new FileInputStream(file)) {
+            stream.skipNBytes(HEADER_BYTES);
+            while (position < end) {
+                int n = stream.readNBytes(in, 0, (int) Math.min(in.length, (end - position + 3) / 4));
+                if (n == 0) {
+                    throw new IOException("media truncated: " + file.getName());
+                }
+                int decoded = ImaAdpcm.decode(state, in, 0, n, pcm, 0);
+                long from = Math.max(offset, position);
+                long to = Math.min(end, position + decoded);
+                if (from < to) {
+                    System.arraycopy(pcm, (int) (from - position), result, (int) (from - offset), (int) (to - from));
+                }
+                position += decoded;
+            }
+        }
+        return result;
+    }
+}
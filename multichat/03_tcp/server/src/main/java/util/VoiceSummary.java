@@ -0,0 +1,106 @@
+package util;
+
+import java.util.Base64;
+
+/**
+ * Duración y forma de onda de una nota de voz en PCM de 16 bits, calculadas
+ * una vez al guardarla para que los clientes dibujen la burbuja sin descargar
+ * el audio. La forma de onda son hasta {@link #BARS} pares (pico, RMS) de un
+ * byte cada uno sobre la escala completa, en base64url sin relleno: no lleva
+ * comas ni dos puntos, así que va tal cual en el registro del historial.
+ */
+public record VoiceSummary(int durationMs, String waveform) {
+
+    public static final int BARS = 64;
+
+    private static volatile int sampleRate = 16_000;
+
+    /**
+     * Frecuencia de muestreo del PCM que envían los clientes (las notas no la llevan)
+     */
+    public static void configure(int sampleRateHz) {
+        sampleRate = sampleRateHz;
+    }
+
+    public static VoiceSummary of(byte[] pcm) {
+        Builder builder = new Builder(pcm.length);
+        builder.update(pcm, 0, pcm.length);
+        return builder.finish();
+    }
+
+    /**
+     * Campos que se agregan al registro voice_note del historial
+     */
+    public String recordFields() {
+        return ",dur:" + durationMs + ",wave:" + waveform;
+    }
+
+    /**
+     * Resumen calculado por partes, a medida que llega la nota
+     */
+    public static final class Builder {
+        private final long samples;
+        private final long samplesPerBar;
+        private final byte[] bars;
+        private int bar;
+        private long inBar;
+        private int peak;
+        private double sumSquares;
+        private int carry = -1; // byte bajo de una muestra partida entre dos partes
+
+        /**
+         * @param pcmBytes tamaño total de la nota
+         */
+        public Builder(long pcmBytes) {
+            samples = pcmBytes / 2;
+            samplesPerBar = Math.max(1, (samples + BARS - 1) / BARS);
+            bars = new byte[2 * (int) ((samples + samplesPerBar - 1) / samplesPerBar)];
+        }
+
+        public void update(byte[] b, int off, int len) {
+            int i = off;
+            int end = off + len;
+            if (carry >= 0 && i < end) {
+                add((short) (carry | (b[i++] << 8)));
+                carry = -1;
+            }
+            for (; i + 1 < end; i += 2) {
+                add((short) ((b[i] & 0xFF) | (b[i + 1] << 8)));
+            }
+            if (i < end) {
+                carry = b[i] & 0xFF;
+            }
+        }
+
+        private void add(int sample) {
+            if (bar >= bars.length) {
+                return; // más bytes de los anunciados
+            }
+            peak = Math.max(peak, Math.abs(sample));
+            sumSquares += (double) sample * sample;
+            if (++inBar == samplesPerBar) {
+                closeBar();
+            }
+        }
+
+        private void closeBar() {
+            bars[bar++] = scale(peak);
+            bars[bar++] = scale(Math.sqrt(sumSquares / inBar));
+            inBar = 0;
+            peak = 0;
+            sumSquares = 0;
+        }
+
+        private static byte scale(double amplitude) {
+            return (byte) Math.min(255, Math.round(amplitude * 255 / 32767));
+        }
+
+        public VoiceSummary finish() {
+            if (inBar > 0 && bar < bars.length) {
+                closeBar();
+            }
+            int duration = (int) Math.min(Integer.MAX_VALUE, samples * 1000 / sampleRate);
+            return new VoiceSummary(duration, Base64.getUrlEncoder().withoutPadding().encodeToString(bars));
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import util.MultiAcceptor;
+import util.TcpOptions;
+
+/**
+ * Conexiones aceptadas por segundo con un solo socket de escucha frente a
+ * varios con SO_REUSEPORT. Los clientes abren y cierran conexiones en bucle,
+ * como el proxy REST que abre una por petición.
+ *
+ * Uso: ./gradlew :server:benchmark -Pbench=AcceptRateBenchmark
+ * Argumentos opcionales: aceptadores clientes segundos (por defecto núcleos 8 5)
+ */
+public class AcceptRateBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int acceptors = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        System.out.printf("Núcleos: %d, clientes: %d, duración: %d s, SO_REUSEPORT: %s%n",
+                Runtime.getRuntime().availableProcessors(), clients, seconds, MultiAcceptor.reusePortSupported());
+
+        // Calentamiento
+        run(1, clients, 1);
+
+        report("1 aceptador", run(1, clients, seconds), seconds);
+        if (acceptors > 1) {
+            report(acceptors + " aceptadores", run(acceptors, clients, seconds), seconds);
+        }
+    }
+
+    private static void report(String name, long accepted, int seconds) {
+        System.out.printf("%-16s %10.0f accepts/s%n", name, accepted / (double) seconds);
+    }
+
+    private static long run(int acceptors, int clients, int seconds) throws Exception {
+        LongAdder accepted = new LongAdder();
+        MultiAcceptor acceptor = new MultiAcceptor("bench", 0, acceptors, TcpOptions.DEFAULT);
+        acceptor.start(socket -> {
+            accepted.increment();
+            try {
+                socket.close();
+            } catch (IOException ignored) {}
+        });
+        int port = acceptor.getLocalPort();
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        AtomicLong failures = new AtomicLong();
+        Thread[] threads = new Thread[clients];
+        for (int i = 0; i < clients; i++) {
+            threads[i] = new Thread(() -> {
+                while (System.nanoTime() < deadline) {
+                    try (Socket socket = new Socket()) {
+                        socket.setSoLinger(true, 0); // RST al cerrar: sin TIME_WAIT que agote puertos
+                        socket.connect(new InetSocketAddress("127.0.0.1", port), 1000);
+                    } catch (IOException e) {
+                        failures.incrementAndGet();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        acceptor.close();
+        if (failures.get() > 0) {
+            System.out.println("  conexiones fallidas: " + failures.get());
+        }
+        return accepted.sum();
+    }
+}
@@ -0,0 +1,159 @@
+package benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import util.BufferPool;
+import util.FrameDecoder;
+
+/**
+ * Llamadas a read() (una por syscall en un socket real) y bytes asignados por
+ * comando del protocolo TCP heredado: lectura byte a byte con arreglo nuevo
+ * por nota de voz (implementación anterior) frente a FrameDecoder.
+ *
+ * Uso: ./gradlew :server:benchmark -Pbench=FrameDecoderBenchmark
+ * Argumentos opcionales: comandos tamañoNotaDeVoz porcentajeNotas (por defecto 200000 4000 10)
+ */
+public class FrameDecoderBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int commands = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int voiceSize = args.length > 1 ? Integer.parseInt(args[1]) : 4000;
+        int voicePercent = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        byte[] stream = buildStream(commands, voiceSize, voicePercent);
+        System.out.printf("Comandos: %d, notas de voz: %d%% de %d bytes, flujo: %.1f MB%n",
+                commands, voicePercent, voiceSize, stream.length / 1_048_576.0);
+
+        // Calentamiento
+        for (int i = 0; i < 3; i++) {
+            runLegacy(new CountingInputStream(stream));
+            runDecoder(new CountingInputStream(stream), false);
+        }
+
+        measure("Byte a byte + readNBytes", commands, stream, in -> runLegacy(in));
+        measure("FrameDecoder (con reenvío)", commands, stream, in -> runDecoder(in, false));
+        measure("FrameDecoder (sin destinatarios)", commands, stream, in -> runDecoder(in, true));
+    }
+
+    private interface Run {
+        void run(CountingInputStream in) throws IOException;
+    }
+
+    private static void measure(String name, int commands, byte[] stream, Run run) throws IOException {
+        CountingInputStream in = new CountingInputStream(stream);
+        long allocBefore = allocatedBytes();
+        long start = System.nanoTime();
+        run.run(in);
+        long elapsed = System.nanoTime() - start;
+        long allocated = allocatedBytes() - allocBefore;
+        System.out.printf("%-34s read(): %8.3f/cmd  asignado: %8.1f B/cmd  tiempo: %6.1f ms%n",
+                name, in.reads / (double) commands, allocated / (double) commands, elapsed / 1e6);
+    }
+
+    // ---- Implementación anterior (TCPConnection.Handler) ----
+
+    private static void runLegacy(InputStream in) throws IOException {
+        String line;
+        while ((line = readAsciiLine(in)) != null) {
+            if (line.startsWith("VOICE_NOTE_USER")) {
+                int size = Integer.parseInt(line.substring(line.lastIndexOf(' ') + 1));
+                readNBytes(in, size);
+            }
+        }
+    }
+
+    private static String readAsciiLine(InputStream is) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(128);
+        while (true) {
+            int b = is.read();
+            if (b < 0) { return (baos.size() == 0) ? null : baos.toString(StandardCharsets.UTF_8); }
+            if (b == '\n') break;
+            if (b != '\r') baos.write(b);
+        }
+        return baos.toString(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readNBytes(InputStream in, int size) throws IOException {
+        byte[] buf = new byte[size];
+        int off = 0;
+        while (off < size) {
+            int r = in.read(buf, off, size - off);
+            if (r < 0) throw new EOFException();
+            off += r;
+        }
+        return buf;
+    }
+
+    // ---- FrameDecoder ----
+
+    private static void runDecoder(InputStream in, boolean noRecipients) throws IOException {
+        BufferPool pool = new BufferPool(16 * 1024, 4);
+        try (FrameDecoder decoder = new FrameDecoder(in, pool)) {
+            String line;
+            while ((line = decoder.readLine()) != null) {
+                if (line.startsWith("VOICE_NOTE_USER")) {
+                    int size = Integer.parseInt(line.substring(line.lastIndexOf(' ') + 1));
+                    if (noRecipients) {
+                        decoder.transferBody(size, OutputStream.nullOutputStream());
+                    } else {
+                        decoder.readBody(size);
+                    }
+                }
+            }
+        }
+    }
+
+    // ---- Utilidades ----
+
+    private static byte[] buildStream(int commands, int voiceSize, int voicePercent) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Random random = new Random(42);
+        byte[] voice = new byte[voiceSize];
+        random.nextBytes(voice);
+        for (int i = 0; i < commands; i++) {
+            if (random.nextInt(100) < voicePercent) {
+                out.writeBytes(("VOICE_NOTE_USER luis " + voiceSize + "\n").getBytes(StandardCharsets.UTF_8));
+                out.writeBytes(voice);
+            } else {
+                out.writeBytes(("MSG_USER luis mensaje de prueba número " + i + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+
+    /**
+     * Cuenta las llamadas a read(); en un socket real cada una es una syscall.
+     * Cada read() entrega como máximo 64 KB, como un socket con su buffer de recepción.
+     */
+    private static final class CountingInputStream extends ByteArrayInputStream {
+        long reads;
+
+        CountingInputStream(byte[] data) {
+            super(data);
+        }
+
+        @Override
+        public synchronized int read() {
+            reads++;
+            return super.read();
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            reads++;
+            return super.read(b, off, Math.min(len, 64 * 1024));
+        }
+    }
+}
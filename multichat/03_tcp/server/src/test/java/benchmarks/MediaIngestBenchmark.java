@@ -0,0 +1,112 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import util.MediaStore;
+
+/**
+ * Ingesta de notas de voz: un archivo plano por nota en un solo directorio
+ * (implementación anterior) frente a MediaStore, que calcula el SHA-256 de
+ * cada nota, la guarda en el árbol ab/cd/ y anota sus referencias. Una parte
+ * de las notas se repite (reenvíos a varios chats) para medir la deduplicación.
+ *
+ * Uso: ./gradlew :server:benchmark -Pbench=MediaIngestBenchmark
+ * Argumentos opcionales: notas tamañoNota porcentajeRepetidas (por defecto 5000 32000 20)
+ */
+public class MediaIngestBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int notes = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int size = args.length > 1 ? Integer.parseInt(args[1]) : 32_000;
+        int repeatPercent = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+
+        byte[][] payloads = buildPayloads(notes, size, repeatPercent);
+        System.out.printf("Notas: %d de %d bytes, repetidas: %d%%%n", notes, size, repeatPercent);
+
+        // Calentamiento
+        runFlat(payloads);
+        runStore(payloads);
+
+        report("Archivo plano por nota", notes, size, runFlat(payloads));
+        report("MediaStore (hash + árbol)", notes, size, runStore(payloads));
+    }
+
+    private record Result(long nanos, long files, long bytesOnDisk) {}
+
+    private static void report(String name, int notes, int size, Result r) {
+        double seconds = r.nanos / 1e9;
+        System.out.printf("%-28s %9.0f notas/s %8.1f MB/s  archivos: %6d  en disco: %7.1f MB%n",
+                name, notes / seconds, notes * (double) size / 1_048_576.0 / seconds,
+                r.files, r.bytesOnDisk / 1_048_576.0);
+    }
+
+    private static Result runFlat(byte[][] payloads) throws IOException {
+        Path dir = Files.createTempDirectory("ingest-flat");
+        try {
+            long start = System.nanoTime();
+            for (int i = 0; i < payloads.length; i++) {
+                try (FileOutputStream fos = new FileOutputStream(new File(dir.toFile(), "vn_" + i + ".raw"))) {
+                    fos.write(payloads[i]);
+                }
+            }
+            return new Result(System.nanoTime() - start, countFiles(dir), diskBytes(dir));
+        } finally {
+            delete(dir);
+        }
+    }
+
+    private static Result runStore(byte[][] payloads) throws IOException {
+        Path dir = Files.createTempDirectory("ingest-store");
+        try {
+            MediaStore store = new MediaStore(dir.toFile());
+            long start = System.nanoTime();
+            for (byte[] payload : payloads) {
+                store.put(payload, 2);
+            }
+            long elapsed = System.nanoTime() - start;
+            // refs.log no es una nota
+            return new Result(elapsed, countFiles(dir) - 1, diskBytes(dir) - Files.size(dir.resolve("refs.log")));
+        } finally {
+            delete(dir);
+        }
+    }
+
+    private static byte[][] buildPayloads(int notes, int size, int repeatPercent) {
+        Random random = new Random(42);
+        byte[][] payloads = new byte[notes][];
+        for (int i = 0; i < notes; i++) {
+            if (i > 0 && random.nextInt(100) < repeatPercent) {
+                payloads[i] = payloads[random.nextInt(i)];
+            } else {
+                payloads[i] = new byte[size];
+                random.nextBytes(payloads[i]);
+            }
+        }
+        return payloads;
+    }
+
+    private static long countFiles(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            return files.filter(Files::isRegularFile).count();
+        }
+    }
+
+    private static long diskBytes(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            return files.filter(Files::isRegularFile).mapToLong(p -> p.toFile().length()).sum();
+        }
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import services.MembershipIndex;
+
+/**
+ * Huella de memoria de la pertenencia a grupos: conjuntos de String
+ * (representación anterior, con índice inverso) frente a MembershipIndex
+ * con ids enteros.
+ *
+ * Uso: ./gradlew :server:benchmark -Pbench=MembershipFootprintBenchmark
+ * Argumentos opcionales: usuarios grupos miembrosPorGrupo (por defecto 100000 10000 50)
+ */
+public class MembershipFootprintBenchmark {
+
+    public static void main(String[] args) {
+        int userCount = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int groupCount = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+        int membersPerGroup = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+
+        // Los nombres se crean antes de medir: ambas representaciones los comparten
+        List<String> userNames = new ArrayList<>(userCount);
+        for (int i = 0; i < userCount; i++) {
+            userNames.add("user" + i);
+        }
+        List<String> groupNames = new ArrayList<>(groupCount);
+        for (int i = 0; i < groupCount; i++) {
+            groupNames.add("group" + i);
+        }
+
+        System.out.printf("Usuarios: %d, grupos: %d, miembros por grupo: %d%n",
+                userCount, groupCount, membersPerGroup);
+
+        long baseline = usedHeap();
+        Map<String, Set<String>> groups = new ConcurrentHashMap<>();
+        Map<String, Set<String>> userGroups = new ConcurrentHashMap<>();
+        Random random = new Random(42);
+        for (String group : groupNames) {
+            Set<String> members = ConcurrentHashMap.newKeySet();
+            groups.put(group, members);
+            for (int m = 0; m < membersPerGroup; m++) {
+                String user = userNames.get(random.nextInt(userCount));
+                members.add(user);
+                userGroups.computeIfAbsent(user, k -> ConcurrentHashMap.newKeySet()).add(group);
+            }
+        }
+        long stringBytes = usedHeap() - baseline;
+        report("Set<String> + índice inverso", stringBytes, groups.size());
+        groups = null;
+        userGroups = null;
+
+        baseline = usedHeap();
+        MembershipIndex index = new MembershipIndex();
+        random = new Random(42);
+        for (String group : groupNames) {
+            index.createGroup(group);
+            for (int m = 0; m < membersPerGroup; m++) {
+                index.add(group, userNames.get(random.nextInt(userCount)));
+            }
+        }
+        long intBytes = usedHeap() - baseline;
+        report("MembershipIndex (int[])", intBytes, index.groupNames().size());
+
+        System.out.printf("Reducción: %.1fx%n", (double) stringBytes / Math.max(1, intBytes));
+    }
+
+    private static void report(String label, long bytes, int groups) {
+        System.out.printf("%-30s %8.1f MB (%d grupos)%n", label, bytes / (1024.0 * 1024.0), groups);
+    }
+
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
@@ -0,0 +1,107 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Random;
+
+import util.ImaAdpcm;
+import util.VoiceCodec;
+
+/**
+ * Rendimiento del códec de notas de voz: codificación IMA-ADPCM por partes
+ * (como llega una subida por TCP), decodificación en memoria y reconstrucción
+ * del PCM desde el archivo guardado. También informa la reducción de tamaño y
+ * la relación señal/ruido sobre voz sintética.
+ *
+ * Uso: ./gradlew :server:benchmark -Pbench=VoiceCodecBenchmark
+ * Argumentos opcionales: segundosDeAudio muestrasPorSegundo repeticiones (por defecto 60 16000 20)
+ */
+public class VoiceCodecBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 60;
+        int rate = args.length > 1 ? Integer.parseInt(args[1]) : 16_000;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+
+        byte[] pcm = speech(seconds * rate, rate);
+        byte[] stored = VoiceCodec.encode(pcm, true);
+        byte[] adpcm = new byte[pcm.length / 4];
+        System.arraycopy(stored, VoiceCodec.HEADER_BYTES, adpcm, 0, adpcm.length);
+        File file = File.createTempFile("vn_bench", ".raw");
+        file.deleteOnExit();
+        Files.write(file.toPath(), stored);
+
+        byte[] decoded = new byte[pcm.length];
+        ImaAdpcm.decode(new ImaAdpcm.State(), adpcm, 0, adpcm.length, decoded, 0);
+        System.out.printf("Audio: %d s a %d Hz, PCM %.1f MB -> guardado %.1f MB (%.2fx), SNR %.1f dB%n",
+                seconds, rate, pcm.length / 1_048_576.0, stored.length / 1_048_576.0,
+                pcm.length / (double) stored.length, snr(pcm, decoded));
+
+        // Calentamiento
+        for (int i = 0; i < 3; i++) {
+            encodeStreaming(pcm);
+            ImaAdpcm.decode(new ImaAdpcm.State(), adpcm, 0, adpcm.length, decoded, 0);
+            VoiceCodec.readPcm(file, 0, pcm.length);
+        }
+
+        measure("Codificar (partes de 8 KB)", pcm.length, rate, rounds, () -> encodeStreaming(pcm));
+        measure("Decodificar en memoria", pcm.length, rate, rounds,
+                () -> ImaAdpcm.decode(new ImaAdpcm.State(), adpcm, 0, adpcm.length, decoded, 0));
+        measure("PCM desde archivo (readPcm)", pcm.length, rate, rounds, () -> VoiceCodec.readPcm(file, 0, pcm.length));
+    }
+
+    private interface Run {
+        void run() throws IOException;
+    }
+
+    // MB/s medidos sobre el PCM (lo que entra al codificar y lo que sale al decodificar)
+    private static void measure(String name, int pcmBytes, int rate, int rounds, Run run) throws IOException {
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            run.run();
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%-30s %8.1f MB/s de PCM  (%6.0fx tiempo real)%n", name,
+                pcmBytes * (double) rounds / 1_048_576.0 / elapsed, pcmBytes * (double) rounds / (rate * 2.0) / elapsed);
+    }
+
+    private static void encodeStreaming(byte[] pcm) throws IOException {
+        VoiceCodec.Encoder encoder = VoiceCodec.encoder(OutputStream.nullOutputStream(), pcm.length, true);
+        for (int off = 0; off < pcm.length; off += 8192) {
+            encoder.write(pcm, off, Math.min(8192, pcm.length - off));
+        }
+        encoder.finish();
+    }
+
+    // Dos formantes que se deslizan, con envolvente silábica y algo de ruido
+    private static byte[] speech(int samples, int rate) {
+        Random random = new Random(42);
+        byte[] pcm = new byte[samples * 2];
+        for (int i = 0; i < samples; i++) {
+            double t = i / (double) rate;
+            double envelope = Math.max(0, Math.sin(2 * Math.PI * 4 * t));
+            double f1 = 300 + 200 * Math.sin(2 * Math.PI * 0.7 * t);
+            double f2 = 1500 + 600 * Math.sin(2 * Math.PI * 0.3 * t);
+            int s = (int) (envelope * (8000 * Math.sin(2 * Math.PI * f1 * t) + 3000 * Math.sin(2 * Math.PI * f2 * t))
+                    + random.nextGaussian() * 150);
+            s = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, s));
+            pcm[2 * i] = (byte) s;
+            pcm[2 * i + 1] = (byte) (s >> 8);
+        }
+        return pcm;
+    }
+
+    private static double snr(byte[] original, byte[] decoded) {
+        double signal = 0;
+        double noise = 0;
+        for (int i = 0; i < original.length; i += 2) {
+            int a = (short) ((original[i] & 0xFF) | (original[i + 1] << 8));
+            int b = (short) ((decoded[i] & 0xFF) | (decoded[i + 1] << 8));
+            signal += (double) a * a;
+            noise += (double) (a - b) * (a - b);
+        }
+        return 10 * Math.log10(signal / noise);
+    }
+}
@@ -0,0 +1,209 @@
+package chat;
+
+import java.lang.reflect.Proxy;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import com.zeroc.Ice.CloseCallback;
+import com.zeroc.Ice.Communicator;
+import com.zeroc.Ice.Connection;
+import com.zeroc.Ice.ConnectionLostException;
+import com.zeroc.Ice.Current;
+import com.zeroc.Ice.Util;
+
+import services.CallRegistry;
+import services.ChatServicesImpl;
+import util.FrameDecoder;
+
+/**
+ * Tests para ChatServiceImpl
+ */
+class ChatServiceImplTest {
+
+    private ChatServicesImpl chatServices;
+    private ChatServiceImpl service;
+
+    @BeforeEach
+    void setUp() {
+        chatServices = new ChatServicesImpl();
+        service = new ChatServiceImpl(chatServices, 1);
+    }
+
+    /**
+     * Conexión Ice falsa: solo guarda el callback de cierre para poder dispararlo
+     */
+    static final class FakeConnection {
+        CloseCallback closeCallback;
+        final Connection proxy = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[] {Connection.class}, (self, method, args) -> switch (method.getName()) {
+                    case "setCloseCallback" -> {
+                        closeCallback = (CloseCallback) args[0];
+                        yield null;
+                    }
+                    case "toString" -> "fake-connection@" + System.identityHashCode(self);
+                    case "hashCode" -> System.identityHashCode(self);
+                    case "equals" -> self == args[0];
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+
+        void close() {
+            closeCallback.closed(proxy);
+        }
+    }
+
+    private static Current current(Connection con, String ctxUser) {
+        Current current = new Current();
+        current.con = con;
+        current.ctx = ctxUser != null ? Map.of("user", ctxUser) : Map.of();
+        return current;
+    }
+
+    private static <T> T await(java.util.concurrent.CompletionStage<T> stage) throws Exception {
+        return stage.toCompletableFuture().get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    @DisplayName("La subida por partes y sendAudio usan el usuario ligado a la conexión, no el que dice el cliente")
+    void testAudioSenderIsBoundIdentity() throws Exception {
+        String ana = "ana" + System.nanoTime();
+        String luis = "luis" + System.nanoTime();
+        FakeConnection con = new FakeConnection();
+        await(service.sendMessageAsync(luis, "hola", current(con.proxy, ana))); // liga la conexión a ana
+
+        byte[] audio = new byte[100];
+        String uploadId = await(service.beginAudioUploadAsync(luis, audio.length, current(con.proxy, null)));
+        await(service.uploadAudioChunkAsync(uploadId, 0, audio, current(con.proxy, null)));
+        Message msg = await(service.finishAudioUploadAsync(uploadId, current(con.proxy, null)));
+        assertEquals(ana, msg.sender);
+
+        // El "sender" del payload no reemplaza la identidad de una conexión ligada
+        String payload = "{\"sender\":\"mallory\",\"data\":\"" + Base64.getEncoder().encodeToString(audio) + "\"}";
+        await(service.sendAudioAsync(luis, payload, current(con.proxy, null)));
+        List<String> history = chatServices.getHistory(luis);
+        assertEquals(3, history.size());
+        assertTrue(history.stream().allMatch(line -> line.contains("from:" + ana + ",")), history.toString());
+    }
+
+    @Test
+    @DisplayName("Una conexión sin usuario se rechaza con NotAuthenticatedException")
+    void testUnboundConnectionRejected() throws Exception {
+        String luis = "luis" + System.nanoTime();
+        FakeConnection con = new FakeConnection();
+        String payload = "{\"sender\":\"mallory\",\"data\":\"" + Base64.getEncoder().encodeToString(new byte[10]) + "\"}";
+
+        assertThrows(NotAuthenticatedException.class, () -> service.sendMessageAsync(luis, "hola", current(con.proxy, null)));
+        assertThrows(NotAuthenticatedException.class, () -> service.sendAudioAsync(luis, payload, current(con.proxy, null)));
+        assertThrows(NotAuthenticatedException.class, () -> service.beginAudioUploadAsync(luis, 10, current(con.proxy, "")));
+        assertTrue(chatServices.getHistory(luis).isEmpty(), "Nada se guarda a nombre de nadie");
+    }
+
+    @Test
+    @DisplayName("La identidad ligada gana al contexto y se suelta al cerrarse la conexión")
+    void testIdentityBindingReleasedOnClose() throws Exception {
+        String ana = "ana" + System.nanoTime();
+        String eva = "eva" + System.nanoTime();
+        String luis = "luis" + System.nanoTime();
+        FakeConnection con = new FakeConnection();
+
+        await(service.sendMessageAsync(luis, "uno", current(con.proxy, ana)));
+        await(service.sendMessageAsync(luis, "dos", current(con.proxy, null)));
+        await(service.sendMessageAsync(luis, "tres", current(con.proxy, eva))); // ya ligada a ana
+        con.close();
+        await(service.sendMessageAsync(luis, "cuatro", current(con.proxy, eva))); // se liga de nuevo
+
+        List<String> history = chatServices.getHistory(luis);
+        assertEquals(4, history.size());
+        assertTrue(history.get(0).contains("from:" + ana + ",") && history.get(1).contains("from:" + ana + ",")
+                && history.get(2).contains("from:" + ana + ","), history.toString());
+        assertTrue(history.get(3).contains("from:" + eva + ","), history.toString());
+    }
+
+    @Test
+    @DisplayName("Un suscriptor con la cola llena sale de la difusión")
+    void testSubscriberEvictedAtMaxPending() throws Exception {
+        Communicator communicator = Util.initialize();
+        try {
+            String ana = "ana" + System.nanoTime();
+            String luis = "luis" + System.nanoTime();
+            IceSubscriberTest.StubCallback callback = new IceSubscriberTest.StubCallback(communicator);
+            service.setCallbackMaxPending(1);
+            service.subscribe(luis, callback.proxy, current(new FakeConnection().proxy, null));
+            Current anaCurrent = current(new FakeConnection().proxy, ana);
+
+            await(service.sendMessageAsync(luis, "m1", anaCurrent)); // en curso
+            IceSubscriberTest.StubCallback.Invocation first = callback.next();
+            assertEquals("m1", IceSubscriberTest.decode(communicator, first).content);
+            await(service.sendMessageAsync(luis, "m2", anaCurrent)); // en cola
+            await(service.sendMessageAsync(luis, "m3", anaCurrent)); // cola llena: se le quita
+            first.reply().complete(null);
+            IceSubscriberTest.StubCallback.Invocation second = callback.next();
+            assertEquals("m2", IceSubscriberTest.decode(communicator, second).content);
+            second.reply().complete(null);
+
+            await(service.sendMessageAsync(luis, "m4", anaCurrent));
+            callback.assertIdle();
+            assertEquals(4, chatServices.getHistory(luis).size(), "Lo no entregado sigue en el historial");
+        } finally {
+            communicator.destroy();
+        }
+    }
+
+    @Test
+    @DisplayName("Un suscriptor cuya entrega falla deja de recibir mensajes")
+    void testSubscriberRemovedOnFailure() throws Exception {
+        Communicator communicator = Util.initialize();
+        try {
+            String ana = "ana" + System.nanoTime();
+            String luis = "luis" + System.nanoTime();
+            IceSubscriberTest.StubCallback callback = new IceSubscriberTest.StubCallback(communicator);
+            service.subscribe(luis, callback.proxy, current(new FakeConnection().proxy, null));
+            Current anaCurrent = current(new FakeConnection().proxy, ana);
+
+            await(service.sendMessageAsync(luis, "m1", anaCurrent));
+            callback.next().reply().completeExceptionally(new ConnectionLostException());
+
+            await(service.sendMessageAsync(luis, "m2", anaCurrent));
+            callback.assertIdle();
+        } finally {
+            communicator.destroy();
+        }
+    }
+
+    @Test
+    @DisplayName("A un destinatario ocupado no le llega INCOMING_CALL")
+    void testBusyCalleeIsNotNotified() throws Exception {
+        String ana = "ana" + System.nanoTime();
+        String luis = "luis" + System.nanoTime();
+        String eva = "eva" + System.nanoTime();
+        try (ServerSocket server = new ServerSocket(0);
+             Socket client = new Socket("localhost", server.getLocalPort());
+             Socket peer = server.accept()) {
+            chatServices.login(ana, 0, null);
+            chatServices.login(eva, 0, null);
+            chatServices.login(luis, 0, peer);
+            CallRegistry.ActiveCall busy = chatServices.getCallRegistry().start(eva, luis);
+            Current anaCurrent = current(new FakeConnection().proxy, ana);
+
+            assertThrows(RuntimeException.class, () -> service.startCall(ana, luis, anaCurrent));
+            Thread.sleep(200);
+            assertEquals(0, client.getInputStream().available(), "El aviso no sale si la llamada no se registra");
+
+            chatServices.getCallRegistry().end(busy.id(), CallRegistry.ENDED);
+            assertNotNull(service.startCall(ana, luis, anaCurrent));
+            client.setSoTimeout(5000);
+            assertEquals("INCOMING_CALL_WS " + ana, new FrameDecoder(client.getInputStream()).readLine());
+        }
+    }
+}
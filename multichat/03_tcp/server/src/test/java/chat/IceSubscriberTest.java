@@ -0,0 +1,216 @@
+package chat;
+
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import com.zeroc.Ice.Communicator;
+import com.zeroc.Ice.ConnectionLostException;
+import com.zeroc.Ice.InputStream;
+import com.zeroc.Ice.OperationNotExistException;
+import com.zeroc.Ice.Util;
+
+/**
+ * Tests para IceSubscriber
+ */
+class IceSubscriberTest {
+
+    private Communicator communicator;
+    private StubCallback callback;
+
+    @BeforeEach
+    void setUp() {
+        communicator = Util.initialize();
+        callback = new StubCallback(communicator);
+    }
+
+    @AfterEach
+    void tearDown() {
+        communicator.destroy();
+    }
+
+    /**
+     * Proxy de callback falso: cada invocación queda registrada con un futuro que el
+     * test completa (o hace fallar) cuando quiere, como un cliente que tarda en responder
+     */
+    static final class StubCallback {
+        record Invocation(String operation, Object argument, CompletableFuture<Object> reply) {}
+
+        final BlockingQueue<Invocation> invocations = new LinkedBlockingQueue<>();
+        final ChatCallbackPrx proxy;
+
+        StubCallback(Communicator communicator) {
+            proxy = (ChatCallbackPrx) Proxy.newProxyInstance(ChatCallbackPrx.class.getClassLoader(),
+                    new Class<?>[] {ChatCallbackPrx.class}, (self, method, args) -> switch (method.getName()) {
+                        case "ice_invokeAsync" -> invoked((String) args[0], args[2]);
+                        case "onNewMessagesAsync" -> invoked("onNewMessages", args[0]);
+                        case "onCallEndedAsync" -> invoked("onCallEnded", args[0]);
+                        case "ice_invocationTimeout" -> self;
+                        case "ice_getCommunicator" -> communicator;
+                        case "ice_getCachedConnection" -> null;
+                        case "toString" -> "stub-callback";
+                        case "hashCode" -> System.identityHashCode(self);
+                        case "equals" -> self == args[0];
+                        default -> throw new UnsupportedOperationException(method.getName());
+                    });
+        }
+
+        private CompletableFuture<Object> invoked(String operation, Object argument) {
+            CompletableFuture<Object> reply = new CompletableFuture<>();
+            invocations.add(new Invocation(operation, argument, reply));
+            return reply;
+        }
+
+        Invocation next() throws InterruptedException {
+            Invocation invocation = invocations.poll(5, TimeUnit.SECONDS);
+            assertNotNull(invocation, "Se esperaba una llamada al cliente");
+            return invocation;
+        }
+
+        void assertIdle() throws InterruptedException {
+            Invocation invocation = invocations.poll(200, TimeUnit.MILLISECONDS);
+            assertNull(invocation, () -> "Llamada inesperada: " + invocation.operation());
+        }
+    }
+
+    private static Message message(String content) {
+        return new Message(content, "ana", "luis", content, false, 0, 0, "");
+    }
+
+    // En estos tests los bytes "codificados" son el contenido: IceSubscriber solo los reenvía
+    private static byte[] encoded(Message msg) {
+        return msg.content.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String single(StubCallback.Invocation invocation) {
+        assertEquals("onNewMessage", invocation.operation());
+        return new String((byte[]) invocation.argument(), StandardCharsets.UTF_8);
+    }
+
+    private static List<String> batch(StubCallback.Invocation invocation) {
+        assertEquals("onNewMessages", invocation.operation());
+        return Arrays.stream((Message[]) invocation.argument()).map(m -> m.content).toList();
+    }
+
+    /**
+     * Decodifica los parámetros de un onNewMessage enviado con ice_invoke
+     */
+    static Message decode(Communicator communicator, StubCallback.Invocation invocation) {
+        assertEquals("onNewMessage", invocation.operation());
+        InputStream in = new InputStream(communicator, (byte[]) invocation.argument());
+        in.startEncapsulation();
+        Message msg = Message.ice_read(in);
+        in.endEncapsulation();
+        return msg;
+    }
+
+    private IceSubscriber subscriber(int maxPending, IceSubscriber.DeliveryListener listener) {
+        return new IceSubscriber("luis", callback.proxy, 16, maxPending, listener);
+    }
+
+    private static final IceSubscriber.DeliveryListener NO_FAILURES =
+            (subscriber, cause, undelivered) -> fail("Entrega fallida: " + cause);
+
+    @Test
+    @DisplayName("Lo que llega mientras el cliente no responde sale junto en un onNewMessages")
+    void testBatchesWhileWaiting() throws Exception {
+        IceSubscriber subscriber = subscriber(10, NO_FAILURES);
+        Message m1 = message("m1");
+        Message m2 = message("m2");
+        Message m3 = message("m3");
+
+        assertTrue(subscriber.deliver(m1, encoded(m1)));
+        StubCallback.Invocation first = callback.next();
+        assertEquals("m1", single(first));
+
+        assertTrue(subscriber.deliver(m2, encoded(m2)));
+        assertTrue(subscriber.deliver(m3, encoded(m3)));
+        callback.assertIdle(); // una sola llamada en curso
+
+        first.reply().complete(null);
+        StubCallback.Invocation second = callback.next();
+        assertEquals(List.of("m2", "m3"), batch(second));
+        second.reply().complete(null);
+        callback.assertIdle();
+    }
+
+    @Test
+    @DisplayName("Un cliente sin onNewMessages vuelve a recibir un mensaje por llamada sin perder ninguno")
+    void testFallbackWithoutBatchOperation() throws Exception {
+        IceSubscriber subscriber = subscriber(10, NO_FAILURES);
+        for (String content : List.of("m1", "m2", "m3")) {
+            assertTrue(subscriber.deliver(message(content), encoded(message(content))));
+        }
+        StubCallback.Invocation first = callback.next();
+        first.reply().complete(null);
+        StubCallback.Invocation batch = callback.next();
+        assertEquals(List.of("m2", "m3"), batch(batch));
+
+        batch.reply().completeExceptionally(new OperationNotExistException());
+        StubCallback.Invocation retry = callback.next();
+        assertEquals("m2", single(retry));
+        assertTrue(subscriber.deliver(message("m4"), encoded(message("m4"))));
+        retry.reply().complete(null);
+
+        // Ya no se agrupa aunque haya varios en cola
+        List<String> received = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            StubCallback.Invocation next = callback.next();
+            received.add(single(next));
+            next.reply().complete(null);
+        }
+        assertEquals(List.of("m3", "m4"), received);
+        callback.assertIdle();
+    }
+
+    @Test
+    @DisplayName("Con maxPending mensajes en cola no se encola nada más")
+    void testMaxPending() throws Exception {
+        IceSubscriber subscriber = subscriber(2, NO_FAILURES);
+
+        assertTrue(subscriber.deliver(message("m1"), encoded(message("m1")))); // en curso, no en cola
+        callback.next();
+        assertTrue(subscriber.deliver(message("m2"), encoded(message("m2"))));
+        assertTrue(subscriber.deliver(message("m3"), encoded(message("m3"))));
+        assertFalse(subscriber.deliver(message("m4"), encoded(message("m4"))));
+    }
+
+    @Test
+    @DisplayName("Si la entrega falla se avisa con todo lo no entregado y la cola se cierra")
+    void testFailureReportsUndelivered() throws Exception {
+        List<Throwable> causes = new ArrayList<>();
+        List<String> undelivered = new ArrayList<>();
+        IceSubscriber subscriber = subscriber(10, (sub, cause, messages) -> {
+            causes.add(cause);
+            messages.forEach(m -> undelivered.add(m.content));
+        });
+        for (String content : List.of("m1", "m2", "m3")) {
+            assertTrue(subscriber.deliver(message(content), encoded(message(content))));
+        }
+
+        callback.next().reply().completeExceptionally(new ConnectionLostException());
+
+        assertEquals(1, causes.size());
+        assertTrue(causes.get(0) instanceof ConnectionLostException, causes.get(0).toString());
+        assertEquals(List.of("m1", "m2", "m3"), undelivered);
+        assertFalse(subscriber.deliver(message("m4"), encoded(message("m4"))), "La cola quedó cerrada");
+        callback.assertIdle();
+    }
+}
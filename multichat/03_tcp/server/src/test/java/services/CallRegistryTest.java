@@ -0,0 +1,109 @@
+package services;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import util.TimingWheel;
+
+/**
+ * Tests para CallRegistry
+ */
+class CallRegistryTest {
+
+    private TimingWheel wheel;
+    private CallRegistry calls;
+    private List<String> ended;
+
+    @BeforeEach
+    void setUp() {
+        wheel = new TimingWheel("test-calls", 10, 8);
+        calls = new CallRegistry(wheel);
+        ended = new CopyOnWriteArrayList<>();
+        calls.addListener((call, reason) -> ended.add(call.caller() + ">" + call.callee() + ":" + reason));
+    }
+
+    @AfterEach
+    void tearDown() {
+        wheel.stop();
+    }
+
+    @Test
+    @DisplayName("La llamada se encuentra por id y por participante, aunque el nombre tenga guiones bajos")
+    void testLookupByIdAndParticipant() {
+        CallRegistry.ActiveCall call = calls.start("ana_maria", "luis_2");
+
+        assertSame(call, calls.get(call.id()));
+        assertSame(call, calls.callOf("ana_maria"));
+        assertSame(call, calls.callOf("luis_2"));
+        assertEquals("ana_maria", call.peerOf("luis_2"));
+
+        assertSame(call, calls.end(call.id(), CallRegistry.ENDED));
+        assertNull(calls.get(call.id()));
+        assertNull(calls.callOf("ana_maria"));
+        assertNull(calls.callOf("luis_2"));
+        assertEquals(List.of("ana_maria>luis_2:ended"), ended);
+        assertNull(calls.end(call.id(), CallRegistry.ENDED));
+    }
+
+    @Test
+    @DisplayName("Pedir la misma llamada dos veces la reutiliza; un destinatario ocupado la rechaza")
+    void testSamePairAndBusyCallee() {
+        CallRegistry.ActiveCall call = calls.start("ana", "luis");
+
+        assertSame(call, calls.start("luis", "ana"));
+        assertNull(calls.start("pedro", "luis"));
+        assertNull(calls.callOf("pedro"));
+
+        // Quien llama a otro deja la llamada que tenía
+        CallRegistry.ActiveCall next = calls.start("ana", "pedro");
+        assertSame(next, calls.callOf("ana"));
+        assertNull(calls.callOf("luis"));
+        assertEquals(List.of("ana>luis:replaced"), ended);
+    }
+
+    @Test
+    @DisplayName("Una llamada sin contestar vence; una contestada no")
+    void testRingTimeout() throws Exception {
+        CountDownLatch timedOut = new CountDownLatch(1);
+        calls.addListener((call, reason) -> timedOut.countDown());
+        calls.setRingTimeout(50);
+        CallRegistry.ActiveCall answered = calls.start("ana", "luis");
+        assertSame(answered, calls.answer("luis", "ana"));
+        calls.start("pedro", "sofia");
+
+        assertTrue(timedOut.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of("pedro>sofia:timeout"), ended);
+        assertNull(calls.callOf("sofia"));
+        assertSame(answered, calls.callOf("ana"));
+        assertTrue(answered.isAnswered());
+    }
+
+    @Test
+    @DisplayName("El stream de audio abre la llamada y sabe a quién reenviar")
+    void testStream() {
+        CallRegistry.ActiveCall call = calls.startStream("ana", "luis", "pcm");
+
+        assertTrue(call.isAnswered());
+        assertEquals("pcm", call.streamFormat("ana"));
+        assertNull(call.streamFormat("luis"));
+
+        calls.stopStream("ana");
+        assertNull(call.streamFormat("ana"));
+        assertSame(call, calls.callOf("luis"));
+
+        assertSame(call, calls.endCallOf("luis", CallRegistry.DISCONNECTED));
+        assertNull(calls.callOf("ana"));
+        assertEquals(List.of("ana>luis:disconnected"), ended);
+    }
+}
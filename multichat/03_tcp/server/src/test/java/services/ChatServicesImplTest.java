@@ -2,19 +2,34 @@ package services;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.jupiter.api.AfterEach;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
+import util.FrameDecoder;
+import util.MediaFiles;
+import util.MediaStore;
+import util.VoiceCodec;
+
 /**
  * Tests para ChatServicesImpl
  */
@@ -126,6 +141,39 @@ class ChatServicesImplTest {
         assertTrue(onlineUsers.contains(TEST_USER2));
     }
 
+    @Test
+    @DisplayName("Una sesión sin socket y sin peticiones expira")
+    void testSessionLeaseExpires() throws Exception {
+        chatServices.setSessionTtl(100);
+        chatServices.login(TEST_USER1, 0, null);
+        assertTrue(chatServices.getOnlineUsers().contains(TEST_USER1));
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (chatServices.getOnlineUsers().contains(TEST_USER1) && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+        }
+        assertFalse(chatServices.getOnlineUsers().contains(TEST_USER1), "El lease debería haber vencido");
+    }
+
+    @Test
+    @DisplayName("Cuando vence el lease de quien llama, el destinatario queda libre")
+    void testLeaseExpiryEndsCall() throws Exception {
+        CallRegistry calls = chatServices.getCallRegistry();
+        chatServices.setSessionTtl(100);
+        chatServices.login(TEST_USER1, 0, null);
+        CallRegistry.ActiveCall call = calls.start(TEST_USER1, TEST_USER2);
+        calls.answer(TEST_USER2, TEST_USER1);
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (calls.callOf(TEST_USER2) != null && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+        }
+        assertFalse(chatServices.getOnlineUsers().contains(TEST_USER1), "El lease debería haber vencido");
+        assertNull(calls.get(call.id()), "La llamada debería haber terminado");
+        assertNull(calls.callOf(TEST_USER2));
+        assertNotNull(calls.start("testUser3", TEST_USER2), "El destinatario ya no está ocupado");
+    }
+
     @Test
     @DisplayName("Obtener todos los usuarios con estado")
     void testGetAllUsersWithStatus() throws Exception {
@@ -141,6 +189,23 @@ class ChatServicesImplTest {
         assertFalse(usersStatus.get(TEST_USER2), "TEST_USER2 debería estar offline");
     }
 
+    @Test
+    @DisplayName("La vista de usuarios se reutiliza hasta que algo cambia")
+    void testAllUsersViewIsVersioned() throws Exception {
+        chatServices.login(TEST_USER1, 0, null);
+        VersionedView.Snapshot<Map<String, Boolean>> first = chatServices.getAllUsersView().get();
+
+        assertSame(first, chatServices.getAllUsersView().get(), "Sin cambios no se reconstruye");
+        assertTrue(chatServices.getAllUsersView().isCurrent(first.version()));
+
+        chatServices.login(TEST_USER2, 0, null);
+        VersionedView.Snapshot<Map<String, Boolean>> second = chatServices.getAllUsersView().get();
+
+        assertFalse(chatServices.getAllUsersView().isCurrent(first.version()));
+        assertTrue(second.version() > first.version());
+        assertTrue(second.value().get(TEST_USER2));
+    }
+
     // ==================== Tests de Grupos ====================
 
     @Test
@@ -190,6 +255,21 @@ class ChatServicesImplTest {
     //     assertFalse(result, "No debería poder agregar a grupo inexistente");
     // }
 
+    @Test
+    @DisplayName("La vista de grupos del usuario cambia de versión al unirse a un grupo")
+    void testUserGroupsViewIsVersioned() throws Exception {
+        chatServices.login(TEST_USER1, 0, null);
+        VersionedView<List<String>> view = chatServices.getUserGroupsView(TEST_USER1);
+        long before = view.get().version();
+
+        String group = "viewGroup" + System.nanoTime(); // grupo nuevo: otros tests pueden dejar TEST_GROUP
+        chatServices.createGroup(group, TEST_USER1);
+
+        assertFalse(view.isCurrent(before));
+        assertTrue(view.get().value().contains(group));
+        assertTrue(view.isCurrent(view.get().version()));
+    }
+
     @Test
     @DisplayName("Obtener grupos del usuario")
     void testGetUserGroups() throws Exception {
@@ -205,6 +285,19 @@ class ChatServicesImplTest {
         assertTrue(userGroups.contains("testGroup2"));
     }
 
+    @Test
+    @DisplayName("Los grupos del usuario se recuperan tras recargar desde disco")
+    void testUserGroupsAfterReload() throws Exception {
+        chatServices.createGroup(TEST_GROUP, TEST_USER1);
+        chatServices.addToGroup(TEST_GROUP, TEST_USER2);
+
+        ChatServicesImpl reloaded = new ChatServicesImpl();
+
+        assertTrue(reloaded.getUserGroups(TEST_USER1).contains(TEST_GROUP));
+        assertTrue(reloaded.getUserGroups(TEST_USER2).contains(TEST_GROUP));
+        assertTrue(reloaded.getUserGroups("nobody").isEmpty());
+    }
+
     // ==================== Tests de Mensajería ====================
 
     @Test
@@ -248,6 +341,25 @@ class ChatServicesImplTest {
         assertFalse(pendingMessages.isEmpty(), "Debería haber mensajes pendientes para el miembro");
     }
 
+    @Test
+    @DisplayName("Los miembros de un grupo comparten el mismo mensaje pendiente")
+    void testGroupPendingMessageIsShared() throws Exception {
+        chatServices.login(TEST_USER1, 0, null);
+        chatServices.createGroup(TEST_GROUP, TEST_USER1);
+        chatServices.addToGroup(TEST_GROUP, TEST_USER2);
+        chatServices.addToGroup(TEST_GROUP, "testUser3");
+
+        chatServices.sendMessageToGroup(TEST_USER1, TEST_GROUP, "Hola a todos");
+
+        List<String> pending2 = chatServices.getPendingMessages(TEST_USER2);
+        List<String> pending3 = chatServices.getPendingMessages("testUser3");
+
+        assertEquals(1, pending2.size());
+        assertEquals("GROUP|" + TEST_GROUP + "|" + TEST_USER1 + "|Hola a todos", pending2.get(0));
+        assertSame(pending2.get(0), pending3.get(0), "El mensaje debería codificarse una sola vez para el grupo");
+        assertTrue(chatServices.getPendingMessages(TEST_USER1).isEmpty(), "El remitente no recibe su propio mensaje");
+    }
+
     @Test
     @DisplayName("Obtener mensajes pendientes")
     void testGetPendingMessages() throws Exception {
@@ -282,6 +394,116 @@ class ChatServicesImplTest {
         assertFalse(history.isEmpty(), "El historial no debería estar vacío");
     }
 
+    @Test
+    @DisplayName("Nota de voz subida por partes: rechaza partes fuera de orden y guarda al completar")
+    void testChunkedVoiceNote() throws Exception {
+        byte[] pcm = new byte[4000];
+        for (int i = 0; i < pcm.length; i += 2) {
+            pcm[i + 1] = (byte) (i % 64); // PCM de 16 bits distinto de silencio
+        }
+        String uploadId = chatServices.beginVoiceNote(TEST_USER1, TEST_USER2, false, pcm.length, true);
+        chatServices.appendVoiceNote(uploadId, 0, Arrays.copyOfRange(pcm, 0, 1500));
+        assertThrows(IOException.class,
+                () -> chatServices.appendVoiceNote(uploadId, 0, Arrays.copyOfRange(pcm, 0, 1500)));
+        chatServices.appendVoiceNote(uploadId, 1500, Arrays.copyOfRange(pcm, 1500, pcm.length));
+
+        ChatServicesImpl.StoredVoiceNote note = chatServices.finishVoiceNote(uploadId);
+
+        assertEquals(TEST_USER2, note.target());
+        assertEquals(125, note.summary().durationMs());
+        assertEquals(pcm.length, MediaFiles.readPcm(MediaStore.shared(), note.mediaId(), 0, -1).data().length);
+        assertThrows(IOException.class, () -> chatServices.finishVoiceNote(uploadId), "La subida ya no existe");
+    }
+
+    @Test
+    @DisplayName("Nota de voz por partes incompleta no se guarda")
+    void testIncompleteChunkedVoiceNote() throws Exception {
+        String uploadId = chatServices.beginVoiceNote(TEST_USER1, TEST_USER2, false, 100, true);
+        chatServices.appendVoiceNote(uploadId, 0, new byte[40]);
+
+        assertThrows(IOException.class, () -> chatServices.finishVoiceNote(uploadId));
+        assertThrows(IOException.class, () -> chatServices.appendVoiceNote(uploadId, 40, new byte[60]));
+    }
+
+    @Test
+    @DisplayName("Una nota que el cliente no declara PCM (M4A) se guarda y se sirve byte a byte")
+    void testUndeclaredVoiceNoteStoredAsIs() throws Exception {
+        byte[] m4a = new byte[4000];
+        System.arraycopy(new byte[] {0, 0, 0, 0x20, 'f', 't', 'y', 'p', 'M', '4', 'A', ' '}, 0, m4a, 0, 12);
+        for (int i = 12; i < m4a.length; i++) {
+            m4a[i] = (byte) (i * 31);
+        }
+
+        ChatServicesImpl.StoredVoiceNote note = chatServices.sendVoiceNoteToUser(TEST_USER1, TEST_USER2, m4a, false);
+        assertNull(note.summary());
+        assertArrayEquals(m4a, chatServices.getMediaPcm(note.mediaId(), 0, -1).data());
+
+        // Igual por la subida por partes de Ice
+        String uploadId = chatServices.beginVoiceNote(TEST_USER1, TEST_USER2, false, m4a.length, false);
+        chatServices.appendVoiceNote(uploadId, 0, m4a);
+        ChatServicesImpl.StoredVoiceNote chunked = chatServices.finishVoiceNote(uploadId);
+        assertNull(chunked.summary());
+        assertArrayEquals(m4a, chatServices.getMediaPcm(chunked.mediaId(), 0, -1).data());
+    }
+
+    @Test
+    @DisplayName("Una nota subida por Ice llega a la sesión TCP del destinatario solo tras confirmarse")
+    void testChunkedVoiceNotePushedAfterFinish() throws Exception {
+        byte[] m4a = new byte[3000];
+        System.arraycopy(new byte[] {0, 0, 0, 0x20, 'f', 't', 'y', 'p', 'M', '4', 'A', ' '}, 0, m4a, 0, 12);
+        for (int i = 12; i < m4a.length; i++) {
+            m4a[i] = (byte) (i * 7);
+        }
+        try (ServerSocket server = new ServerSocket(0);
+             Socket client = new Socket("localhost", server.getLocalPort());
+             Socket peer = server.accept()) {
+            chatServices.login(TEST_USER2, 0, peer);
+
+            String uploadId = chatServices.beginVoiceNote(TEST_USER1, TEST_USER2, false, m4a.length, false);
+            chatServices.appendVoiceNote(uploadId, 0, Arrays.copyOfRange(m4a, 0, 1000));
+            Thread.sleep(200);
+            assertEquals(0, client.getInputStream().available(), "Nada se retransmite antes de confirmar la nota");
+
+            chatServices.appendVoiceNote(uploadId, 1000, Arrays.copyOfRange(m4a, 1000, m4a.length));
+            chatServices.finishVoiceNote(uploadId);
+
+            client.setSoTimeout(5000);
+            FrameDecoder in = new FrameDecoder(client.getInputStream());
+            String line;
+            while (!(line = in.readLine()).startsWith("VOICE_NOTE_FROM ")) {
+                // Otras notificaciones de la sesión
+            }
+            assertEquals("VOICE_NOTE_FROM " + TEST_USER1 + " " + m4a.length, line);
+            assertArrayEquals(m4a, in.readBody(m4a.length), "El cuerpo se sirve desde el blob guardado");
+        }
+    }
+
+    @Test
+    @DisplayName("Si el historial del destinatario no se escribe, la nota solo guarda la referencia del remitente")
+    void testVoiceNoteReferencesFollowPersist() throws Exception {
+        String from = "vnFrom" + System.nanoTime();
+        String to = "vnTo" + System.nanoTime();
+        File history = new File("data", "history");
+        File fromHistory = new File(history, from + ".jsonl");
+        // Un directorio en lugar del historial del destinatario: su escritura falla
+        File toHistory = new File(history, to + ".jsonl");
+        toHistory.mkdirs();
+        byte[] pcm = new byte[4000];
+        long seed = System.nanoTime();
+        for (int i = 0; i < pcm.length; i += 2) {
+            pcm[i + 1] = (byte) ((seed + i) % 64);
+        }
+        try {
+            assertThrows(IOException.class, () -> chatServices.sendVoiceNoteToUser(from, to, pcm, true));
+
+            String id = MediaStore.idOf(VoiceCodec.encode(pcm, true));
+            assertEquals(1, MediaStore.shared().references(id), "Solo el registro del remitente la referencia");
+        } finally {
+            fromHistory.delete();
+            toHistory.delete();
+        }
+    }
+
     // ==================== Tests de Limpieza de Chat ====================
 
     @Test
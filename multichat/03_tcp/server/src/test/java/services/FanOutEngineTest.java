@@ -0,0 +1,121 @@
+package services;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.AfterEach;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests para FanOutEngine
+ */
+class FanOutEngineTest {
+
+    private FanOutEngine engine;
+
+    @BeforeEach
+    void setUp() {
+        engine = new FanOutEngine(4, 8);
+    }
+
+    @AfterEach
+    void tearDown() {
+        engine.shutdown();
+    }
+
+    @Test
+    @DisplayName("Entrega a todos los destinatarios exactamente una vez")
+    void testDeliversToEveryRecipient() throws Exception {
+        int[] recipients = new int[500];
+        for (int i = 0; i < recipients.length; i++) {
+            recipients[i] = i;
+        }
+        Set<Integer> delivered = ConcurrentHashMap.newKeySet();
+
+        engine.fanOut("test", recipients, delivered::add).get(5, TimeUnit.SECONDS);
+
+        assertEquals(500, delivered.size());
+    }
+
+    @Test
+    @DisplayName("Un destinatario con error no interrumpe al resto")
+    void testFailureDoesNotStopOthers() throws Exception {
+        List<String> recipients = List.of("a", "b", "c");
+        Set<String> delivered = ConcurrentHashMap.newKeySet();
+
+        engine.fanOut("test_failures", recipients, r -> {
+            if (r.equals("b")) {
+                throw new IllegalStateException("fallo simulado");
+            }
+            delivered.add(r);
+        }).get(5, TimeUnit.SECONDS);
+
+        assertEquals(Set.of("a", "c"), delivered);
+    }
+
+    @Test
+    @DisplayName("Un destinatario lento no bloquea al que envía")
+    void testSlowRecipientDoesNotBlockCaller() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> recipients = new ArrayList<>(List.of("lento", "rapido"));
+
+        var future = engine.fanOut("test_slow", recipients, r -> {
+            if (r.equals("lento")) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        recipients.clear(); // la instantánea no depende de la lista original
+
+        assertFalse(future.isDone(), "La entrega sigue en curso y el llamador ya continuó");
+        release.countDown();
+        future.get(5, TimeUnit.SECONDS);
+        assertTrue(future.isDone());
+    }
+
+    @Test
+    @DisplayName("Los fan-outs con la misma clave llegan a cada destinatario en orden")
+    void testSameKeyKeepsOrder() throws Exception {
+        int[] recipients = new int[20];
+        for (int i = 0; i < recipients.length; i++) {
+            recipients[i] = i;
+        }
+        Map<Integer, List<Integer>> received = new ConcurrentHashMap<>();
+        CompletableFuture<Void> last = null;
+        for (int msg = 0; msg < 50; msg++) {
+            int n = msg;
+            last = engine.fanOut("test_order", "grupo", recipients, r -> {
+                if (n == 0) {
+                    try {
+                        Thread.sleep(20); // el primer mensaje tarda más que los siguientes
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                received.computeIfAbsent(r, k -> Collections.synchronizedList(new ArrayList<>())).add(n);
+            });
+        }
+        last.get(5, TimeUnit.SECONDS);
+
+        List<Integer> expected = IntStream.range(0, 50).boxed().toList();
+        for (int r : recipients) {
+            assertEquals(expected, received.get(r), "Orden del destinatario " + r);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package services;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import util.MediaStore;
+
+/**
+ * Tests para HistoryCompactor
+ */
+class HistoryCompactorTest {
+
+    @TempDir
+    Path dir;
+
+    // Registro real de un historial: Gson escribió el '=' del base64 como \u003d
+    private static final String GSON_RECORD = "{type:text,from:unknown_user,target:Alexander Calderon,isGroup:false,msg:{\"data\":\"GkXfo59ChoEBQveBAULygQRC84EIQoKEd2VibUKHgQRChYECAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA\\u003d\",\"type\":\"audio\"},ts:2025-11-24T14:13:01.937265Z}";
+
+    private static String textRecord(String from, String to, byte[] audio) {
+        return "{type:text,from:" + from + ",target:" + to + ",isGroup:false,msg:{\"type\":\"audio\",\"data\":\""
+                + Base64.getEncoder().encodeToString(audio) + "\"},ts:2024-01-01T00:00:00Z}";
+    }
+
+    private static byte[] pcm(int seed) {
+        byte[] pcm = new byte[800];
+        for (int i = 0; i < pcm.length; i += 2) {
+            pcm[i + 1] = (byte) ((i + seed) % 50);
+        }
+        return pcm;
+    }
+
+    @Test
+    @DisplayName("Saca el base64 de los historiales y borra la copia de una nota ya registrada")
+    void testCompactsEmbeddedAudio() throws Exception {
+        MediaStore store = new MediaStore(dir.resolve("media").toFile());
+        File history = dir.resolve("history").toFile();
+        history.mkdirs();
+        byte[] logged = pcm(1);
+        byte[] onlyText = pcm(7);
+        String id = store.put(logged, 1);
+        String voiceNote = "{type:voice_note,from:a,target:b,isGroup:false,file:" + store.recordPath(id)
+                + ",ts:2024-01-01T00:00:00Z}";
+        String text = "{type:text,from:a,target:b,isGroup:false,msg:hola,ts:2024-01-01T00:00:00Z}";
+        File file = new File(history, "a.jsonl");
+        Files.write(file.toPath(), List.of(voiceNote, textRecord("a", "b", logged), text, textRecord("a", "b", onlyText)));
+
+        HistoryCompactor.Result result = new HistoryCompactor(store).compact(history);
+
+        assertEquals(1, result.files());
+        assertEquals(1, result.extracted());
+        assertEquals(1, result.dropped());
+        assertTrue(result.bytesAfter() < result.bytesBefore());
+        List<String> lines = Files.readAllLines(file.toPath());
+        assertEquals(3, lines.size());
+        assertEquals(voiceNote, lines.get(0));
+        assertEquals(text, lines.get(1));
+        assertFalse(lines.get(2).contains("\"data\""));
+        String extracted = MediaStore.referencedId(lines.get(2));
+        assertEquals(1, store.references(extracted));
+        // El formato del base64 no se conoce: se guarda tal cual y sin forma de onda
+        assertFalse(lines.get(2).contains(",dur:"));
+        assertArrayEquals(onlyText, Files.readAllBytes(store.locate(extracted).toPath()));
+
+        // Una segunda pasada no encuentra nada que mover
+        assertEquals(0, new HistoryCompactor(store).compact(history).files());
+    }
+
+    @Test
+    @DisplayName("Mueve las notas cuyo base64 Gson escribió con el relleno escapado")
+    void testCompactsGsonEscapedPadding() throws Exception {
+        MediaStore store = new MediaStore(dir.resolve("media").toFile());
+        File history = dir.resolve("history").toFile();
+        history.mkdirs();
+        File file = new File(history, "unknown_user.jsonl");
+        Files.write(file.toPath(), List.of(GSON_RECORD));
+
+        HistoryCompactor.Result result = new HistoryCompactor(store).compact(history);
+
+        assertEquals(1, result.extracted());
+        String line = Files.readAllLines(file.toPath()).get(0);
+        assertTrue(line.startsWith("{type:voice_note,from:unknown_user,target:Alexander Calderon,isGroup:false,file:"), line);
+        assertTrue(line.endsWith(",ts:2025-11-24T14:13:01.937265Z}"), line);
+        byte[] stored = Files.readAllBytes(store.locate(MediaStore.referencedId(line)).toPath());
+        assertEquals(110, stored.length); // el relleno decodificado, no cortado antes del \u003d
+        assertArrayEquals(new byte[] {0x1A, 0x45, (byte) 0xDF, (byte) 0xA3}, Arrays.copyOf(stored, 4)); // WebM
+    }
+}
@@ -0,0 +1,100 @@
+package services;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests para MembershipIndex
+ */
+class MembershipIndexTest {
+
+    private MembershipIndex index;
+
+    @BeforeEach
+    void setUp() {
+        index = new MembershipIndex();
+    }
+
+    @Test
+    @DisplayName("Agregar miembros mantiene ambos sentidos del índice")
+    void testAddKeepsBothDirections() {
+        index.add("g1", "ana");
+        index.add("g1", "luis");
+        index.add("g2", "ana");
+
+        assertEquals(List.of("ana", "luis"), index.memberNames("g1"));
+        assertEquals(List.of("g1", "g2"), index.groupsOf("ana"));
+        assertEquals(List.of("g1"), index.groupsOf("luis"));
+        assertTrue(index.isMember("g2", "ana"));
+        assertFalse(index.isMember("g2", "luis"));
+    }
+
+    @Test
+    @DisplayName("Agregar dos veces el mismo miembro no lo duplica")
+    void testAddIsIdempotent() {
+        assertTrue(index.add("g1", "ana"));
+        assertFalse(index.add("g1", "ana"));
+
+        assertEquals(1, index.members("g1").length);
+    }
+
+    @Test
+    @DisplayName("Eliminar un usuario lo saca solo de sus grupos")
+    void testRemoveUser() {
+        index.add("g1", "ana");
+        index.add("g1", "luis");
+        index.add("g2", "ana");
+        index.add("g3", "luis");
+
+        List<String> affected = index.removeUser("ana");
+
+        assertEquals(List.of("g1", "g2"), affected);
+        assertTrue(index.groupsOf("ana").isEmpty());
+        assertEquals(List.of("luis"), index.memberNames("g1"));
+        assertTrue(index.memberNames("g2").isEmpty());
+        assertTrue(index.hasGroup("g2"), "El grupo sigue existiendo aunque quede vacío");
+    }
+
+    @Test
+    @DisplayName("Las instantáneas de miembros no cambian con escrituras posteriores")
+    void testSnapshotsAreImmutable() {
+        index.add("g1", "ana");
+        int[] snapshot = index.members("g1");
+
+        index.add("g1", "luis");
+        index.removeUser("ana");
+
+        assertArrayEquals(new int[] { index.userId("ana") }, snapshot);
+        assertEquals(List.of("luis"), index.memberNames("g1"));
+    }
+
+    @Test
+    @DisplayName("Grupo creado sin miembros aparece en la lista")
+    void testCreateEmptyGroup() {
+        assertTrue(index.createGroup("vacio"));
+        assertFalse(index.createGroup("vacio"));
+
+        assertTrue(index.groupNames().contains("vacio"));
+        assertEquals(0, index.members("vacio").length);
+        assertEquals(0, index.members("inexistente").length);
+    }
+
+    @Test
+    @DisplayName("La versión parte de la hora de arranque: una versión de antes de reiniciar no sigue vigente")
+    void testVersionSeededAtStartup() throws Exception {
+        long before = index.version();
+        Thread.sleep(5);
+        MembershipIndex restarted = new MembershipIndex();
+
+        assertTrue(before >= 1000, "No empieza en 1");
+        assertTrue(restarted.version() > before, "Tras reiniciar la versión es mayor que la anterior");
+        assertTrue(restarted.version() < (1L << 53), "Cabe exacta en un double de JSON");
+    }
+}
@@ -0,0 +1,118 @@
+package services;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests para PresenceService
+ */
+class PresenceServiceTest {
+
+    private MembershipIndex membership;
+    private FanOutEngine engine;
+    private PresenceService presence;
+    private Map<String, String> delivered;
+
+    @BeforeEach
+    void setUp() {
+        membership = new MembershipIndex();
+        engine = new FanOutEngine(2, 4);
+        delivered = new ConcurrentHashMap<>();
+        // Ventana larga: los tests publican con flush() explícito
+        presence = new PresenceService(membership, engine, TimeUnit.HOURS.toMillis(1),
+                (watcher, line) -> delivered.put(watcher, line));
+    }
+
+    @AfterEach
+    void tearDown() {
+        presence.shutdown();
+        engine.shutdown();
+    }
+
+    @Test
+    @DisplayName("Solo los co-miembros conectados reciben el delta")
+    void testDeltaGoesToCoMembersOnly() throws Exception {
+        membership.add("equipo", "ana");
+        membership.add("equipo", "luis");
+        presence.update("luis", true);
+        presence.update("pedro", true);
+        presence.flush().get(5, TimeUnit.SECONDS);
+        delivered.clear();
+
+        presence.update("ana", true);
+        presence.flush().get(5, TimeUnit.SECONDS);
+
+        assertEquals(Map.of("luis", "PRESENCE 3 +ana"), delivered);
+    }
+
+    @Test
+    @DisplayName("Una reconexión dentro de la ventana no genera mensajes")
+    void testReconnectIsCoalesced() throws Exception {
+        membership.add("equipo", "ana");
+        membership.add("equipo", "luis");
+        presence.update("ana", true);
+        presence.update("luis", true);
+        presence.flush().get(5, TimeUnit.SECONDS);
+        long version = presence.currentVersion();
+        delivered.clear();
+
+        presence.update("ana", false);
+        presence.update("ana", true);
+        presence.flush().get(5, TimeUnit.SECONDS);
+
+        assertTrue(delivered.isEmpty());
+        assertEquals(version, presence.currentVersion());
+        assertTrue(presence.isOnline("ana"));
+    }
+
+    @Test
+    @DisplayName("Los seguidores explícitos reciben cambios y se pueden consultar por versión")
+    void testWatchAndChangesSince() throws Exception {
+        presence.update("ana", true);
+        presence.flush().get(5, TimeUnit.SECONDS);
+        long version = presence.currentVersion();
+        presence.watch("ana", "luis");
+
+        presence.update("luis", true);
+        presence.update("pedro", true);
+        presence.flush().get(5, TimeUnit.SECONDS);
+
+        assertEquals("PRESENCE 3 +luis", delivered.get("ana"));
+        assertFalse(delivered.containsKey("pedro"));
+        assertEquals(Map.of("luis", true, "pedro", true), presence.changesSince(version));
+    }
+
+    @Test
+    @DisplayName("Quien deja de seguir o un usuario olvidado ya no recibe ni genera deltas")
+    void testUnwatchAndForget() throws Exception {
+        presence.update("ana", true);
+        presence.update("eva", true);
+        presence.flush().get(5, TimeUnit.SECONDS);
+        delivered.clear();
+        presence.watch("ana", "luis");
+        presence.watch("eva", "luis");
+        presence.watch("luis", "ana");
+
+        presence.unwatch("eva", "luis");
+        presence.update("luis", true);
+        presence.flush().get(5, TimeUnit.SECONDS);
+        assertEquals(Set.of("ana"), delivered.keySet());
+
+        delivered.clear();
+        presence.forget("luis");
+        presence.update("ana", false);
+        presence.update("luis", false);
+        presence.flush().get(5, TimeUnit.SECONDS);
+        assertTrue(delivered.isEmpty(), delivered.toString());
+    }
+}
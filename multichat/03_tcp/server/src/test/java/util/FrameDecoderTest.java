@@ -0,0 +1,80 @@
+package util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests para FrameDecoder
+ */
+class FrameDecoderTest {
+
+    /**
+     * Simula un socket que entrega los datos en pedazos pequeños
+     */
+    private static InputStream fragmented(byte[] data, int chunk) {
+        return new ByteArrayInputStream(data) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, chunk));
+            }
+        };
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    @DisplayName("Lee líneas partidas entre lecturas y quita el CRLF")
+    void testReadsFragmentedLines() throws Exception {
+        FrameDecoder decoder = new FrameDecoder(fragmented(bytes("LOGIN ana\r\nMSG_USER luis hola\nHISTORY"), 3),
+                new BufferPool(8, 1));
+
+        assertEquals("LOGIN ana", decoder.readLine());
+        assertEquals("MSG_USER luis hola", decoder.readLine());
+        assertEquals("HISTORY", decoder.readLine(), "La última línea sin salto también se entrega");
+        assertNull(decoder.readLine());
+        decoder.close();
+    }
+
+    @Test
+    @DisplayName("El cuerpo binario sigue a su línea y la siguiente línea se lee después")
+    void testBodyBetweenLines() throws Exception {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        stream.write(bytes("VOICE_NOTE_USER luis 5\n"));
+        stream.write(new byte[] { 1, 2, '\n', 4, 5 });
+        stream.write(bytes("VOICE_NOTE_USER luis 3\n"));
+        stream.write(new byte[] { 7, 8, 9 });
+        stream.write(bytes("PING\n"));
+        FrameDecoder decoder = new FrameDecoder(fragmented(stream.toByteArray(), 4), new BufferPool(16, 1));
+
+        assertEquals("VOICE_NOTE_USER luis 5", decoder.readLine());
+        assertArrayEquals(new byte[] { 1, 2, '\n', 4, 5 }, decoder.readBody(5));
+        assertEquals("VOICE_NOTE_USER luis 3", decoder.readLine());
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        decoder.transferBody(3, sink);
+        assertArrayEquals(new byte[] { 7, 8, 9 }, sink.toByteArray());
+        assertEquals("PING", decoder.readLine());
+        decoder.close();
+    }
+
+    @Test
+    @DisplayName("Un cuerpo incompleto lanza EOFException")
+    void testTruncatedBody() throws Exception {
+        FrameDecoder decoder = new FrameDecoder(new ByteArrayInputStream(bytes("VOICE_NOTE_USER luis 10\nabc")));
+
+        decoder.readLine();
+        assertThrows(EOFException.class, () -> decoder.readBody(10));
+        decoder.close();
+    }
+}
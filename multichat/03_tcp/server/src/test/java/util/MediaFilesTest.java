@@ -0,0 +1,64 @@
+package util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests para MediaFiles
+ */
+class MediaFilesTest {
+
+    @TempDir
+    Path dir;
+
+    private File note(String id, int size) throws IOException {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) i;
+        }
+        return Files.write(dir.resolve(id), data).toFile();
+    }
+
+    @Test
+    @DisplayName("Solo se aceptan ids generados por el servidor, sin rutas")
+    void testRejectsInvalidIds() throws Exception {
+        note("vn_1.raw", 10);
+        MediaStore store = new MediaStore(dir.toFile());
+
+        assertThrows(FileNotFoundException.class, () -> MediaFiles.resolve(store, "../vn_1.raw", 0, -1));
+        assertThrows(FileNotFoundException.class, () -> MediaFiles.resolve(store, "secret.txt", 0, -1));
+        assertThrows(FileNotFoundException.class, () -> MediaFiles.resolve(store, "vn_2.raw", 0, -1));
+        assertThrows(IOException.class, () -> MediaFiles.resolve(store, "vn_1.raw", 11, -1));
+    }
+
+    @Test
+    @DisplayName("El tramo pedido se acota al tamaño y se copia exacto")
+    void testRangeTransfer() throws Exception {
+        note("vn_2.raw", 100);
+
+        MediaFiles.Range range = MediaFiles.resolve(new MediaStore(dir.toFile()), "vn_2.raw", 90, 50);
+        assertEquals(10, range.length());
+        assertEquals(100, range.total());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MediaFiles.transfer(range, Channels.newChannel(out));
+        byte[] expected = new byte[10];
+        for (int i = 0; i < 10; i++) {
+            expected[i] = (byte) (90 + i);
+        }
+        assertArrayEquals(expected, out.toByteArray());
+        assertArrayEquals(expected, MediaFiles.read(range));
+    }
+}
@@ -0,0 +1,92 @@
+package util;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests para MediaStore
+ */
+class MediaStoreTest {
+
+    @TempDir
+    Path dir;
+
+    private static String record(File file) {
+        return "{type:voice_note,from:a,target:b,isGroup:false,file:" + file.getPath() + ",ts:2024-01-01T00:00:00Z}";
+    }
+
+    @Test
+    @DisplayName("Dos subidas idénticas comparten blob y suman referencias")
+    void testDeduplicates() throws Exception {
+        MediaStore store = new MediaStore(dir.toFile());
+        byte[] audio = {1, 2, 3, 4, 5};
+
+        String first = store.put(audio, 2);
+        String second = store.put(audio, 2);
+
+        assertEquals(first, second);
+        assertEquals(4, store.references(first));
+        File blob = store.locate(first);
+        assertTrue(blob.getPath().contains(first.substring(3, 5) + File.separator + first.substring(5, 7)));
+        assertArrayEquals(audio, Files.readAllBytes(blob.toPath()));
+    }
+
+    @Test
+    @DisplayName("Al soltar la última referencia se borra el blob")
+    void testReleaseCollectsBlob() throws Exception {
+        MediaStore store = new MediaStore(dir.toFile());
+        String id = store.put(new byte[] {9, 9, 9}, 2);
+        String line = record(store.locate(id));
+
+        assertEquals(id, MediaStore.referencedId(line));
+        assertNull(MediaStore.referencedId("{type:text,from:a,target:b,msg:file:x}"));
+
+        store.releaseAll(List.of(line));
+        assertTrue(store.locate(id).exists());
+        store.releaseAll(List.of(line));
+        assertFalse(store.locate(id).exists());
+        assertEquals(0, store.references(id));
+    }
+
+    @Test
+    @DisplayName("Las cuentas sobreviven a un reinicio y sweep borra los huérfanos")
+    void testJournalReload() throws Exception {
+        MediaStore store = new MediaStore(dir.toFile());
+        String kept = store.put(new byte[] {1}, 2);
+        String released = store.put(new byte[] {2}, 1);
+        store.releaseAll(List.of(record(store.locate(released))));
+        String orphan = store.put(new byte[] {3}, 0);
+
+        MediaStore reopened = new MediaStore(dir.toFile());
+        assertEquals(2, reopened.references(kept));
+        assertEquals(0, reopened.references(released));
+        assertEquals(1, reopened.sweep());
+        assertFalse(reopened.locate(orphan).exists());
+        assertTrue(reopened.locate(kept).exists());
+    }
+
+    @Test
+    @DisplayName("Una subida abortada no deja archivos y los ids con rutas se rechazan")
+    void testAbortAndInvalidIds() throws Exception {
+        MediaStore store = new MediaStore(dir.toFile());
+        MediaStore.Upload upload = store.begin();
+        upload.write(new byte[] {1, 2, 3}, 0, 3);
+        upload.abort();
+
+        assertEquals(0, new File(dir.toFile(), "tmp").list().length);
+        assertNull(store.locate("../vn_1.raw"));
+        assertNull(store.locate("vn_" + "A".repeat(64) + "/../x.raw"));
+        assertEquals(new File(dir.toFile(), "vn_1.raw"), store.locate("vn_1.raw"));
+    }
+}
@@ -0,0 +1,259 @@
+package util;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests para NioTCPServer
+ */
+class NioTCPServerTest {
+
+    private NioTCPServer server;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new NioTCPServer(0, 2, TcpOptions.DEFAULT, 1024 * 1024, 1024 * 1024, line -> { });
+        server.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop();
+    }
+
+    /**
+     * Cliente del protocolo de líneas con el mismo decodificador que el servidor bloqueante
+     */
+    private class Client implements AutoCloseable {
+        final Socket socket;
+        final OutputStream out;
+        final FrameDecoder in;
+
+        Client(String user) throws IOException {
+            socket = new Socket("localhost", server.getLocalPort());
+            socket.setSoTimeout(5000);
+            out = new BufferedOutputStream(socket.getOutputStream());
+            in = new FrameDecoder(socket.getInputStream());
+            assertEquals("HELLO use: LOGIN <user>", in.readLine());
+            send("LOGIN " + user);
+            String reply;
+            while (!(reply = in.readLine()).equals("OK LOGIN")) {
+                assertEquals(true, reply.startsWith("SYS "), "Respuesta inesperada: " + reply);
+            }
+        }
+
+        void send(String line) throws IOException {
+            out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        }
+
+        /**
+         * Siguiente línea que no sea un aviso SYS
+         */
+        String next() throws IOException {
+            String line;
+            while ((line = in.readLine()).startsWith("SYS ")) { }
+            return line;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+            socket.close();
+        }
+    }
+
+    @Test
+    @DisplayName("Un mensaje privado llega al destinatario por otro selector")
+    void testPrivateMessage() throws Exception {
+        try (Client ana = new Client("ana-nio"); Client luis = new Client("luis-nio")) {
+            ana.send("MSG_USER luis-nio hola");
+
+            assertEquals("OK", ana.next());
+            assertEquals("MSG ana-nio: hola", luis.next());
+        }
+    }
+
+    @Test
+    @DisplayName("Una nota de voz partida en varios paquetes se reenvía completa")
+    void testVoiceNoteRelay() throws Exception {
+        try (Client ana = new Client("ana-vn"); Client luis = new Client("luis-vn")) {
+            byte[] audio = new byte[100_000];
+            for (int i = 0; i < audio.length; i++) {
+                audio[i] = (byte) i;
+            }
+            ana.send("VOICE_NOTE_USER luis-vn " + audio.length);
+            for (int off = 0; off < audio.length; off += 7000) {
+                ana.out.write(audio, off, Math.min(7000, audio.length - off));
+                ana.out.flush();
+            }
+            ana.send("PING");
+
+            assertEquals("OK VOICE_NOTE", ana.next());
+            assertEquals("PONG", ana.next());
+            assertEquals("VOICE_NOTE_FROM ana-vn " + audio.length, luis.next());
+            assertArrayEquals(audio, luis.in.readBody(audio.length));
+        }
+    }
+
+    @Test
+    @DisplayName("El destinatario recibe la nota antes de que termine la subida")
+    void testVoiceNoteCutThrough() throws Exception {
+        try (Client ana = new Client("ana-ct"); Client luis = new Client("luis-ct")) {
+            ana.send("VOICE_NOTE_USER luis-ct 6");
+            ana.out.write("abc".getBytes(StandardCharsets.UTF_8));
+            ana.out.flush();
+
+            assertEquals("VOICE_NOTE_FROM ana-ct 6", luis.next());
+            assertArrayEquals("abc".getBytes(StandardCharsets.UTF_8), luis.in.readBody(3));
+            ana.out.write("def".getBytes(StandardCharsets.UTF_8));
+            ana.out.flush();
+            assertArrayEquals("def".getBytes(StandardCharsets.UTF_8), luis.in.readBody(3));
+            assertEquals("OK VOICE_NOTE", ana.next());
+        }
+    }
+
+    @Test
+    @DisplayName("Una conexión inactiva no retiene buffer de lectura")
+    void testIdleConnectionsReleaseInputBuffer() throws Exception {
+        for (int i = 0; i < 32; i++) {
+            BufferPool.SHARED.release(new byte[BufferPool.SHARED.bufferSize()]);
+        }
+        int before = BufferPool.SHARED.retained();
+        List<Socket> idle = new ArrayList<>();
+        try {
+            for (int i = 0; i < 20; i++) {
+                Socket socket = new Socket("localhost", server.getLocalPort());
+                idle.add(socket);
+                socket.setSoTimeout(5000);
+                socket.getOutputStream().write(("LOGIN idle" + i + "\n").getBytes(StandardCharsets.UTF_8));
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                while (!"OK LOGIN".equals(in.readLine())) { }
+            }
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (BufferPool.SHARED.retained() < before && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(BufferPool.SHARED.retained() >= before,
+                    "Los buffers vuelven al pool: " + BufferPool.SHARED.retained() + " < " + before);
+        } finally {
+            for (Socket socket : idle) {
+                socket.close();
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Si la subida se corta, el destinatario recibe el cuerpo completado y VOICE_NOTE_ABORT")
+    void testVoiceNoteAbortAnnounced() throws Exception {
+        try (Client luis = new Client("luis-ab")) {
+            try (Client ana = new Client("ana-ab")) {
+                ana.send("VOICE_NOTE_USER luis-ab 6");
+                ana.out.write("abc".getBytes(StandardCharsets.UTF_8));
+                ana.out.flush();
+                assertEquals("VOICE_NOTE_FROM ana-ab 6", luis.next());
+                assertArrayEquals("abc".getBytes(StandardCharsets.UTF_8), luis.in.readBody(3));
+            }
+            assertArrayEquals(new byte[3], luis.in.readBody(3));
+            assertEquals("VOICE_NOTE_ABORT ana-ab", luis.next());
+        }
+    }
+
+    @Test
+    @DisplayName("MEDIA_GET envía desde el archivo el tramo pedido de una nota guardada")
+    void testMediaGetRange() throws Exception {
+        File mediaDir = new File("data", "media");
+        mediaDir.mkdirs();
+        File note = new File(mediaDir, "vn_test" + System.nanoTime() + ".raw");
+        Files.write(note.toPath(), "0123456789".getBytes(StandardCharsets.UTF_8));
+        try (Client ana = new Client("ana-media")) {
+            ana.send("MEDIA_GET " + note.getName() + " 4 3");
+            ana.send("PING");
+
+            assertEquals("MEDIA " + note.getName() + " 4 3 10 raw", ana.next());
+            assertArrayEquals("456".getBytes(StandardCharsets.UTF_8), ana.in.readBody(3));
+            assertEquals("PONG", ana.next());
+        } finally {
+            note.delete();
+        }
+    }
+
+    @Test
+    @DisplayName("Una nota de voz mayor que el máximo se rechaza y se cierra la conexión")
+    void testVoiceNoteTooLarge() throws Exception {
+        try (Client ana = new Client("ana-big")) {
+            ana.send("VOICE_NOTE_USER nadie " + (2 * 1024 * 1024));
+
+            String reply = ana.in.readLine();
+            if (reply != null) {
+                assertEquals(true, reply.startsWith("ERR voice note too large"), reply);
+                reply = ana.in.readLine();
+            }
+            assertNull(reply, "La conexión debe cerrarse");
+        }
+    }
+
+    @Test
+    @DisplayName("Lo que sigue a una nota de voz rechazada no se ejecuta como comandos")
+    void testRejectedVoiceNoteBodyIgnored() throws Exception {
+        try (Client ana = new Client("ana-rej"); Client luis = new Client("luis-rej")) {
+            // Encabezado y "cuerpo" en el mismo paquete: el cuerpo parece un comando
+            ana.send("VOICE_NOTE_USER luis-rej " + (2 * 1024 * 1024) + "\nMSG_USER luis-rej colado");
+
+            String reply;
+            while ((reply = ana.in.readLine()) != null) {
+                assertEquals(true, reply.startsWith("SYS ") || reply.startsWith("ERR voice note too large"), reply);
+            }
+            luis.send("PING");
+            assertEquals("PONG", luis.next());
+        }
+    }
+
+    @Test
+    @DisplayName("Un historial mayor que la cola de salida llega completo sin desconectar")
+    void testHistoryLargerThanOutbound() throws Exception {
+        String user = "ana-hist" + System.nanoTime();
+        File history = new File(new File("data", "history"), user + ".jsonl");
+        history.getParentFile().mkdirs();
+        String record = "{\"type\":\"text\",\"msg\":\"" + "x".repeat(1000) + "\"}";
+        int lines = 3000; // ~3 MB, el triple del límite de la cola
+        try (var writer = Files.newBufferedWriter(history.toPath())) {
+            for (int i = 0; i < lines; i++) {
+                writer.write(record);
+                writer.newLine();
+            }
+        }
+        try (Client ana = new Client(user)) {
+            ana.send("HISTORY");
+            ana.send("PING");
+
+            assertEquals("HISTORY_BEGIN", ana.next());
+            for (int i = 0; i < lines; i++) {
+                assertEquals(record, ana.next());
+            }
+            assertEquals("HISTORY_END", ana.next());
+            assertEquals("PONG", ana.next());
+        } finally {
+            history.delete();
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests para SessionWriter
+ */
+class SessionWriterTest {
+
+    /**
+     * Socket simulado que no acepta bytes hasta que se libera
+     */
+    private static class GatedOutputStream extends OutputStream {
+        final CountDownLatch gate = new CountDownLatch(1);
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            synchronized (written) {
+                written.write(b, off, len);
+            }
+        }
+
+        String text() {
+            synchronized (written) {
+                return written.toString(StandardCharsets.UTF_8);
+            }
+        }
+    }
+
+    private static void awaitText(GatedOutputStream out, String expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!out.text().equals(expected) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, out.text());
+    }
+
+    @Test
+    @DisplayName("Las líneas se escriben en orden y sin intercalarse con binarios")
+    void testWritesFramesInOrder() throws Exception {
+        GatedOutputStream out = new GatedOutputStream();
+        out.gate.countDown();
+        SessionWriter writer = new SessionWriter("test", out, 1024, SessionWriter.OverflowPolicy.DROP, null).start();
+
+        writer.println("uno");
+        writer.sendWithBody("VOICE 3", "abc".getBytes(StandardCharsets.UTF_8));
+        writer.println("dos");
+
+        awaitText(out, "uno\nVOICE 3\nabcdos\n");
+        writer.close();
+    }
+
+    @Test
+    @DisplayName("Un receptor lento no bloquea al que envía y DROP descarta el exceso")
+    void testDropPolicy() throws Exception {
+        GatedOutputStream out = new GatedOutputStream();
+        SessionWriter writer = new SessionWriter("test", out, 11, SessionWriter.OverflowPolicy.DROP, null).start();
+
+        assertTrue(writer.println("1234"));
+        Thread.sleep(50); // el escritor queda bloqueado en el socket con el primer lote
+        assertTrue(writer.println("5678"));
+        assertFalse(writer.println("9"), "El lote en vuelo también cuenta: el frame se descarta");
+
+        out.gate.countDown();
+        awaitText(out, "1234\n5678\n");
+        assertFalse(writer.isClosed());
+        writer.close();
+    }
+
+    @Test
+    @DisplayName("DISCONNECT cierra la sesión al desbordarse")
+    void testDisconnectPolicy() throws Exception {
+        GatedOutputStream out = new GatedOutputStream();
+        AtomicBoolean disconnected = new AtomicBoolean();
+        SessionWriter writer = new SessionWriter("test", out, 4, SessionWriter.OverflowPolicy.DISCONNECT,
+                () -> disconnected.set(true)).start();
+
+        writer.println("123");
+        assertFalse(writer.println("overflow"));
+
+        assertTrue(disconnected.get());
+        assertTrue(writer.isClosed());
+        out.gate.countDown();
+    }
+
+    @Test
+    @DisplayName("SPILL guarda el exceso en disco y lo reenvía en orden")
+    void testSpillPolicy() throws Exception {
+        GatedOutputStream out = new GatedOutputStream();
+        SessionWriter writer = new SessionWriter("test", out, 5, SessionWriter.OverflowPolicy.SPILL, null).start();
+
+        assertTrue(writer.println("a"));
+        Thread.sleep(50);
+        assertTrue(writer.println("bb"));
+        assertTrue(writer.println("ccc"), "El exceso se derrama a disco");
+        assertTrue(writer.println("d"), "Tras derramar, todo sigue al archivo para mantener el orden");
+
+        out.gate.countDown();
+        awaitText(out, "a\nbb\nccc\nd\n");
+        writer.close();
+    }
+
+    @Test
+    @DisplayName("Un consumidor retrasado pasa a modo pull y vuelve al ponerse al día")
+    void testLaggingSessionSwitchesToPull() throws Exception {
+        SessionWriter.configureLag(1024 * 1024, 50, "PULL");
+        try {
+            GatedOutputStream out = new GatedOutputStream();
+            SessionWriter writer = new SessionWriter("test", out, 1024, SessionWriter.OverflowPolicy.DROP,
+                    SessionWriter.LagAction.PULL, null).start();
+
+            assertTrue(writer.println("a"));
+            Thread.sleep(100); // el primer frame supera la antigüedad máxima
+            assertFalse(writer.println("b"));
+            assertTrue(writer.isPullMode());
+            assertFalse(writer.println("c"), "En modo pull no se encolan más pushes");
+
+            out.gate.countDown();
+            awaitText(out, "a\n");
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (writer.isPullMode() && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertFalse(writer.isPullMode());
+            assertTrue(writer.println("d"));
+            awaitText(out, "a\nd\n");
+            writer.close();
+        } finally {
+            SessionWriter.configureLag(256 * 1024, 10_000, "PULL");
+        }
+    }
+
+    @Test
+    @DisplayName("Con DISCONNECT un consumidor retrasado se desconecta")
+    void testLaggingSessionDisconnects() throws Exception {
+        SessionWriter.configureLag(4, 10_000, "PULL");
+        try {
+            GatedOutputStream out = new GatedOutputStream();
+            AtomicBoolean disconnected = new AtomicBoolean();
+            SessionWriter writer = new SessionWriter("test", out, 1024, SessionWriter.OverflowPolicy.DROP,
+                    SessionWriter.LagAction.DISCONNECT, () -> disconnected.set(true)).start();
+
+            writer.println("1234");
+            assertFalse(writer.println("5"), "5 bytes sin entregar superan el límite de 4");
+
+            assertTrue(disconnected.get());
+            assertTrue(writer.isClosed());
+            out.gate.countDown();
+        } finally {
+            SessionWriter.configureLag(256 * 1024, 10_000, "PULL");
+        }
+    }
+
+    @Test
+    @DisplayName("Lo enviado durante un cuerpo por partes espera detrás y uno abortado se completa y se anuncia")
+    void testStreamedBodyHoldsOtherFrames() throws Exception {
+        GatedOutputStream out = new GatedOutputStream();
+        out.gate.countDown();
+        SessionWriter writer = new SessionWriter("test", out, 1024, SessionWriter.OverflowPolicy.DROP, null).start();
+
+        Outbound.BodyStream first = writer.openStream("VOICE 4", 4);
+        assertNull(writer.openStream("VOICE 2", 2), "Un segundo cuerpo no se acumula: queda en el historial");
+        assertTrue(first.write("ab".getBytes(StandardCharsets.UTF_8)));
+        writer.println("msg");
+        assertTrue(first.write("c".getBytes(StandardCharsets.UTF_8)));
+        awaitText(out, "VOICE 4\nabc");
+
+        first.abort("ABORT"); // falta un byte: se rellena para no desincronizar al cliente
+        awaitText(out, "VOICE 4\nabc\0ABORT\nmsg\n");
+
+        Outbound.BodyStream next = writer.openStream("VOICE 2", 2);
+        assertTrue(next.write("xy".getBytes(StandardCharsets.UTF_8)));
+        next.finish();
+        awaitText(out, "VOICE 4\nabc\0ABORT\nmsg\nVOICE 2\nxy");
+        writer.close();
+    }
+
+    @Test
+    @DisplayName("Una parte que no cabe desconecta al destinatario lento sin hacer esperar al emisor")
+    void testSlowStreamRecipientDoesNotBlockSender() throws Exception {
+        GatedOutputStream out = new GatedOutputStream();
+        SessionWriter writer = new SessionWriter("test", out, 64, SessionWriter.OverflowPolicy.DROP, null).start();
+        try {
+            Outbound.BodyStream stream = writer.openStream("VOICE 400", 400);
+            long start = System.nanoTime();
+            boolean accepted = true;
+            for (int i = 0; i < 10 && accepted; i++) {
+                accepted = stream.write(new byte[40]);
+            }
+            long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            assertFalse(accepted, "El destinatario lento se desconecta");
+            assertTrue(elapsedMs < 1000, "El emisor no espera espacio: " + elapsedMs + " ms");
+            assertTrue(writer.isClosed());
+            stream.finish();
+        } finally {
+            out.gate.countDown();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests para VoiceCodec
+ */
+class VoiceCodecTest {
+
+    @TempDir
+    Path dir;
+
+    // Voz sintética: dos tonos con envolvente, 16 bits little-endian
+    private static byte[] speech(int samples) {
+        byte[] pcm = new byte[samples * 2];
+        for (int i = 0; i < samples; i++) {
+            double envelope = 0.5 + 0.5 * Math.sin(2 * Math.PI * i / 4000.0);
+            int s = (int) (envelope * (9000 * Math.sin(2 * Math.PI * 220 * i / 16000.0)
+                    + 4000 * Math.sin(2 * Math.PI * 1250 * i / 16000.0)));
+            pcm[2 * i] = (byte) s;
+            pcm[2 * i + 1] = (byte) (s >> 8);
+        }
+        return pcm;
+    }
+
+    private static double snr(byte[] original, byte[] decoded) {
+        double signal = 0;
+        double noise = 0;
+        for (int i = 0; i < original.length; i += 2) {
+            int a = (short) ((original[i] & 0xFF) | (original[i + 1] << 8));
+            int b = (short) ((decoded[i] & 0xFF) | (decoded[i + 1] << 8));
+            signal += (double) a * a;
+            noise += (double) (a - b) * (a - b);
+        }
+        return 10 * Math.log10(signal / noise);
+    }
+
+    @Test
+    @DisplayName("El PCM se guarda 4 veces más chico y se recupera con calidad de voz")
+    void testRoundTrip() throws Exception {
+        byte[] pcm = speech(16000);
+        byte[] stored = VoiceCodec.encode(pcm, true);
+        assertEquals(VoiceCodec.HEADER_BYTES + pcm.length / 4, stored.length);
+
+        File file = Files.write(dir.resolve("vn_1.raw"), stored).toFile();
+        assertEquals(VoiceCodec.IMA_ADPCM, VoiceCodec.codec(file));
+        assertEquals(pcm.length, VoiceCodec.pcmLength(file));
+        byte[] decoded = VoiceCodec.readPcm(file, 0, pcm.length);
+        assertTrue(snr(pcm, decoded) > 20, "SNR " + snr(pcm, decoded));
+
+        // Un tramo intermedio (con inicio impar) coincide con el mismo tramo de la nota entera
+        assertArrayEquals(Arrays.copyOfRange(decoded, 10001, 10501), VoiceCodec.readPcm(file, 10001, 500));
+    }
+
+    @Test
+    @DisplayName("Codificar por partes da lo mismo que codificar la nota entera")
+    void testStreamingMatchesWhole() throws Exception {
+        byte[] pcm = speech(5001);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        VoiceCodec.Encoder encoder = VoiceCodec.encoder(out, pcm.length, true);
+        int[] parts = {1, 2, 3, 7, 4096, 1};
+        int off = 0;
+        for (int i = 0; off < pcm.length; i++) {
+            int n = Math.min(parts[i % parts.length], pcm.length - off);
+            encoder.write(pcm, off, n);
+            off += n;
+        }
+        encoder.finish();
+        assertArrayEquals(VoiceCodec.encode(pcm, true), out.toByteArray());
+    }
+
+    @Test
+    @DisplayName("Lo que no parece PCM se guarda tal cual")
+    void testPassThrough() throws Exception {
+        byte[] odd = speech(100);
+        odd = Arrays.copyOf(odd, odd.length - 1);
+        assertArrayEquals(odd, VoiceCodec.encode(odd, true));
+
+        byte[] webm = speech(100);
+        webm[0] = 0x1A;
+        webm[1] = 0x45;
+        webm[2] = (byte) 0xDF;
+        webm[3] = (byte) 0xA3;
+        assertArrayEquals(webm, VoiceCodec.encode(webm, true));
+        File file = Files.write(dir.resolve("vn_2.raw"), webm).toFile();
+        assertEquals(VoiceCodec.RAW, VoiceCodec.codec(file));
+    }
+
+    @Test
+    @DisplayName("MP4 y MP3 (tamaño par, sin cabecera conocida) no declarados PCM salen byte a byte")
+    void testUndeclaredFormatsUntouched() throws Exception {
+        // Caja ftyp de un M4A y una trama MPEG-1 Layer III sin ID3, rellenas hasta tamaño par
+        byte[] m4a = speech(200);
+        System.arraycopy(new byte[] {0, 0, 0, 0x20, 'f', 't', 'y', 'p', 'M', '4', 'A', ' '}, 0, m4a, 0, 12);
+        byte[] mp3 = speech(200);
+        System.arraycopy(new byte[] {(byte) 0xFF, (byte) 0xFB, (byte) 0x90, 0x64}, 0, mp3, 0, 4);
+
+        for (byte[] audio : new byte[][] {m4a, mp3}) {
+            assertArrayEquals(audio, VoiceCodec.encode(audio, false));
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            VoiceCodec.Encoder encoder = VoiceCodec.encoder(out, audio.length, false);
+            encoder.write(audio, 0, 3);
+            encoder.write(audio, 3, audio.length - 3);
+            encoder.finish();
+            assertArrayEquals(audio, out.toByteArray());
+            assertFalse(encoder.isPcm());
+            assertFalse(VoiceCodec.isPcm(audio, false));
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package util;
+
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests para VoiceSummary
+ */
+class VoiceSummaryTest {
+
+    // Primera mitad en silencio, segunda mitad con una onda cuadrada de amplitud máxima
+    private static byte[] halfLoud(int samples) {
+        byte[] pcm = new byte[samples * 2];
+        for (int i = samples / 2; i < samples; i++) {
+            short s = (i % 2 == 0) ? Short.MAX_VALUE : -Short.MAX_VALUE;
+            pcm[2 * i] = (byte) s;
+            pcm[2 * i + 1] = (byte) (s >> 8);
+        }
+        return pcm;
+    }
+
+    @Test
+    @DisplayName("Duración según la frecuencia de muestreo y barras de pico/RMS")
+    void testSummary() {
+        VoiceSummary summary = VoiceSummary.of(halfLoud(32000));
+        assertEquals(2000, summary.durationMs());
+
+        byte[] bars = Base64.getUrlDecoder().decode(summary.waveform());
+        assertEquals(2 * VoiceSummary.BARS, bars.length);
+        assertEquals(0, bars[0]);
+        assertEquals(0, bars[1]);
+        assertEquals(255, bars[bars.length - 2] & 0xFF);
+        assertEquals(255, bars[bars.length - 1] & 0xFF);
+        assertTrue(summary.recordFields().matches(",dur:2000,wave:[A-Za-z0-9_-]+"));
+    }
+
+    @Test
+    @DisplayName("Calcular por partes (con muestras partidas) da lo mismo que de una vez")
+    void testStreamingMatchesWhole() {
+        byte[] pcm = halfLoud(1001);
+        VoiceSummary.Builder builder = new VoiceSummary.Builder(pcm.length);
+        for (int off = 0; off < pcm.length; off += 3) {
+            builder.update(pcm, off, Math.min(3, pcm.length - off));
+        }
+        assertEquals(VoiceSummary.of(pcm), builder.finish());
+    }
+}
@@ -14,6 +14,7 @@ import {
 import {
     initializeICE,
     sendAudioViaICE,
+    fetchAudioViaICE,
     startCallViaICE,
     sendMessageViaICE,
     recordAudio,
@@ -460,7 +461,13 @@ async function loadMessageHistory(username) {
                     const from = entry.match(/from:([^,]+)/)?.[1];
                     const target = entry.match(/target:([^,]+)/)?.[1];
                     const isGroup = entry.includes('isGroup:true');
-                    const msg = entry.match(/msg:(.*?),ts:/)?.[1];
+                    let msg = entry.match(/msg:(.*?),ts:/)?.[1];
+                    if (entry.includes('type:voice_note')) {
+                        // Nota de voz: el registro apunta al medio; el audio se pide al reproducirla
+                        const mediaId = entry.match(/file:([^,}]+)/)?.[1]?.split(/[\\/]/).pop();
+                        const durationMs = Number(entry.match(/dur:(\d+)/)?.[1]) || undefined;
+                        msg = mediaId && JSON.stringify({ type: 'audio', mediaId, durationMs, waveform: entry.match(/wave:([^,}]+)/)?.[1] });
+                    }
                     const tsStr = entry.match(/ts:([^}]+)[}\]]?$/)?.[1];
                     const ts = tsStr ? new Date(tsStr) : new Date();
 
@@ -1952,25 +1959,42 @@ function addAudioMessageToUI(from, audioMessage, isSent) {
     audioInfo.style.minWidth = '30px';
     audioInfo.style.textAlign = 'right';
 
-    // Audio Object
-    const audio = new Audio(`data:audio/wav;base64,${audioMessage.data}`);
-
-    // Load metadata to get duration
-    audio.onloadedmetadata = () => {
-        const duration = Math.round(audio.duration);
+    // Audio Object. Las notas del historial y de la cola llegan como referencia
+    // (mediaId): el audio se descarga la primera vez que se reproduce
+    const audio = new Audio(audioMessage.data ? `data:audio/wav;base64,${audioMessage.data}` : undefined);
+    const showDuration = (duration) => {
         const minutes = Math.floor(duration / 60);
         const seconds = duration % 60;
         audioInfo.innerText = `${minutes}:${seconds < 10 ? '0' : ''}${seconds}`;
     };
+    if (audioMessage.durationMs) {
+        showDuration(Math.round(audioMessage.durationMs / 1000));
+    }
+
+    // Load metadata to get duration
+    audio.onloadedmetadata = () => {
+        if (isFinite(audio.duration)) {
+            showDuration(Math.round(audio.duration));
+        }
+    };
 
     let isPlaying = false;
 
-    playBtn.onclick = () => {
+    playBtn.onclick = async () => {
         if (isPlaying) {
             audio.pause();
             playBtn.innerHTML = '▶️';
             isPlaying = false;
         } else {
+            if (!audio.src && audioMessage.mediaId) {
+                try {
+                    const data = await fetchAudioViaICE(audioMessage.mediaId);
+                    audio.src = `data:audio/wav;base64,${data}`;
+                } catch (e) {
+                    console.error('[UI] Failed to fetch audio', audioMessage.mediaId, e);
+                    return;
+                }
+            }
             // Stop other audios? (Optional)
             audio.play();
             playBtn.innerHTML = '⏸️';
@@ -2068,6 +2092,8 @@ function handleIncomingMessageViaICE(message) {
             content: message.content,
             isSent: false,
             isAudio: message.isAudio,
+            durationMs: message.durationMs,
+            waveform: message.waveform,
             timestamp: tsObj
         });
 
@@ -2085,6 +2111,8 @@ function handleIncomingMessageViaICE(message) {
                 try {
                     const audioData = JSON.parse(message.content);
                     audioData.timestamp = tsObj;
+                    audioData.durationMs = message.durationMs;
+                    audioData.waveform = message.waveform;
                     addAudioMessageToUI(message.sender, audioData, false);
                 } catch (e) {
                     console.error('[ICE] Failed to parse audio message:', e);
@@ -2560,13 +2588,8 @@ async function recordAndSendAudio() {
         } else if (currentChat.type === 'group') {
             // Ensure group name has # prefix for Ice handler
             const target = receiver.startsWith('#') ? receiver : '#' + receiver;
+            // El servidor deja la referencia en la cola de cada miembro: no hace falta reenviar el audio por REST
             await sendAudioViaICE(target, audioBase64);
-            // Fallback/broadcast via REST messaging so all group members receive the audio payload
-            try {
-                await sendMessageToGroup(username, receiver, JSON.stringify(audioMessage));
-            } catch (restErr) {
-                console.warn('[UI] Failed to send audio to group via REST fallback:', restErr);
-            }
         }
 
         // Cache and add audio message to UI
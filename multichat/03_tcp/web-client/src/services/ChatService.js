@@ -40,13 +40,15 @@
     let chat = _ModuleRegistry.module("chat");
 
     chat.Message = class {
-        constructor(id = "", sender = "", receiver = "", content = "", isAudio = false, timestamp = new Ice.Long(0, 0)) {
+        constructor(id = "", sender = "", receiver = "", content = "", isAudio = false, timestamp = new Ice.Long(0, 0), durationMs = 0, waveform = "") {
             this.id = id;
             this.sender = sender;
             this.receiver = receiver;
             this.content = content;
             this.isAudio = isAudio;
             this.timestamp = timestamp;
+            this.durationMs = durationMs;
+            this.waveform = waveform;
         }
 
         _write(ostr) {
@@ -56,6 +58,8 @@
             ostr.writeString(this.content);
             ostr.writeBool(this.isAudio);
             ostr.writeLong(this.timestamp);
+            ostr.writeInt(this.durationMs);
+            ostr.writeString(this.waveform);
         }
 
         _read(istr) {
@@ -65,10 +69,12 @@
             this.content = istr.readString();
             this.isAudio = istr.readBool();
             this.timestamp = istr.readLong();
+            this.durationMs = istr.readInt();
+            this.waveform = istr.readString();
         }
 
         static get minWireSize() {
-            return 13;
+            return 18;
         }
     };
 
@@ -106,6 +112,33 @@
 
     Slice.defineStruct(chat.Call, true, true);
 
+    chat.NotAuthenticatedException = class extends Ice.UserException {
+        constructor(reason = "", _cause = "") {
+            super(_cause);
+            this.reason = reason;
+        }
+
+        static get _parent() {
+            return Ice.UserException;
+        }
+
+        static get _id() {
+            return "::chat::NotAuthenticatedException";
+        }
+
+        _mostDerivedType() {
+            return chat.NotAuthenticatedException;
+        }
+
+        _writeMemberImpl(ostr) {
+            ostr.writeString(this.reason);
+        }
+
+        _readMemberImpl(istr) {
+            this.reason = istr.readString();
+        }
+    };
+
     Slice.defineSequence(chat, "MessageSeqHelper", "chat.Message", false);
 
     Slice.defineSequence(chat, "CallSeqHelper", "chat.Call", false);
@@ -124,6 +157,7 @@
     Slice.defineOperations(chat.ChatCallback, chat.ChatCallbackPrx, iceC_chat_ChatCallback_ids, 1,
         {
             "onNewMessage": [, , , , , [[chat.Message]], , , ,],
+            "onNewMessages": [, , , , , [["chat.MessageSeqHelper"]], , , ,],
             "onCallStarted": [, , , , , [[chat.Call]], , , ,],
             "onCallEnded": [, , , , , [[7]], , , ,]
         });
@@ -142,9 +176,13 @@
     Slice.defineOperations(chat.ChatService, chat.ChatServicePrx, iceC_chat_ChatService_ids, 1,
         {
             "getHistory": [, , , , ["chat.MessageSeqHelper"], [[7]], , , ,],
-            "sendMessage": [, , , , , [[7], [7]], , , ,],
-            "sendAudio": [, , , , , [[7], [7]], , , ,],
-            "startCall": [, , , , [chat.Call], [[7], [7]], , , ,],
+            "sendMessage": [, , , , , [[7], [7]], , [chat.NotAuthenticatedException], ,],
+            "sendAudio": [, , , , , [[7], [7]], , [chat.NotAuthenticatedException], ,],
+            "fetchMedia": [, , , , ["Ice.ByteSeqHelper"], [[7], [4], [3]], , , ,],
+            "beginAudioUpload": [, , , , [7], [[7], [3]], , [chat.NotAuthenticatedException], ,],
+            "uploadAudioChunk": [, , , , , [[7], [4], ["Ice.ByteSeqHelper"]], , , ,],
+            "finishAudioUpload": [, , , , [chat.Message], [[7]], , , ,],
+            "startCall": [, , , , [chat.Call], [[7], [7]], , [chat.NotAuthenticatedException], ,],
             "endCall": [, , , , , [[7]], , , ,],
             "getActiveCalls": [, , , , ["chat.CallSeqHelper"], [[7]], , , ,],
             "subscribe": [, , , , , [[7], ["chat.ChatCallbackPrx"]], , , ,]
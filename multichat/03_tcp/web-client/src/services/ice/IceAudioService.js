@@ -2,12 +2,75 @@
  * ICE Audio Service - Maneja operaciones de audio vía ICE
  */
 
+// Partes de la subida binaria y de la descarga; bajo el límite de mensaje de Ice (1 MB)
+const UPLOAD_CHUNK_BYTES = 256 * 1024;
+const FETCH_CHUNK_BYTES = 512 * 1024;
+
 export class IceAudioService {
     constructor(connectionManager) {
         this.connectionManager = connectionManager;
+        this.chunkedUpload = true; // se desactiva si el servidor no conoce beginAudioUpload
     }
 
     async sendAudio(receiver, audioBase64) {
+        if (this.chunkedUpload) {
+            try {
+                return await this.sendAudioChunked(receiver, audioBase64);
+            } catch (error) {
+                if (!(error instanceof Ice.Ice.OperationNotExistException)) {
+                    throw error;
+                }
+                console.warn('[IceAudioService] Server without chunked upload, falling back to sendAudio');
+                this.chunkedUpload = false;
+            }
+        }
+        return await this.sendAudioBase64(receiver, audioBase64);
+    }
+
+    /**
+     * Sube la nota en binario y por partes: el audio cruza la red una sola vez,
+     * sin el 33% extra de base64, y los demás reciben solo una referencia al medio
+     */
+    async sendAudioChunked(receiver, audioBase64) {
+        const bytes = Uint8Array.from(atob(audioBase64), c => c.charCodeAt(0));
+        const proxy = await this.connectionManager.getProxy();
+        // El servidor toma el remitente de la conexión (ligada al suscribirse) o del contexto
+        const ctx = this.connectionManager.buildUserCtx();
+        const uploadId = await proxy.beginAudioUpload(receiver, bytes.length, ctx);
+        for (let offset = 0; offset < bytes.length; offset += UPLOAD_CHUNK_BYTES) {
+            const chunk = bytes.subarray(offset, Math.min(offset + UPLOAD_CHUNK_BYTES, bytes.length));
+            await proxy.uploadAudioChunk(uploadId, new Ice.Ice.Long(offset), chunk);
+        }
+        const msg = await proxy.finishAudioUpload(uploadId);
+        console.log(`[ICE] Audio uploaded to ${receiver} as ${msg.content}`);
+        return msg;
+    }
+
+    /**
+     * Descarga una nota guardada por tramos y la devuelve en base64 para reproducirla
+     */
+    async fetchAudio(mediaId) {
+        const proxy = await this.connectionManager.getProxy();
+        const parts = [];
+        let total = 0;
+        for (;;) {
+            const part = await proxy.fetchMedia(mediaId, new Ice.Ice.Long(total), FETCH_CHUNK_BYTES);
+            parts.push(part);
+            total += part.length;
+            if (part.length < FETCH_CHUNK_BYTES) {
+                break;
+            }
+        }
+        let binary = '';
+        for (const part of parts) {
+            for (let i = 0; i < part.length; i += 0x8000) {
+                binary += String.fromCharCode.apply(null, part.subarray(i, i + 0x8000));
+            }
+        }
+        return btoa(binary);
+    }
+
+    async sendAudioBase64(receiver, audioBase64) {
         try {
             let proxy;
             try {
@@ -14,6 +14,12 @@ export class IceSubscriptionService {
             // Create callback implementation
             const callbackImpl = {
                 onNewMessage: onNewMessage,
+                // El servidor junta en una sola llamada los mensajes que se acumulan mientras espera respuesta
+                onNewMessages: (msgs, current) => {
+                    for (const msg of msgs) {
+                        onNewMessage(msg, current);
+                    }
+                },
                 onCallStarted: onCallStarted,
                 onCallEnded: onCallEnded
             };
@@ -141,6 +141,10 @@ export async function sendAudioViaICE(receiver, audioBase64) {
     return await getAudioService().sendAudio(receiver, audioBase64);
 }
 
+export async function fetchAudioViaICE(mediaId) {
+    return await getAudioService().fetchAudio(mediaId);
+}
+
 export async function startCallViaICE(caller, callee) {
     return await getCallService().startCall(caller, callee);
 }